@@ -0,0 +1,136 @@
+package com.sam.key.manager;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.apache.commons.math3.random.MersenneTwister;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage level benchmarks of the token pipeline that do not involve key derivation: alphabet permutation,
+ * CSPRNG index generation, index obfuscation, the packed as well as the legacy textual Base64 index encoding and
+ * the char[] based secret handling against the former String based one.
+ * <p>
+ * Every stage is parameterized by password length and alphabet size, the alphabet is cut down from the
+ * initial reference alphabet to the requested size. Run with {@code -prof gc} to compare the allocation rate of
+ * the primitive alphabet permutation against the former boxed list shuffle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeneratorBenchmark {
+
+    static final long PIN = 12345L;
+    static final String ENCRYPTION_PW = "benchmark-encryption-pw";
+    static final char[] ENCRYPTION_PW_CHARS = ENCRYPTION_PW.toCharArray();
+
+    @Param({"10", "40", "78"})
+    int pwLength;
+
+    @Param({"26", "52", "83"})
+    int alphabetSize;
+
+    Generator g;
+    int[] indexes;
+    int[] obfuscatedIndexes;
+    String encodedIndexes;
+    byte[] packedIndexes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        g = new Generator();
+        g.setReferenceAlphabet(Arrays.copyOf(g.getReferenceAlphabet(), alphabetSize));
+        indexes = g.generateIndexes(pwLength, PIN);
+        obfuscatedIndexes = g.obfuscateIndexes(indexes, PIN, ENCRYPTION_PW);
+        encodedIndexes = g.base64Encoding(obfuscatedIndexes, g.encoder);
+        packedIndexes = IndexCodec.encode(obfuscatedIndexes);
+    }
+
+    @Benchmark
+    public char[] randomizeAlphabet() {
+        return g.randomizeAlphabet(PIN, g.getReferenceAlphabet());
+    }
+
+    @Benchmark
+    public char[] randomizeAlphabetBoxed() {
+        List<Character> list = new ArrayList<>();
+        for (char c : g.getReferenceAlphabet()) {
+            list.add(c);
+        }
+        g.shuffle(list, new MersenneTwister(PIN));
+        String str = list.toString().replace(",", "");
+        return str.substring(1, str.length() - 1).replace(" ", "").toCharArray();
+    }
+
+    @Benchmark
+    public int[] generateIndexes() {
+        return g.generateIndexes(pwLength, PIN);
+    }
+
+    @Benchmark
+    public int[] obfuscateIndexes() {
+        return g.obfuscateIndexes(indexes, PIN, ENCRYPTION_PW);
+    }
+
+    @Benchmark
+    public int[] clearObfuscatedIndexes() {
+        return g.clearObfuscatedIndexes(obfuscatedIndexes, PIN, ENCRYPTION_PW);
+    }
+
+    @Benchmark
+    public String base64Encoding() {
+        return g.base64Encoding(obfuscatedIndexes, Base64.getEncoder());
+    }
+
+    @Benchmark
+    public int[] base64Decoding() {
+        return g.base64Decoding(encodedIndexes, Base64.getDecoder());
+    }
+
+    @Benchmark
+    public long pwHashString() {
+        return TokenEngine.transformPwToHashedLong(String.valueOf(ENCRYPTION_PW_CHARS));
+    }
+
+    @Benchmark
+    public long pwHashChars() {
+        return TokenEngine.transformPwToHashedLong(ENCRYPTION_PW_CHARS);
+    }
+
+    @Benchmark
+    public long pinToLongString() {
+        return TokenEngine.convertCharToLong(Long.toString(PIN).toCharArray());
+    }
+
+    @Benchmark
+    public long pinToLongChars() {
+        return TokenEngine.convertPinToLong(PIN);
+    }
+
+    @Benchmark
+    public String pwByIndexesString() {
+        return TokenEngine.generateByIndexes(indexes, g.getReferenceAlphabet());
+    }
+
+    @Benchmark
+    public char[] pwByIndexesChars() {
+        return TokenEngine.charsByIndexes(indexes, g.getReferenceAlphabet());
+    }
+
+    @Benchmark
+    public byte[] packedEncoding() {
+        return IndexCodec.encode(obfuscatedIndexes);
+    }
+
+    @Benchmark
+    public int[] packedDecoding() {
+        return IndexCodec.decode(packedIndexes);
+    }
+}
@@ -0,0 +1,211 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.KeySession;
+import com.sam.key.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of one shared {@link Generator}: N threads run a mix of {@code provideTokenAndPw} plus
+ * {@code getPWfromToken} round trips and {@code getPWfromToken} retrievals of pre-generated tokens for a fixed
+ * duration. Every result is checked against the expected PW, a mismatch points at state shared between threads.
+ * Prints the latency distribution of both operations and the throughput, for each thread count given.
+ * <p>
+ * Not a JMH benchmark, run with:
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec -Dbench.main=com.sam.key.manager.StressHarness \
+ *     -Dbench.args="--threads 1,2,4 --duration 20 --retrieve-ratio 0.8 [--session]"
+ * </pre>
+ * Without {@code --session} every operation stretches the encryption password like the console modes do, with it
+ * all threads share one {@link KeySession} like the headless modes. Exits with status 1 on any failed round trip.
+ */
+public final class StressHarness {
+
+    static final String ENCRYPTION_PW = "stress-encryption-pw";
+    private static final int TOKEN_POOL = 64;
+    private static final int MAX_REPORTED_FAILURES = 10;
+    private static final double[] PERCENTILES = {50, 75, 90, 99, 99.9, 99.99};
+
+    private final Generator g = new Generator();
+    private final int length;
+    private final double retrieveRatio;
+    private final KeySession session;
+    private final List<Map<String, String>> pool = new ArrayList<>(TOKEN_POOL);
+    private final long[] poolPins = new long[TOKEN_POOL];
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+    private final LatencyHistogram retrievals = new LatencyHistogram();
+    private final AtomicLong failures = new AtomicLong();
+    private final ConcurrentLinkedQueue<String> failureDetails = new ConcurrentLinkedQueue<>();
+
+    StressHarness(int length, double retrieveRatio, boolean sharedSession) {
+        this.length = length;
+        this.retrieveRatio = retrieveRatio;
+        this.session = sharedSession ? new KeySession(ENCRYPTION_PW.toCharArray()) : null;
+        for (int i = 0; i < TOKEN_POOL; i++) {
+            poolPins[i] = ThreadLocalRandom.current().nextLong();
+            // tokens of the shared session share its master key, others need their own key derivation
+            pool.add(session != null
+                    ? g.provideTokenAndPw(length, poolPins[i], session)
+                    : g.provideTokenAndPw(length, poolPins[i], ENCRYPTION_PW));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] threadCounts = intList(arg(args, "--threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int duration = Integer.parseInt(arg(args, "--duration", "30"));
+        int warmUp = Integer.parseInt(arg(args, "--warmup", "5"));
+        int length = Integer.parseInt(arg(args, "--length", "20"));
+        double retrieveRatio = Double.parseDouble(arg(args, "--retrieve-ratio", "0.8"));
+        boolean sharedSession = List.of(args).contains("--session");
+
+        StressHarness harness = new StressHarness(length, retrieveRatio, sharedSession);
+        System.out.printf("PW length %d, %.0f%% retrievals, %s, %d s per run after %d s warm-up, %d cores%n",
+                length, retrieveRatio * 100, sharedSession ? "shared session" : "key derivation per operation",
+                duration, warmUp, Runtime.getRuntime().availableProcessors());
+        List<String> scaling = new ArrayList<>();
+        for (int threads : threadCounts) {
+            harness.run(threads, warmUp);
+            harness.reset();
+            long nanos = harness.run(threads, duration);
+            harness.report(threads, nanos);
+            scaling.add(String.format("%7d %14.1f %14.1f", threads,
+                    perSecond(harness.roundTrips.getCount(), nanos), perSecond(harness.retrievals.getCount(), nanos)));
+        }
+        if (threadCounts.length > 1) {
+            System.out.printf("%nScaling%n%7s %14s %14s%n", "threads", "round trips/s", "retrievals/s");
+            scaling.forEach(System.out::println);
+        }
+        harness.close();
+        if (harness.failures.get() > 0) {
+            System.out.println(harness.failures.get() + " failed operations, first ones:");
+            harness.failureDetails.forEach(System.out::println);
+            System.exit(1);
+        }
+    }
+
+    // runs the operation mix on the given number of threads for the given seconds, returns the elapsed nanos
+    long run(int threads, int seconds) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        operation();
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "stress-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    private void operation() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        try {
+            if (random.nextDouble() < retrieveRatio) {
+                int i = random.nextInt(TOKEN_POOL);
+                check("retrieval", pool.get(i), retrieve(poolPins[i], pool.get(i).get(TokenEngine.TOKEN)));
+                retrievals.record(System.nanoTime() - start);
+            } else {
+                long pin = random.nextLong();
+                Map<String, String> tokenAndPw = session != null
+                        ? g.provideTokenAndPw(length, pin, session)
+                        : g.provideTokenAndPw(length, pin, ENCRYPTION_PW);
+                check("round trip", tokenAndPw, retrieve(pin, tokenAndPw.get(TokenEngine.TOKEN)));
+                roundTrips.record(System.nanoTime() - start);
+            }
+        } catch (RuntimeException e) {
+            fail(e.toString());
+        }
+    }
+
+    private String retrieve(long pin, String token) {
+        return session != null
+                ? g.providePwFromToken(session, pin, token, null)
+                : g.getPWfromToken(ENCRYPTION_PW, pin, token);
+    }
+
+    private void check(String operation, Map<String, String> expected, String pw) {
+        if (!expected.get(TokenEngine.PW).equals(pw) || pw.length() != length) {
+            fail(operation + " of " + expected.get(TokenEngine.TOKEN) + " returned '" + pw + "'");
+        }
+    }
+
+    private void fail(String detail) {
+        if (failures.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+            failureDetails.add(detail);
+        }
+    }
+
+    void report(int threads, long nanos) {
+        System.out.printf("%n%d threads, %.1f s, %d failures%n", threads, nanos / 1e9, failures.get());
+        print("round trip", roundTrips, nanos);
+        print("retrieval", retrievals, nanos);
+    }
+
+    private static void print(String name, LatencyHistogram histogram, long nanos) {
+        System.out.printf("  %-10s %10d ops %12.1f ops/s   mean %9.3f ms%n",
+                name, histogram.getCount(), perSecond(histogram.getCount(), nanos), histogram.getMeanNanos() / 1e6);
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        StringBuilder line = new StringBuilder("            ");
+        for (double percentile : PERCENTILES) {
+            line.append(String.format("p%-6s %9.3f ms  ", trim(percentile), histogram.getPercentileNanos(percentile) / 1e6));
+        }
+        line.append(String.format("max %9.3f ms", histogram.getMaxNanos() / 1e6));
+        System.out.println(line);
+    }
+
+    void reset() {
+        roundTrips.reset();
+        retrievals.reset();
+    }
+
+    void close() {
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return count * 1e9 / nanos;
+    }
+
+    private static String trim(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    // value following the flag, the default if absent
+    private static String arg(String[] args, String flag, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (flag.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    private static int[] intList(String value) {
+        String[] parts = value.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
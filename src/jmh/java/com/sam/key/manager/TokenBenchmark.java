@@ -0,0 +1,98 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.AesGcmPw;
+import com.sam.key.cipher.AesUtils;
+import com.sam.key.cipher.KeySession;
+import com.sam.key.cipher.Nonce;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end token generation and retrieval along with the AES GCM and PBKDF2 stages they are built on.
+ * <p>
+ * Parameterized by password length and alphabet size like {@link GeneratorBenchmark}, so the key derivation
+ * share of a full round trip can be read off directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TokenBenchmark {
+
+    @Param({"10", "40", "78"})
+    int pwLength;
+
+    @Param({"26", "52", "83"})
+    int alphabetSize;
+
+    Generator g;
+    String token;
+    byte[] encodedIndexes;
+    String encryptedIndexes;
+    byte[] salt;
+    KeySession session;
+    String v2Token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        g = new Generator();
+        g.setReferenceAlphabet(Arrays.copyOf(g.getReferenceAlphabet(), alphabetSize));
+        token = g.provideToken(pwLength, GeneratorBenchmark.PIN, GeneratorBenchmark.ENCRYPTION_PW);
+        int[] indexes = g.generateIndexes(pwLength, GeneratorBenchmark.PIN);
+        encodedIndexes = g.provideObfuscatedEncodedIndexes(g.encoder, indexes, GeneratorBenchmark.PIN, GeneratorBenchmark.ENCRYPTION_PW).getBytes(AesGcmPw.UTF_8);
+        encryptedIndexes = AesGcmPw.encrypt(encodedIndexes, GeneratorBenchmark.ENCRYPTION_PW);
+        salt = AesUtils.getRandomNonce(Nonce.MEDIUM);
+        session = new KeySession(GeneratorBenchmark.ENCRYPTION_PW.toCharArray());
+        v2Token = session.encrypt(encodedIndexes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+    }
+
+    @Benchmark
+    public Object provideTokenAndPw() {
+        return g.provideTokenAndPw(pwLength, GeneratorBenchmark.PIN, GeneratorBenchmark.ENCRYPTION_PW);
+    }
+
+    @Benchmark
+    public String getPWfromToken() {
+        return g.getPWfromToken(GeneratorBenchmark.ENCRYPTION_PW, GeneratorBenchmark.PIN, token);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return AesGcmPw.encrypt(encodedIndexes, GeneratorBenchmark.ENCRYPTION_PW);
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        return AesGcmPw.decrypt(encryptedIndexes, GeneratorBenchmark.ENCRYPTION_PW);
+    }
+
+    @Benchmark
+    public Object provideTokenAndPwSession() {
+        return g.provideTokenAndPw(pwLength, GeneratorBenchmark.PIN, session);
+    }
+
+    @Benchmark
+    public String sessionEncrypt() throws Exception {
+        return session.encrypt(encodedIndexes);
+    }
+
+    @Benchmark
+    public byte[] sessionDecrypt() throws Exception {
+        return session.decrypt(v2Token);
+    }
+
+    @Benchmark
+    public SecretKey getAESKeyFromPassword() throws Exception {
+        return AesUtils.getAESKeyFromPassword(GeneratorBenchmark.ENCRYPTION_PW.toCharArray(), salt);
+    }
+}
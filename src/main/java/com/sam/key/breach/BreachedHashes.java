@@ -0,0 +1,244 @@
+package com.sam.key.breach;
+
+import com.sam.key.metrics.Metrics;
+import com.sam.key.metrics.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Offline lookup of PWs in a local breached PW corpus, a text file of SHA-1 hashes sorted by hash, one per line
+ * such as {@code "7C4A8D09CA3762AF61E59520943DC26494F8941B:24230577"} (the count after the colon is ignored).
+ * <p>
+ * The file is memory mapped in segments of 1 GiB, so corpora of tens of GB are neither loaded nor parsed. Opening it
+ * builds a prefix index of {@value #PREFIX_BITS} bits in memory, the byte offset of the first hash of every prefix.
+ * A lookup narrows to the lines of its prefix and searches them by interpolation, falling back to bisection, which
+ * touches a few pages per lookup since SHA-1 hashes are uniformly distributed.
+ * <p>
+ * Instances are thread safe.
+ */
+public final class BreachedHashes {
+
+    static final int PREFIX_BITS = 12;
+    static final int HASH_LENGTH = 40;
+    private static final int PREFIX_DIGITS = PREFIX_BITS / 4;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    // probes of a lookup steered by interpolation, the rest bisect so lookups stay logarithmic on skewed files
+    private static final int INTERPOLATION_PROBES = 4;
+    // hex digits of a hash interpolated on, beyond the prefix
+    private static final int KEY_DIGITS = 13;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(UTF_8);
+    private static final Logger log = LoggerFactory.getLogger(BreachedHashes.class);
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Path path;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    // offsets[p] is the first line of prefix p or above, offsets[1 << PREFIX_BITS] the end of the file
+    private final long[] offsets;
+
+    private BreachedHashes(Path path, MappedByteBuffer[] segments, long size) {
+        this.path = path;
+        this.segments = segments;
+        this.size = size;
+        this.offsets = new long[(1 << PREFIX_BITS) + 1];
+    }
+
+    /**
+     * Opens the sorted hash file at {@code path} and builds its prefix index.
+     *
+     * @throws IOException if the file cannot be read or does not start with a SHA-1 hash
+     */
+    public static BreachedHashes open(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        BreachedHashes hashes;
+        try (FileChannel channel = FileChannel.open(absolute, READ)) {
+            long size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_MASK + 1, size - position));
+            }
+            hashes = new BreachedHashes(absolute, segments, size);
+        }
+        if (hashes.hashLength(0) != HASH_LENGTH) {
+            throw new IOException("Breached hash file does not start with a SHA-1 hash: " + absolute);
+        }
+        long start = System.nanoTime();
+        hashes.buildPrefixIndex();
+        log.info("Indexed breached hash file {} of {} bytes in {} ms", absolute, hashes.size, (System.nanoTime() - start) / 1_000_000);
+        return hashes;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Whether the SHA-1 hash of the UTF-8 bytes of {@code pw} is in the file. The PW is not copied beyond wiped
+     * buffers.
+     */
+    public boolean contains(char[] pw) {
+        long start = Metrics.start();
+        ByteBuffer encoded = UTF_8.encode(CharBuffer.wrap(pw));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+        byte[] digest = SHA1.get().digest(bytes);
+        byte[] hash = new byte[HASH_LENGTH];
+        for (int i = 0; i < digest.length; i++) {
+            hash[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            hash[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        try {
+            return containsHash(hash);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+            Arrays.fill(digest, (byte) 0);
+            Arrays.fill(hash, (byte) 0);
+            Metrics.stop(Phase.BREACH_CHECK, start);
+        }
+    }
+
+    /**
+     * Whether the file holds {@code hash}, 40 upper case hex digits in ASCII.
+     */
+    boolean containsHash(byte[] hash) {
+        int prefix = (int) hexValue(hash, 0, PREFIX_DIGITS);
+        long lo = offsets[prefix];
+        long hi = offsets[prefix + 1];
+        long target = hexValue(hash, PREFIX_DIGITS, KEY_DIGITS);
+        // bounds of the interpolation keys of the lines in [lo, hi)
+        long loKey = 0;
+        long hiKey = 1L << (4 * KEY_DIGITS);
+        for (int probe = 0; lo < hi; probe++) {
+            long mid = lo + (hi - lo) / 2;
+            if (probe < INTERPOLATION_PROBES && hiKey > loKey) {
+                double fraction = Math.min(Math.max((double) (target - loKey) / (hiKey - loKey), 0), 1);
+                mid = lo + (long) (fraction * (hi - lo - 1));
+            }
+            long line = probeLine(mid, lo, hi);
+            int cmp = compare(line, hash);
+            if (cmp == 0) {
+                return true;
+            }
+            long key = lineValue(line, PREFIX_DIGITS, KEY_DIGITS);
+            if (cmp < 0) {
+                lo = nextLine(line);
+                loKey = key;
+            } else {
+                hi = line;
+                hiKey = key;
+            }
+        }
+        return false;
+    }
+
+    // offsets of the first line of every prefix, each found by bisection above the one before
+    private void buildPrefixIndex() {
+        long lo = 0;
+        for (int prefix = 0; prefix < 1 << PREFIX_BITS; prefix++) {
+            long hi = size;
+            while (lo < hi) {
+                long line = probeLine(lo + (hi - lo) / 2, lo, hi);
+                if (lineValue(line, 0, PREFIX_DIGITS) >= prefix) {
+                    hi = line;
+                } else {
+                    lo = nextLine(line);
+                }
+            }
+            offsets[prefix] = lo;
+        }
+        offsets[1 << PREFIX_BITS] = size;
+    }
+
+    // start of the first line at or after mid if it is below hi, otherwise lo; lo and hi are line starts
+    private long probeLine(long mid, long lo, long hi) {
+        long line = mid == lo ? lo : nextLine(mid - 1);
+        return line < hi ? line : lo;
+    }
+
+    // start of the line after the one containing position
+    private long nextLine(long position) {
+        long p = position;
+        while (p < size && get(p) != '\n') {
+            p++;
+        }
+        return Math.min(p + 1, size);
+    }
+
+    private int hashLength(long line) {
+        int length = 0;
+        while (line + length < size && digit(get(line + length)) >= 0) {
+            length++;
+        }
+        return length;
+    }
+
+    // compares the hash of the line with hash, a line ending early sorts first
+    private int compare(long line, byte[] hash) {
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            int d = line + i < size ? digit(get(line + i)) : -1;
+            int cmp = Integer.compare(d, digit(hash[i]));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private long lineValue(long line, int from, int digits) {
+        long value = 0;
+        for (int i = from; i < from + digits; i++) {
+            int d = line + i < size ? digit(get(line + i)) : -1;
+            value = (value << 4) | Math.max(d, 0);
+        }
+        return value;
+    }
+
+    private static long hexValue(byte[] hash, int from, int digits) {
+        long value = 0;
+        for (int i = from; i < from + digits; i++) {
+            value = (value << 4) | digit(hash[i]);
+        }
+        return value;
+    }
+
+    private static int digit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+}
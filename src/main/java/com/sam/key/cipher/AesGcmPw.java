@@ -1,16 +1,22 @@
 package com.sam.key.cipher;
 
+import com.sam.key.metrics.Metrics;
+import com.sam.key.metrics.Phase;
+
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Base64;
 
 public class AesGcmPw {
 
-    private static final String ENCRYPT_ALGO = "AES/GCM/NoPadding";
+    static final String ENCRYPT_ALGO = "AES/GCM/NoPadding";
 
     private static final int TAG_LENGTH_BIT = 128; // must be one of {128, 120, 112, 104, 96}
     private static final Nonce IV_LENGTH_BYTE = Nonce.LARGE;
@@ -23,6 +29,16 @@ public class AesGcmPw {
 
     // return a base64 encoded AES encrypted text
     public static String encrypt(byte[] pText, String password) throws Exception {
+        char[] chars = password.toCharArray();
+        try {
+            return encrypt(pText, chars);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    // return a base64 encoded AES encrypted text, the password is neither copied into a String nor modified
+    public static String encrypt(byte[] pText, char[] password) throws Exception {
 
         // 16 bytes salt
         byte[] salt = AesUtils.getRandomNonce(SALT_LENGTH_BYTE);
@@ -31,14 +47,16 @@ public class AesGcmPw {
         byte[] iv = AesUtils.getRandomNonce(IV_LENGTH_BYTE);
 
         // secret key from password
-        SecretKey aesKeyFromPassword = AesUtils.getAESKeyFromPassword(password.toCharArray(), salt);
+        SecretKey aesKeyFromPassword = AesUtils.getAESKeyFromPassword(password, salt);
 
+        long start = Metrics.start();
         Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
 
         // ASE-GCM needs GCMParameterSpec
         cipher.init(Cipher.ENCRYPT_MODE, aesKeyFromPassword, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
 
         byte[] cipherText = cipher.doFinal(pText);
+        Metrics.stop(Phase.ENCRYPT, start);
 
         // prefix IV and Salt to cipher text
         byte[] cipherTextWithIvSalt = ByteBuffer.allocate(iv.length + salt.length + cipherText.length).put(iv).put(salt)
@@ -51,6 +69,29 @@ public class AesGcmPw {
 
     // we need the same password, salt and iv to decrypt it
     public static String decrypt(String cText, String password) throws Exception {
+        char[] chars = password.toCharArray();
+        try {
+            return new String(decryptToBytes(cText, chars), UTF_8);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    // plain text as chars, the decrypted bytes are wiped and no String of the plain text is created
+    public static char[] decrypt(String cText, char[] password) throws Exception {
+        byte[] pText = decryptToBytes(cText, password);
+        try {
+            CharBuffer chars = UTF_8.decode(ByteBuffer.wrap(pText));
+            char[] result = Arrays.copyOfRange(chars.array(), chars.arrayOffset(), chars.arrayOffset() + chars.limit());
+            Arrays.fill(chars.array(), '\0');
+            return result;
+        } finally {
+            Arrays.fill(pText, (byte) 0);
+        }
+    }
+
+    // v1 token decryption, returns the plain text bytes
+    public static byte[] decryptToBytes(String cText, char[] password) throws Exception {
 
         byte[] decode = Base64.getDecoder().decode(cText.getBytes(UTF_8));
 
@@ -67,16 +108,38 @@ public class AesGcmPw {
         bb.get(cipherText);
 
         // get back the aes key from the same password and salt
-        SecretKey aesKeyFromPassword = AesUtils.getAESKeyFromPassword(password.toCharArray(), salt);
+        SecretKey aesKeyFromPassword = AesUtils.getAESKeyFromPassword(password, salt);
 
+        long start = Metrics.start();
         Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
 
         cipher.init(Cipher.DECRYPT_MODE, aesKeyFromPassword, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
 
-        byte[] plainText = cipher.doFinal(cipherText);
+        byte[] pText = cipher.doFinal(cipherText);
+        Metrics.stop(Phase.DECRYPT, start);
+        return pText;
+
+    }
 
-        return new String(plainText, UTF_8);
+    // AES GCM with an already derived key, the additional authenticated data binds a token header to the cipher text
+    static byte[] encrypt(byte[] pText, SecretKey key, byte[] iv, byte[] aad) throws GeneralSecurityException {
+        long start = Metrics.start();
+        Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        cipher.updateAAD(aad);
+        byte[] cText = cipher.doFinal(pText);
+        Metrics.stop(Phase.ENCRYPT, start);
+        return cText;
+    }
 
+    static byte[] decrypt(byte[] cText, SecretKey key, byte[] iv, byte[] aad) throws GeneralSecurityException {
+        long start = Metrics.start();
+        Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        cipher.updateAAD(aad);
+        byte[] pText = cipher.doFinal(cText);
+        Metrics.stop(Phase.DECRYPT, start);
+        return pText;
     }
 
 }
@@ -1,43 +1,111 @@
 package com.sam.key.cipher;
+import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import com.sam.key.metrics.Metrics;
+import com.sam.key.metrics.Phase;
+
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
 
 public class AesUtils {
 
+	static final String HMAC_SHA256 = "HmacSHA256";
+
 	public static byte[] getRandomNonce(Nonce n) {
 		byte[] nonce = new byte[n.getSize()];
-		new SecureRandom().nextBytes(nonce);
+		RandomPool.nextBytes(nonce);
 		return nonce;
 	}
 
 	public static SecretKey getAESKey(int keysize) throws NoSuchAlgorithmException {
 		KeyGenerator keyGen = KeyGenerator.getInstance("AES");
-		keyGen.init(keysize, SecureRandom.getInstanceStrong());
+		keyGen.init(keysize, RandomPool.secureRandom());
 		return keyGen.generateKey();
 	}
 
-	// AES key derived from a password
+	// AES key derived from a password with the parameters of v1 and v2 tokens
 	public static SecretKey getAESKeyFromPassword(char[] password, byte[] salt)
 			throws NoSuchAlgorithmException, InvalidKeySpecException {
+		return getAESKeyFromPassword(password, salt, KdfParams.LEGACY);
+	}
 
-		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-		// iterationCount = 200000
-		// keyLength = 256
-		KeySpec spec = new PBEKeySpec(password, salt, 210_000, 256);
-		SecretKey secret = new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+	// AES key derived from a password
+	public static SecretKey getAESKeyFromPassword(char[] password, byte[] salt, KdfParams params)
+			throws NoSuchAlgorithmException, InvalidKeySpecException {
+
+		byte[] encoded = pbkdf2(password, salt, params);
+		SecretKey secret = new SecretKeySpec(encoded, "AES");
+		Arrays.fill(encoded, (byte) 0);
 		return secret;
 	}
 
+	// key derived from a password, kept off heap, no heap copy of it survives the derivation
+	public static SecretBuffer deriveKey(char[] password, byte[] salt, KdfParams params)
+			throws NoSuchAlgorithmException, InvalidKeySpecException {
+
+		byte[] encoded = pbkdf2(password, salt, params);
+		SecretBuffer secret = SecretBuffer.copyOf(encoded);
+		Arrays.fill(encoded, (byte) 0);
+		return secret;
+	}
+
+	private static byte[] pbkdf2(char[] password, byte[] salt, KdfParams params)
+			throws NoSuchAlgorithmException, InvalidKeySpecException {
+
+		long start = Metrics.start();
+		SecretKeyFactory factory = SecretKeyFactory.getInstance(params.getAlgorithmName());
+		PBEKeySpec spec = new PBEKeySpec(password, salt, params.getIterations(), KdfParams.KEY_LENGTH_BIT);
+		SecretKey derived = factory.generateSecret(spec);
+		spec.clearPassword();
+		byte[] encoded = derived.getEncoded();
+		try {
+			derived.destroy();
+		} catch (DestroyFailedException e) {
+			// provider keys without destroy support are left to their cleaner
+		}
+		Metrics.stop(Phase.KEY_DERIVATION, start);
+		return encoded;
+	}
+
+	// HKDF (RFC 5869) with HMAC-SHA256, cheap per token sub key expansion of an already stretched key
+	public static byte[] hkdfSha256(byte[] ikm, byte[] salt, byte[] info, int length)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+
+		long start = Metrics.start();
+		Mac mac = Mac.getInstance(HMAC_SHA256);
+		// extract
+		mac.init(new SecretKeySpec(salt == null || salt.length == 0 ? new byte[mac.getMacLength()] : salt, HMAC_SHA256));
+		byte[] prk = mac.doFinal(ikm);
+		// expand
+		mac.init(new SecretKeySpec(prk, HMAC_SHA256));
+		byte[] okm = new byte[length];
+		byte[] t = new byte[0];
+		int offset = 0;
+		for (int i = 1; offset < length; i++) {
+			mac.update(t);
+			mac.update(info);
+			mac.update((byte) i);
+			t = mac.doFinal();
+			int chunk = Math.min(t.length, length - offset);
+			System.arraycopy(t, 0, okm, offset, chunk);
+			offset += chunk;
+		}
+		Arrays.fill(prk, (byte) 0);
+		Arrays.fill(t, (byte) 0);
+		Metrics.stop(Phase.KEY_EXPANSION, start);
+		return okm;
+	}
+
 	// hex representation
 	public static String hex(byte[] bytes) {
 		StringBuilder result = new StringBuilder();
@@ -0,0 +1,162 @@
+package com.sam.key.cipher;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of values derived from secrets, such as the password hash, shift values and permuted alphabets of
+ * a pin, owned by a {@link KeySession}. Values are kept off heap in {@link SecretBuffer}s. Entries are evicted least
+ * recently used beyond the capacity and once their time to live has passed; evicted values are wiped and the cache
+ * is cleared when its session closes.
+ * <p>
+ * Values are derived outside of the lock, two threads missing the same key concurrently both derive it. Returned
+ * arrays are copies and may be wiped by the caller.
+ */
+public final class DerivedSecretCache implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean closed;
+
+    public DerivedSecretCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL);
+    }
+
+    public DerivedSecretCache(int capacity, Duration ttl) {
+        this(capacity, ttl, System::nanoTime);
+    }
+
+    DerivedSecretCache(int capacity, Duration ttl, LongSupplier nanoTime) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Value of {@code kind} derived from {@code input} within {@code context}, computed by {@code derivation} on a miss.
+     */
+    public long getLong(String kind, long input, String context, LongSupplier derivation) {
+        Key key = new Key(kind, input, context);
+        synchronized (this) {
+            SecretBuffer cached = lookup(key);
+            if (cached != null) {
+                return cached.getLong();
+            }
+        }
+        long value = derivation.getAsLong();
+        store(key, SecretBuffer.copyOf(value));
+        return value;
+    }
+
+    public char[] getChars(String kind, long input, String context, Supplier<char[]> derivation) {
+        Key key = new Key(kind, input, context);
+        synchronized (this) {
+            SecretBuffer cached = lookup(key);
+            if (cached != null) {
+                return cached.getChars();
+            }
+        }
+        char[] value = derivation.get();
+        store(key, SecretBuffer.copyOf(value));
+        return value;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // live value, null on a miss, only to be read while holding the lock
+    private SecretBuffer lookup(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (nanoTime.getAsLong() - entry.created > ttlNanos) {
+            entries.remove(key);
+            entry.value.close();
+            return null;
+        }
+        return entry.value;
+    }
+
+    private synchronized void store(Key key, SecretBuffer value) {
+        if (closed) {
+            value.close();
+            return;
+        }
+        Entry replaced = entries.put(key, new Entry(value, nanoTime.getAsLong()));
+        if (replaced != null) {
+            replaced.value.close();
+        }
+        evict();
+    }
+
+    private void evict() {
+        long now = nanoTime.getAsLong();
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            if (entries.size() <= capacity && now - entry.created <= ttlNanos) {
+                break;
+            }
+            eldest.remove();
+            entry.value.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        entries.values().forEach(entry -> entry.value.close());
+        entries.clear();
+    }
+
+    private static final class Key {
+        private final String kind;
+        private final long input;
+        private final String context;
+
+        private Key(String kind, long input, String context) {
+            this.kind = kind;
+            this.input = input;
+            this.context = context;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return input == other.input && kind.equals(other.kind) && context.equals(other.context);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, input, context);
+        }
+    }
+
+    private static final class Entry {
+        private final SecretBuffer value;
+        private final long created;
+
+        private Entry(SecretBuffer value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.sam.key.cipher;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+
+/**
+ * Algorithm and cost of the password stretching, recorded in the header of v3 tokens so every token is decrypted
+ * with the parameters it was encrypted with. v1 and v2 tokens carry no header and implicitly use {@link #LEGACY}.
+ * <p>
+ * The policy for new tokens is {@link #LEGACY} unless the system property {@value #ITERATIONS_PROPERTY} is set,
+ * {@link #calibrate(Duration)} finds a value for a target latency of the running machine.
+ */
+public final class KdfParams {
+
+    public static final int PBKDF2_HMAC_SHA256 = 1;
+    public static final int MIN_ITERATIONS = 100_000;
+    // upper bound of token headers, a manipulated header must not keep the CPU busy for hours
+    public static final int MAX_ITERATIONS = 50_000_000;
+    public static final KdfParams LEGACY = new KdfParams(PBKDF2_HMAC_SHA256, 210_000);
+    public static final String ITERATIONS_PROPERTY = "com.sam.key.kdf.iterations";
+    public static final String REHASH_PROPERTY = "com.sam.key.kdf.rehash";
+    static final int HEADER_LENGTH = 5;
+    static final int KEY_LENGTH_BIT = 256;
+    private static final int CALIBRATION_PROBE = 50_000;
+    private static final int CALIBRATION_STEP = 10_000;
+    private static final Duration CALIBRATION_WARM_UP = Duration.ofSeconds(2);
+
+    private final int algorithm;
+    private final int iterations;
+
+    private KdfParams(int algorithm, int iterations) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+    }
+
+    /**
+     * PBKDF2 with HMAC-SHA256 and the given iterations.
+     *
+     * @throws IllegalArgumentException if iterations are out of [{@value #MIN_ITERATIONS}, {@value #MAX_ITERATIONS}]
+     */
+    public static KdfParams pbkdf2(int iterations) {
+        if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException("Iterations must be in [" + MIN_ITERATIONS + ", " + MAX_ITERATIONS + "]: " + iterations);
+        }
+        return new KdfParams(PBKDF2_HMAC_SHA256, iterations);
+    }
+
+    /**
+     * Parameters of new tokens, {@value #ITERATIONS_PROPERTY} if set, {@link #LEGACY} otherwise.
+     */
+    public static KdfParams policy() {
+        String iterations = System.getProperty(ITERATIONS_PROPERTY);
+        return iterations == null || iterations.trim().isEmpty() ? LEGACY : pbkdf2(Integer.parseInt(iterations.trim()));
+    }
+
+    /**
+     * Whether retrieved tokens weaker than the {@link #policy()} are to be re-encrypted, {@value #REHASH_PROPERTY}.
+     */
+    public static boolean rehashOnRetrieve() {
+        return Boolean.getBoolean(REHASH_PROPERTY);
+    }
+
+    /**
+     * Iterations taking about {@code target} on this machine, rounded down to {@value #CALIBRATION_STEP} and never
+     * below {@value #MIN_ITERATIONS}.
+     */
+    public static KdfParams calibrate(Duration target) throws GeneralSecurityException {
+        KdfParams probe = new KdfParams(PBKDF2_HMAC_SHA256, CALIBRATION_PROBE);
+        // the HMAC loop is only JIT compiled after about a second, earlier runs are several times slower
+        long warmUpEnd = System.nanoTime() + CALIBRATION_WARM_UP.toNanos();
+        while (System.nanoTime() < warmUpEnd) {
+            measure(probe);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            best = Math.min(best, measure(probe).toNanos());
+        }
+        long iterations = (long) ((double) target.toNanos() * CALIBRATION_PROBE / Math.max(best, 1));
+        iterations = iterations / CALIBRATION_STEP * CALIBRATION_STEP;
+        return pbkdf2((int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations)));
+    }
+
+    // duration of one key derivation with these parameters
+    public Duration measure() throws GeneralSecurityException {
+        return measure(this);
+    }
+
+    private static Duration measure(KdfParams params) throws GeneralSecurityException {
+        byte[] salt = AesUtils.getRandomNonce(Nonce.MEDIUM);
+        long start = System.nanoTime();
+        AesUtils.getAESKeyFromPassword("calibration".toCharArray(), salt, params);
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    static KdfParams read(ByteBuffer bb) throws GeneralSecurityException {
+        int algorithm = bb.get();
+        int iterations = bb.getInt();
+        if (algorithm != PBKDF2_HMAC_SHA256) {
+            throw new GeneralSecurityException("Unknown KDF algorithm " + algorithm);
+        }
+        if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+            throw new GeneralSecurityException("KDF iterations out of range: " + iterations);
+        }
+        return new KdfParams(algorithm, iterations);
+    }
+
+    ByteBuffer write(ByteBuffer bb) {
+        return bb.put((byte) algorithm).putInt(iterations);
+    }
+
+    String getAlgorithmName() {
+        return "PBKDF2WithHmacSHA256";
+    }
+
+    public int getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Whether these parameters are cheaper to attack than {@code policy}.
+     */
+    public boolean isWeakerThan(KdfParams policy) {
+        return algorithm == policy.algorithm && iterations < policy.iterations;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KdfParams)) {
+            return false;
+        }
+        KdfParams other = (KdfParams) o;
+        return algorithm == other.algorithm && iterations == other.iterations;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * algorithm + iterations;
+    }
+
+    @Override
+    public String toString() {
+        return "PBKDF2-HMAC-SHA256/" + iterations;
+    }
+}
@@ -0,0 +1,318 @@
+package com.sam.key.cipher;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encryption session of one password. The password is stretched once per session into a master key by the
+ * PBKDF2 of {@link AesUtils#getAESKeyFromPassword(char[], byte[], KdfParams)}, every token then gets its own AES
+ * key expanded by HKDF from the master key and a per token salt. Bulk operations therefore pay the key stretching
+ * once instead of once per token.
+ * <p>
+ * v3 token layout, Base64 encoded behind the {@link #V3_PREFIX} header:
+ * <pre>
+ * [kdf algorithm 1][kdf iterations 4][master salt 16][token salt 16][iv 12][cipher text + tag]
+ * </pre>
+ * Header, KDF parameters and salts are authenticated as additional data. New tokens use the KDF parameters of
+ * the session, {@link KdfParams#policy()} by default. v2 tokens ({@link #V2_PREFIX}, same layout without the KDF
+ * parameters) and v1 tokens of {@link AesGcmPw} without any header are still decrypted with {@link KdfParams#LEGACY},
+ * v1 tokens each of them with its own full key derivation.
+ * <p>
+ * Instances are thread safe, master keys of other sessions met while decrypting are derived once and kept
+ * until the session is closed. Master keys live off heap in {@link SecretBuffer}s and are wiped on {@link #close()}. The session also scopes the {@link DerivedSecretCache} of the token pipeline.
+ * {@link #prewarm()} starts the key stretching ahead of use.
+ */
+public final class KeySession implements AutoCloseable {
+
+    public static final String V2_PREFIX = "v2.";
+    public static final String V3_PREFIX = "v3.";
+    static final int MAX_MASTER_KEYS = 256;
+    private static final Nonce SALT_LENGTH_BYTE = Nonce.MEDIUM;
+    private static final Nonce IV_LENGTH_BYTE = Nonce.SMALL;
+    private static final int AES_KEY_BYTE = 32;
+    private static final byte[] HKDF_INFO = "seed-perm-pw-mgr v2 token key".getBytes(AesGcmPw.UTF_8);
+    private static final byte[] V2_HEADER = V2_PREFIX.getBytes(AesGcmPw.UTF_8);
+    private static final byte[] V3_HEADER = V3_PREFIX.getBytes(AesGcmPw.UTF_8);
+    private static final AtomicInteger PREWARM_THREADS = new AtomicInteger();
+    private static final ExecutorService PREWARM = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "key-prewarm-" + PREWARM_THREADS.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final char[] password;
+    private final KdfParams kdfParams;
+    private final byte[] masterSalt;
+    private final ConcurrentMap<String, FutureTask<SecretBuffer>> masterKeys = new ConcurrentHashMap<>();
+    private final DerivedSecretCache derivedSecrets = new DerivedSecretCache();
+    private volatile boolean closed;
+
+    public KeySession(char[] password) {
+        this(password, KdfParams.policy());
+    }
+
+    public KeySession(char[] password, KdfParams kdfParams) {
+        this.password = password.clone();
+        this.kdfParams = kdfParams;
+        this.masterSalt = AesUtils.getRandomNonce(SALT_LENGTH_BYTE);
+    }
+
+    public static boolean isV2(String token) {
+        return token != null && token.startsWith(V2_PREFIX);
+    }
+
+    public static boolean isV3(String token) {
+        return token != null && token.startsWith(V3_PREFIX);
+    }
+
+    /**
+     * KDF parameters {@code token} was encrypted with, without decrypting it.
+     *
+     * @throws GeneralSecurityException if the v3 header is malformed
+     */
+    public static KdfParams kdfParamsOf(String token) throws GeneralSecurityException {
+        if (!isV3(token)) {
+            return KdfParams.LEGACY;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(Base64.getDecoder().decode(token.substring(V3_PREFIX.length())));
+        if (bb.remaining() < KdfParams.HEADER_LENGTH) {
+            throw new GeneralSecurityException("v3 token is truncated");
+        }
+        return KdfParams.read(bb);
+    }
+
+    /**
+     * Cache of values the token pipeline derives from the password and pins of this session, wiped on {@link #close()}.
+     */
+    public DerivedSecretCache derivedSecrets() {
+        return derivedSecrets;
+    }
+
+    /**
+     * Starts deriving the master key of new tokens on a background thread and warms up the cipher providers.
+     * {@link #encrypt(byte[])} joins the running derivation instead of starting its own, so the key stretching
+     * overlaps with whatever the caller does meanwhile, e.g. waiting for console input.
+     */
+    public CompletableFuture<Void> prewarm() {
+        return prewarm(masterSalt, kdfParams);
+    }
+
+    /**
+     * {@link #prewarm()} for the master key of {@code token}. v1 tokens have no master key to derive ahead and
+     * malformed tokens are skipped, both fail on decryption as before, only the providers are warmed up for them.
+     */
+    public CompletableFuture<Void> prewarm(String token) {
+        if (!isV2(token) && !isV3(token)) {
+            return prewarm(null, null);
+        }
+        try {
+            boolean v3 = isV3(token);
+            ByteBuffer bb = ByteBuffer.wrap(Base64.getDecoder().decode(token.substring(v3 ? V3_PREFIX.length() : V2_PREFIX.length())));
+            KdfParams params = v3 ? KdfParams.read(bb) : KdfParams.LEGACY;
+            byte[] salt = new byte[SALT_LENGTH_BYTE.getSize()];
+            bb.get(salt);
+            return prewarm(salt, params);
+        } catch (GeneralSecurityException | IllegalArgumentException | BufferUnderflowException e) {
+            return prewarm(null, null);
+        }
+    }
+
+    // without salt, or beyond MAX_MASTER_KEYS, only the providers are warmed up
+    private CompletableFuture<Void> prewarm(byte[] salt, KdfParams params) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Cipher.getInstance(AesGcmPw.ENCRYPT_ALGO);
+                Mac.getInstance(AesUtils.HMAC_SHA256);
+                if (salt != null && masterKeys.size() < MAX_MASTER_KEYS) {
+                    masterKey(salt, params);
+                }
+            } catch (GeneralSecurityException | IllegalStateException e) {
+                // fails again on use, or the session was closed meanwhile
+            }
+        }, PREWARM);
+    }
+
+    public KdfParams getKdfParams() {
+        return kdfParams;
+    }
+
+    /**
+     * Whether {@code token} was encrypted with weaker KDF parameters than the ones of this session.
+     */
+    public boolean needsRehash(String token) throws GeneralSecurityException {
+        return kdfParamsOf(token).isWeakerThan(kdfParams);
+    }
+
+    /**
+     * Re-encrypts the plain text of {@code token} with the KDF parameters of this session, the plain text and
+     * therefore the password of the token stay the same.
+     */
+    public String rehash(String token) throws GeneralSecurityException {
+        byte[] pText = decrypt(token);
+        try {
+            return encrypt(pText);
+        } finally {
+            Arrays.fill(pText, (byte) 0);
+        }
+    }
+
+    /**
+     * Password of this session, the returned array is owned by the session and wiped on {@link #close()}.
+     */
+    public char[] getPassword() {
+        return password;
+    }
+
+    // return a v3 token of the plain text
+    public String encrypt(byte[] pText) throws GeneralSecurityException {
+        byte[] tokenSalt = AesUtils.getRandomNonce(SALT_LENGTH_BYTE);
+        byte[] iv = AesUtils.getRandomNonce(IV_LENGTH_BYTE);
+        byte[] aad = aad(V3_HEADER, kdfParams, masterSalt, tokenSalt);
+        byte[] cipherText = AesGcmPw.encrypt(pText, tokenKey(masterSalt, kdfParams, tokenSalt), iv, aad);
+
+        byte[] token = kdfParams.write(ByteBuffer.allocate(KdfParams.HEADER_LENGTH + masterSalt.length + tokenSalt.length + iv.length + cipherText.length))
+                .put(masterSalt).put(tokenSalt).put(iv).put(cipherText).array();
+        return V3_PREFIX + Base64.getEncoder().encodeToString(token);
+    }
+
+    // v2 tokens are not issued anymore, kept to verify they still decrypt
+    String encryptV2(byte[] pText) throws GeneralSecurityException {
+        byte[] tokenSalt = AesUtils.getRandomNonce(SALT_LENGTH_BYTE);
+        byte[] iv = AesUtils.getRandomNonce(IV_LENGTH_BYTE);
+        byte[] aad = aad(V2_HEADER, null, masterSalt, tokenSalt);
+        byte[] cipherText = AesGcmPw.encrypt(pText, tokenKey(masterSalt, KdfParams.LEGACY, tokenSalt), iv, aad);
+
+        byte[] token = ByteBuffer.allocate(masterSalt.length + tokenSalt.length + iv.length + cipherText.length)
+                .put(masterSalt).put(tokenSalt).put(iv).put(cipherText).array();
+        return V2_PREFIX + Base64.getEncoder().encodeToString(token);
+    }
+
+    // decrypts v3, v2 as well as v1 tokens
+    public byte[] decrypt(String token) throws GeneralSecurityException {
+        if (!isV2(token) && !isV3(token)) {
+            try {
+                return AesGcmPw.decryptToBytes(token, password);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new GeneralSecurityException(e);
+            }
+        }
+        boolean v3 = isV3(token);
+        ByteBuffer bb = ByteBuffer.wrap(Base64.getDecoder().decode(token.substring(v3 ? V3_PREFIX.length() : V2_PREFIX.length())));
+        if (bb.remaining() <= (v3 ? KdfParams.HEADER_LENGTH : 0) + 2 * SALT_LENGTH_BYTE.getSize() + IV_LENGTH_BYTE.getSize()) {
+            throw new GeneralSecurityException((v3 ? "v3" : "v2") + " token is truncated");
+        }
+        KdfParams params = v3 ? KdfParams.read(bb) : null;
+        byte[] salt = new byte[SALT_LENGTH_BYTE.getSize()];
+        bb.get(salt);
+        byte[] tokenSalt = new byte[SALT_LENGTH_BYTE.getSize()];
+        bb.get(tokenSalt);
+        byte[] iv = new byte[IV_LENGTH_BYTE.getSize()];
+        bb.get(iv);
+        byte[] cipherText = new byte[bb.remaining()];
+        bb.get(cipherText);
+        return AesGcmPw.decrypt(cipherText, tokenKey(salt, v3 ? params : KdfParams.LEGACY, tokenSalt), iv,
+                aad(v3 ? V3_HEADER : V2_HEADER, params, salt, tokenSalt));
+    }
+
+    // master keys of up to MAX_MASTER_KEYS salts are kept, beyond that other sessions' keys are derived per token
+    private SecretKey tokenKey(byte[] salt, KdfParams params, byte[] tokenSalt) throws GeneralSecurityException {
+        if (masterKeys.size() >= MAX_MASTER_KEYS && !masterKeys.containsKey(id(salt, params)) && !Arrays.equals(salt, masterSalt)) {
+            try (SecretBuffer masterKey = AesUtils.deriveKey(password, salt, params)) {
+                return tokenKey(masterKey, tokenSalt);
+            }
+        }
+        return tokenKey(masterKey(salt, params), tokenSalt);
+    }
+
+    int masterKeyCount() {
+        return masterKeys.size();
+    }
+
+    SecretBuffer masterKey(byte[] salt, KdfParams params) throws GeneralSecurityException {
+        String id = id(salt, params);
+        FutureTask<SecretBuffer> task = masterKeys.get(id);
+        if (task == null) {
+            FutureTask<SecretBuffer> derivation = new FutureTask<>(() -> AesUtils.deriveKey(password, salt, params));
+            task = masterKeys.putIfAbsent(id, derivation);
+            if (task == null) {
+                task = derivation;
+                derivation.run();
+            }
+        }
+        try {
+            SecretBuffer masterKey = task.get();
+            if (closed) {
+                // derived while the session was closed, its key was not wiped by close
+                masterKey.close();
+                throw new IllegalStateException("Session is closed");
+            }
+            return masterKey;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralSecurityException("Interrupted while deriving master key", e);
+        } catch (ExecutionException e) {
+            masterKeys.remove(id, task);
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            throw new GeneralSecurityException(e.getCause());
+        }
+    }
+
+    private static String id(byte[] salt, KdfParams params) {
+        return AesUtils.hex(salt) + '/' + params.getAlgorithm() + '/' + params.getIterations();
+    }
+
+    // the master key is only exposed on heap for the HKDF expansion
+    private SecretKey tokenKey(SecretBuffer masterKey, byte[] tokenSalt) throws GeneralSecurityException {
+        byte[] key = masterKey.applyBytes(master -> AesUtils.hkdfSha256(master, tokenSalt, HKDF_INFO, AES_KEY_BYTE));
+        SecretKey tokenKey = new SecretKeySpec(key, "AES");
+        Arrays.fill(key, (byte) 0);
+        return tokenKey;
+    }
+
+    // v2 tokens have no KDF parameters
+    private static byte[] aad(byte[] header, KdfParams params, byte[] salt, byte[] tokenSalt) {
+        ByteBuffer bb = ByteBuffer.allocate(header.length + (params != null ? KdfParams.HEADER_LENGTH : 0) + salt.length + tokenSalt.length)
+                .put(header);
+        if (params != null) {
+            params.write(bb);
+        }
+        return bb.put(salt).put(tokenSalt).array();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Arrays.fill(password, '\0');
+        for (FutureTask<SecretBuffer> task : masterKeys.values()) {
+            if (task.isDone()) {
+                try {
+                    task.get().close();
+                } catch (ExecutionException | InterruptedException | CancellationException e) {
+                    // no key to wipe
+                }
+            }
+        }
+        masterKeys.clear();
+        derivedSecrets.close();
+    }
+}
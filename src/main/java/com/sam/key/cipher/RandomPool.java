@@ -0,0 +1,156 @@
+package com.sam.key.cipher;
+
+import java.nio.ByteBuffer;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static java.security.DrbgParameters.Capability.RESEED_ONLY;
+
+/**
+ * Non blocking CSPRNG source. Every thread owns a DRBG (NIST SP 800-90A, 256 bit strength) that is seeded once
+ * from the entropy source when the thread first asks for randomness, and reseeded after
+ * {@link #getReseedInterval()} bytes of output. Output is handed out of a prefilled buffer, so drawing single
+ * numbers costs no provider lookup and no entropy pool access, unlike a per call
+ * {@link SecureRandom#getInstanceStrong()}.
+ * <p>
+ * The reseed interval defaults to 1 MiB per thread and can be set by the system property
+ * {@value #RESEED_INTERVAL_PROPERTY} or {@link #setReseedInterval(long)}.
+ */
+public final class RandomPool {
+
+    public static final String RESEED_INTERVAL_PROPERTY = "com.sam.key.random.reseedInterval";
+    static final int BUFFER_SIZE = 1024;
+    private static final int SECURITY_STRENGTH = 256;
+    private static final long DEFAULT_RESEED_INTERVAL = 1L << 20;
+    private static final ThreadLocal<RandomPool> POOL = ThreadLocal.withInitial(RandomPool::new);
+    private static volatile long reseedInterval = Long.getLong(RESEED_INTERVAL_PROPERTY, DEFAULT_RESEED_INTERVAL);
+
+    private final SecureRandom drbg;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = BUFFER_SIZE;
+    private long bytesSinceReseed;
+
+    private RandomPool() {
+        Thread thread = Thread.currentThread();
+        byte[] name = thread.getName().getBytes(AesGcmPw.UTF_8);
+        byte[] personalization = ByteBuffer.allocate(2 * Long.BYTES + name.length)
+                .putLong(thread.getId()).putLong(System.nanoTime()).put(name).array();
+        try {
+            drbg = SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(SECURITY_STRENGTH, RESEED_ONLY, personalization));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("DRBG not available", e);
+        }
+    }
+
+    public static long getReseedInterval() {
+        return reseedInterval;
+    }
+
+    public static void setReseedInterval(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Reseed interval must be positive");
+        }
+        reseedInterval = bytes;
+    }
+
+    /**
+     * DRBG of the calling thread, for APIs that need a {@link SecureRandom} instance. Must not be handed to
+     * other threads.
+     */
+    public static SecureRandom secureRandom() {
+        return POOL.get().drbg;
+    }
+
+    public static void nextBytes(byte[] bytes) {
+        POOL.get().fill(bytes);
+    }
+
+    /**
+     * Uniformly distributed int within {@code [0, bound)}, without modulo bias.
+     */
+    public static int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        return POOL.get().boundedInt(bound);
+    }
+
+    /**
+     * Uniformly distributed int within {@code [min, max)}.
+     */
+    public static int nextInt(int min, int max) {
+        return nextInt(max - min) + min;
+    }
+
+    /**
+     * Fills {@code values} with uniformly distributed ints within {@code [min, max)}.
+     */
+    public static int[] ints(int[] values, int min, int max) {
+        int bound = max - min;
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        RandomPool pool = POOL.get();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = pool.boundedInt(bound) + min;
+        }
+        return values;
+    }
+
+    // rejection sampling as in java.util.Random#nextInt(int)
+    private int boundedInt(int bound) {
+        int r = next31();
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return (int) ((bound * (long) r) >> 31);
+        }
+        for (int u = r; u - (r = u % bound) + m < 0; u = next31()) ;
+        return r;
+    }
+
+    private int next31() {
+        if (position > BUFFER_SIZE - Integer.BYTES) {
+            refill();
+        }
+        int value = ((buffer[position] & 0x7F) << 24) | ((buffer[position + 1] & 0xFF) << 16)
+                | ((buffer[position + 2] & 0xFF) << 8) | (buffer[position + 3] & 0xFF);
+        Arrays.fill(buffer, position, position + Integer.BYTES, (byte) 0);
+        position += Integer.BYTES;
+        return value;
+    }
+
+    private void fill(byte[] bytes) {
+        if (bytes.length > BUFFER_SIZE) {
+            reseedIfDue(bytes.length);
+            drbg.nextBytes(bytes);
+            return;
+        }
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == BUFFER_SIZE) {
+                refill();
+            }
+            int chunk = Math.min(bytes.length - offset, BUFFER_SIZE - position);
+            System.arraycopy(buffer, position, bytes, offset, chunk);
+            Arrays.fill(buffer, position, position + chunk, (byte) 0);
+            position += chunk;
+            offset += chunk;
+        }
+    }
+
+    private void refill() {
+        reseedIfDue(BUFFER_SIZE);
+        drbg.nextBytes(buffer);
+        position = 0;
+    }
+
+    private void reseedIfDue(int bytes) {
+        bytesSinceReseed += bytes;
+        if (bytesSinceReseed > reseedInterval) {
+            drbg.reseed();
+            bytesSinceReseed = bytes;
+        }
+    }
+}
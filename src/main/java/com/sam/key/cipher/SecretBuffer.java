@@ -0,0 +1,146 @@
+package com.sam.key.cipher;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Key material held off heap in a direct buffer, so the garbage collector neither copies it around nor leaves
+ * stale copies behind. The bytes are only reachable inside the callbacks of {@link #apply(BufferFunction)} and
+ * {@link #applyBytes(BytesFunction)} and are overwritten with zeros on {@link #close()}, not at some later
+ * garbage collection.
+ * <p>
+ * Callbacks may run concurrently, {@link #close()} waits for running callbacks, afterwards any access fails with
+ * {@link IllegalStateException}. JCA keys and MACs only accept {@code byte[]}: {@link #applyBytes(BytesFunction)}
+ * hands out a heap copy that is wiped as soon as the callback returns.
+ */
+public final class SecretBuffer implements AutoCloseable {
+
+    private final ByteBuffer buffer;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    private SecretBuffer(int size) {
+        this.buffer = ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Copies {@code bytes} off heap, wiping them is left to the caller.
+     */
+    public static SecretBuffer copyOf(byte[] bytes) {
+        SecretBuffer secret = new SecretBuffer(bytes.length);
+        secret.buffer.duplicate().put(bytes);
+        return secret;
+    }
+
+    public static SecretBuffer copyOf(char[] chars) {
+        SecretBuffer secret = new SecretBuffer(chars.length * Character.BYTES);
+        for (int i = 0; i < chars.length; i++) {
+            secret.buffer.putChar(i * Character.BYTES, chars[i]);
+        }
+        return secret;
+    }
+
+    public static SecretBuffer copyOf(long value) {
+        SecretBuffer secret = new SecretBuffer(Long.BYTES);
+        secret.buffer.putLong(0, value);
+        return secret;
+    }
+
+    public int size() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Runs {@code function} on a read only view of the secret, the view must not escape the callback.
+     */
+    public <T, E extends Exception> T apply(BufferFunction<T, E> function) throws E {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return function.apply(buffer.asReadOnlyBuffer());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs {@code function} on a heap copy of the secret, the copy is wiped when the callback returns.
+     */
+    public <T, E extends Exception> T applyBytes(BytesFunction<T, E> function) throws E {
+        lock.readLock().lock();
+        byte[] bytes = null;
+        try {
+            checkOpen();
+            bytes = new byte[buffer.capacity()];
+            buffer.duplicate().get(bytes);
+            return function.apply(bytes);
+        } finally {
+            if (bytes != null) {
+                Arrays.fill(bytes, (byte) 0);
+            }
+            lock.readLock().unlock();
+        }
+    }
+
+    public char[] getChars() {
+        return apply(view -> {
+            char[] chars = new char[view.capacity() / Character.BYTES];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = view.getChar(i * Character.BYTES);
+            }
+            return chars;
+        });
+    }
+
+    public long getLong() {
+        return apply(view -> view.getLong(0));
+    }
+
+    public boolean isClosed() {
+        lock.readLock().lock();
+        try {
+            return closed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Secret is wiped");
+        }
+    }
+
+    /**
+     * Overwrites the secret with zeros, idempotent.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SecretBuffer{size=" + size() + (isClosed() ? ", wiped" : "") + "}";
+    }
+
+    @FunctionalInterface
+    public interface BufferFunction<T, E extends Exception> {
+        T apply(ByteBuffer secret) throws E;
+    }
+
+    @FunctionalInterface
+    public interface BytesFunction<T, E extends Exception> {
+        T apply(byte[] secret) throws E;
+    }
+}
@@ -0,0 +1,137 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.KeySession;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking facade of {@link Generator#provideTokenAndPw(int, long, String)} and
+ * {@link Generator#getPWfromToken(String, long, String)} for callers that must not block on key derivation.
+ * <p>
+ * Work runs on a dedicated pool of {@code parallelism} daemon threads, never on the calling thread. At most
+ * {@code queueCapacity} operations wait for a thread, beyond that new operations are rejected right away: the
+ * returned future fails with {@link RejectedExecutionException} and the caller decides whether to retry or shed
+ * load. Cancelling a returned future removes a waiting operation from the queue, a running one completes but
+ * its result is dropped.
+ * <p>
+ * Futures are completed on the pool threads, dependent stages should use the {@code *Async} variants to keep
+ * caller work off the pool. Retrieval failures complete the future exceptionally instead of with an empty PW.
+ */
+public class AsyncTokenService implements AutoCloseable {
+
+    private final Generator generator;
+    private final ThreadPoolExecutor pool;
+
+    public AsyncTokenService(Generator generator) {
+        this(generator, Runtime.getRuntime().availableProcessors(), 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public AsyncTokenService(Generator generator, int parallelism, int queueCapacity) {
+        if (parallelism < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Parallelism and queue capacity must be positive");
+        }
+        this.generator = generator;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread t = new Thread(r, "async-token-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public CompletableFuture<Map<String, String>> generateAsync(int length, long pin, String encryptionPw) {
+        return submit(() -> generator.provideTokenAndPw(length, pin, encryptionPw));
+    }
+
+    /**
+     * Generation within an encryption session, the session must stay open until the future completes.
+     */
+    public CompletableFuture<Map<String, String>> generateAsync(int length, long pin, KeySession session) {
+        return submit(() -> generator.provideTokenAndPw(length, pin, session));
+    }
+
+    public CompletableFuture<String> retrieveAsync(String encryptionPw, long pin, String token) {
+        return submit(() -> {
+            try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+                return retrieve(session, pin, token);
+            }
+        });
+    }
+
+    public CompletableFuture<String> retrieveAsync(KeySession session, long pin, String token) {
+        return submit(() -> retrieve(session, pin, token));
+    }
+
+    private String retrieve(KeySession session, long pin, String token) throws GeneralSecurityException {
+        return generator.retrievePw(session, pin, token);
+    }
+
+    // operations waiting for a pool thread
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> work) {
+        Operation<T> operation = new Operation<>(work);
+        try {
+            pool.execute(operation);
+        } catch (RejectedExecutionException e) {
+            operation.result.completeExceptionally(new RejectedExecutionException(
+                    pool.isShutdown() ? "Service is closed" : "Queue full, " + getQueueDepth() + " operations waiting", e));
+            return operation.result;
+        }
+        operation.result.whenComplete((value, e) -> {
+            if (e instanceof CancellationException) {
+                pool.remove(operation);
+            }
+        });
+        return operation.result;
+    }
+
+    /**
+     * Stops the pool, waiting operations are cancelled and running ones interrupted.
+     */
+    @Override
+    public void close() {
+        for (Runnable waiting : pool.shutdownNow()) {
+            ((Operation<?>) waiting).result.cancel(false);
+        }
+    }
+
+    private static final class Operation<T> extends FutureTask<Void> {
+        private final CompletableFuture<T> result;
+
+        private Operation(Callable<T> work) {
+            this(work, new CompletableFuture<>());
+        }
+
+        private Operation(Callable<T> work, CompletableFuture<T> result) {
+            super(() -> {
+                if (!result.isDone()) {
+                    try {
+                        result.complete(work.call());
+                    } catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+                return null;
+            });
+            this.result = result;
+        }
+    }
+}
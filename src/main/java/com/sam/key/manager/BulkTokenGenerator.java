@@ -0,0 +1,77 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.KeySession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates batches of tokens in parallel on a fixed number of worker threads. Each token is produced by
+ * {@link TokenEngine#generate(int, long, KeySession)}, the same code path as
+ * {@link Generator#provideTokenAndPw(int, long, String)}, so every token is retrievable by
+ * {@link Generator#getPWfromToken(String, long, String)}. Results keep the order of the requested lengths.
+ */
+public class BulkTokenGenerator implements AutoCloseable {
+
+    private final TokenEngine engine;
+    private final ExecutorService pool;
+
+    public BulkTokenGenerator(TokenEngine engine) {
+        this(engine, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BulkTokenGenerator(TokenEngine engine, int parallelism) {
+        this.engine = engine;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "bulk-generator-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Generates {@code count} tokens with random lengths within {@code [minLength, maxLength)}.
+     */
+    public List<Map<String, String>> generate(int minLength, int maxLength, int count, long pin, KeySession session) {
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            lengths[i] = TokenEngine.generateRandomNumber(minLength, maxLength);
+        }
+        return generate(lengths, pin, session);
+    }
+
+    /**
+     * Generates one token per entry of {@code lengths}, the i-th result belongs to the i-th length.
+     */
+    public List<Map<String, String>> generate(int[] lengths, long pin, KeySession session) {
+        List<Callable<Map<String, String>>> tasks = new ArrayList<>(lengths.length);
+        for (int length : lengths) {
+            tasks.add(() -> engine.generate(length, pin, session));
+        }
+        List<Map<String, String>> tokens = new ArrayList<>(lengths.length);
+        try {
+            for (Future<Map<String, String>> token : pool.invokeAll(tasks)) {
+                tokens.add(token.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted on bulk token generation", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Issue occurred on bulk token generation", e.getCause());
+        }
+        return tokens;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,269 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.RandomPool;
+import com.sam.key.metrics.Metrics;
+import com.sam.key.metrics.Phase;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * Characters a generated PW may contain and how many of each class it must contain at least, e.g. "no ambiguous
+ * characters, at least 2 digits and a symbol". Immutable, every {@code excluding}/{@code requiring} returns a new
+ * policy.
+ * <p>
+ * Excluded characters are kept in a {@link BitSet} and the classes of ASCII characters in a precomputed table, so
+ * testing a character is a lookup instead of a scan of the excluded characters. {@link #compile(char[])} resolves
+ * the policy against an alphabet once, the resulting {@link Table} draws indexes meeting all minimums in a single
+ * pass without rejecting and redrawing PWs.
+ * <p>
+ * A policy only selects indexes of the alphabet of a pin, it does not change the alphabet itself. Tokens of a
+ * policy are retrieved like any other token, unlike the filtered reference alphabet of {@link Generator#Generator(String)}.
+ */
+public final class CharacterPolicy {
+
+    public static final CharacterPolicy NONE = new CharacterPolicy(new BitSet(), 0, new int[CharClass.values().length]);
+    static final String AMBIGUOUS_CHARACTERS = "0O1lI|`'\"";
+    private static final byte[] ASCII_CLASSES = new byte[128];
+
+    static {
+        for (char c = 0; c < ASCII_CLASSES.length; c++) {
+            ASCII_CLASSES[c] = (byte) classify(c);
+        }
+    }
+
+    private final BitSet excludedCharacters;
+    private final int excludedClasses;
+    private final int[] minimums;
+
+    private CharacterPolicy(BitSet excludedCharacters, int excludedClasses, int[] minimums) {
+        this.excludedCharacters = excludedCharacters;
+        this.excludedClasses = excludedClasses;
+        this.minimums = minimums;
+    }
+
+    public enum CharClass {
+        LOWER, UPPER, DIGIT, SYMBOL, AMBIGUOUS;
+
+        int mask() {
+            return 1 << ordinal();
+        }
+
+        public boolean contains(char c) {
+            return (classesOf(c) & mask()) != 0;
+        }
+    }
+
+    /**
+     * Policy of a comma separated spec, e.g. {@code "digit:2,symbol:1,no-ambiguous,exclude:xyz"}: {@code <class>:<n>}
+     * requires at least n characters of the class, {@code no-<class>} excludes the class and {@code exclude:<chars>}
+     * the given characters. Classes are the lower case names of {@link CharClass}.
+     *
+     * @throws IllegalArgumentException on an unknown term or class
+     */
+    public static CharacterPolicy parse(String spec) {
+        CharacterPolicy policy = NONE;
+        for (String term : spec.split(",")) {
+            String trimmed = term.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (trimmed.startsWith("exclude:")) {
+                policy = policy.excluding(trimmed.substring("exclude:".length()));
+            } else if (trimmed.startsWith("no-")) {
+                policy = policy.excluding(charClass(trimmed.substring("no-".length())));
+            } else {
+                int colon = trimmed.indexOf(':');
+                if (colon < 0 || !trimmed.substring(colon + 1).matches("\\d{1,4}")) {
+                    throw new IllegalArgumentException("Unknown character policy term: " + trimmed);
+                }
+                policy = policy.requiring(charClass(trimmed.substring(0, colon)), Integer.parseInt(trimmed.substring(colon + 1)));
+            }
+        }
+        return policy;
+    }
+
+    private static CharClass charClass(String name) {
+        try {
+            return CharClass.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown character class: " + name, e);
+        }
+    }
+
+    public CharacterPolicy excluding(String characters) {
+        BitSet excluded = (BitSet) excludedCharacters.clone();
+        for (int i = 0; i < characters.length(); i++) {
+            excluded.set(characters.charAt(i));
+        }
+        return new CharacterPolicy(excluded, excludedClasses, minimums);
+    }
+
+    public CharacterPolicy excluding(CharClass charClass) {
+        return new CharacterPolicy(excludedCharacters, excludedClasses | charClass.mask(), minimums);
+    }
+
+    public CharacterPolicy requiring(CharClass charClass, int minimum) {
+        if (minimum < 0) {
+            throw new IllegalArgumentException("Minimum must not be negative: " + minimum);
+        }
+        int[] required = minimums.clone();
+        required[charClass.ordinal()] = minimum;
+        return new CharacterPolicy(excludedCharacters, excludedClasses, required);
+    }
+
+    public boolean allows(char c) {
+        return !excludedCharacters.get(c) && (classesOf(c) & excludedClasses) == 0;
+    }
+
+    // neither exclusions nor minimums, any index of the alphabet will do
+    public boolean isUnrestricted() {
+        return excludedCharacters.isEmpty() && excludedClasses == 0 && minimumLength() == 0;
+    }
+
+    // shortest PW able to meet all minimums
+    public int minimumLength() {
+        return Arrays.stream(minimums).sum();
+    }
+
+    /**
+     * {@code alphabet} without the characters this policy does not allow, in their order.
+     */
+    public char[] filter(char[] alphabet) {
+        char[] filtered = new char[alphabet.length];
+        int count = 0;
+        for (char c : alphabet) {
+            if (allows(c)) {
+                filtered[count++] = c;
+            }
+        }
+        char[] result = Arrays.copyOf(filtered, count);
+        Arrays.fill(filtered, '\0');
+        return result;
+    }
+
+    public boolean matches(char[] pw) {
+        int[] counts = new int[minimums.length];
+        for (char c : pw) {
+            if (!allows(c)) {
+                return false;
+            }
+            int classes = classesOf(c);
+            for (int i = 0; i < counts.length; i++) {
+                if ((classes & (1 << i)) != 0) {
+                    counts[i]++;
+                }
+            }
+        }
+        for (int i = 0; i < minimums.length; i++) {
+            if (counts[i] < minimums[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Positions of {@code alphabet} allowed by this policy, in total and per required class.
+     *
+     * @throws IllegalArgumentException if the alphabet has no allowed character, or none of a required class
+     */
+    public Table compile(char[] alphabet) {
+        int[] allowed = new int[alphabet.length];
+        int allowedCount = 0;
+        int[][] byClass = new int[minimums.length][alphabet.length];
+        int[] classCounts = new int[minimums.length];
+        for (int i = 0; i < alphabet.length; i++) {
+            if (!allows(alphabet[i])) {
+                continue;
+            }
+            allowed[allowedCount++] = i;
+            int classes = classesOf(alphabet[i]);
+            for (int c = 0; c < minimums.length; c++) {
+                if ((classes & (1 << c)) != 0) {
+                    byClass[c][classCounts[c]++] = i;
+                }
+            }
+        }
+        if (allowedCount == 0) {
+            throw new IllegalArgumentException("Character policy allows no character of the alphabet");
+        }
+        int[][] required = new int[minimums.length][];
+        for (int c = 0; c < minimums.length; c++) {
+            if (minimums[c] > 0 && classCounts[c] == 0) {
+                throw new IllegalArgumentException("Character policy requires " + CharClass.values()[c] + " characters, the alphabet has none allowed");
+            }
+            required[c] = Arrays.copyOf(byClass[c], classCounts[c]);
+        }
+        return new Table(Arrays.copyOf(allowed, allowedCount), required, minimums);
+    }
+
+    static int classesOf(char c) {
+        return c < ASCII_CLASSES.length ? ASCII_CLASSES[c] : classify(c);
+    }
+
+    private static int classify(char c) {
+        int classes;
+        if (Character.isLowerCase(c)) {
+            classes = CharClass.LOWER.mask();
+        } else if (Character.isUpperCase(c)) {
+            classes = CharClass.UPPER.mask();
+        } else if (Character.isDigit(c)) {
+            classes = CharClass.DIGIT.mask();
+        } else if (Character.isLetter(c) || Character.isWhitespace(c) || Character.isISOControl(c)) {
+            classes = 0;
+        } else {
+            classes = CharClass.SYMBOL.mask();
+        }
+        return AMBIGUOUS_CHARACTERS.indexOf(c) >= 0 ? classes | CharClass.AMBIGUOUS.mask() : classes;
+    }
+
+    /**
+     * A policy resolved against one alphabet, shared by any number of threads.
+     */
+    public static final class Table {
+        private final int[] allowed;
+        private final int[][] required;
+        private final int[] minimums;
+
+        private Table(int[] allowed, int[][] required, int[] minimums) {
+            this.allowed = allowed;
+            this.required = required;
+            this.minimums = minimums;
+        }
+
+        /**
+         * Indexes of a PW of {@code length} meeting the policy: the minimum count of every class is drawn from its
+         * allowed positions, the rest from all allowed positions, and the result is shuffled so the required
+         * characters do not lead the PW.
+         *
+         * @throws IllegalArgumentException if the minimums do not fit into {@code length}
+         */
+        public int[] generateIndexes(int length) {
+            int minimumLength = Arrays.stream(minimums).sum();
+            if (minimumLength > length) {
+                throw new IllegalArgumentException("Character policy needs at least " + minimumLength + " characters, PW length is " + length);
+            }
+            long start = Metrics.start();
+            int[] indexes = new int[length];
+            int i = 0;
+            for (int c = 0; c < minimums.length; c++) {
+                for (int n = 0; n < minimums[c]; n++) {
+                    indexes[i++] = required[c][RandomPool.nextInt(required[c].length)];
+                }
+            }
+            for (; i < length; i++) {
+                indexes[i] = allowed[RandomPool.nextInt(allowed.length)];
+            }
+            for (int j = length; j > 1; j--) {
+                int k = RandomPool.nextInt(j);
+                int tmp = indexes[j - 1];
+                indexes[j - 1] = indexes[k];
+                indexes[k] = tmp;
+            }
+            Metrics.stop(Phase.INDEX_GENERATION, start);
+            return indexes;
+        }
+    }
+}
@@ -1,6 +1,17 @@
 package com.sam.key.manager;
 
+import com.sam.key.breach.BreachedHashes;
 import com.sam.key.cipher.AesGcmPw;
+import com.sam.key.cipher.KdfParams;
+import com.sam.key.cipher.KeySession;
+import com.sam.key.metrics.Metrics;
+import com.sam.key.service.PipeServer;
+import com.sam.key.service.RequestHandler;
+import com.sam.key.service.TokenDaemon;
+import com.sam.key.transfer.TokenTransfer;
+import com.sam.key.vault.TokenVault;
+import com.sam.key.vault.VaultEntry;
+import com.sam.key.wordlist.Wordlist;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.fusesource.jansi.Ansi;
 import org.fusesource.jansi.AnsiConsole;
@@ -8,13 +19,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.util.*;
 import java.util.Base64.Decoder;
 import java.util.Base64.Encoder;
-import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.fusesource.jansi.Ansi.Color.*;
@@ -35,6 +48,9 @@ import static org.fusesource.jansi.Ansi.ansi;
  * alphabet may be considered. This raises the permutation to 2^192 WC and 2^191
  * AVGC, as long as this randomization is kept secret.
  * <p>
+ * The generation and retrieval logic itself lives in the stateless {@link TokenEngine}, this class is the
+ * interactive CLI around it and is not meant to be shared between threads.
+ * <p>
  *
  * @author src-dbgr
  */
@@ -55,12 +71,23 @@ public class Generator {
     public static final int MAX_PADDING_LENGTH = 20;
     public static final int RESERVED_ARRAY_INDEXES = 2;
     public static final String ENTER_PIN = "Enter Pin:";
+    public static final char PASSPHRASE_SEPARATOR = '-';
     static final int OBFUSCATION_ARRAY_SIZE = 100;
     private static final int SHUFFLE_THRESHOLD = 5;
     private static final String DEFAULT_ERR = "Issue occurred";
     private static final String CONTINUE_WITH_DEFAULT_INVOCATION = "Masking input not supported.. Continue with default Invocation";
-    private static final int BYTE = 8;
     private static final String TEST = "test";
+    private static final String VAULT_ARG = "--vault";
+    private static final String PIPE_ARG = "--pipe";
+    private static final String DAEMON_ARG = "--daemon";
+    private static final String CALIBRATE_ARG = "--calibrate";
+    private static final String EXPORT_ARG = "--export";
+    private static final String IMPORT_ARG = "--import";
+    private static final String POLICY_ARG = "--policy";
+    private static final String WORDLIST_ARG = "--wordlist";
+    private static final String BREACHED_ARG = "--breached";
+    private static final String DAEMON_SECRET_ARG = "--daemon-secret";
+    static final int DEFAULT_CALIBRATION_MILLIS = 250;
     private static final String CREATE_PASSWORDS = " - Create Passwords - ";
     private static final String RETRIEVE_PASSWORD = " - Retrieve Password ";
     private static final Logger log = LoggerFactory.getLogger(Generator.class);
@@ -73,20 +100,20 @@ public class Generator {
             "                                                                                        \n";
     Decoder decoder = Base64.getDecoder();
     Encoder encoder = Base64.getEncoder();
-    MessageDigest sha3Instance;
-    char[] alphabet;
     char[] initialAlphabet = {'i', 'g', 'r', '.', 'u', '$', '&', 'G', '+', 'W', '9', 'C', 'Q', ':', 'w', 'o', 'j', 'L', 'y', 'A', 'O', 'v', 'U', 'Y', 'S', 'z', 'E', 'f', '*', '2', '=', '4', '%', 'B', 'K', 'T', 'm', '@', '!', 'h', 'V', '/', '1', 'l', 'X', '(', '_', 'J', ')', '5', 'a', 'q', 'k', '[', '?', '=', '-', 'n', 'P', 's', '3', 'Z', 'N', 'M', '#', 'R', 'p', ']', '0', '7', 'D', 'x', '8', 't', '6', 'e', 'H', ';', 'I', 'F', 'd', 'b', 'c'};
     char[] referenceAlphabet = initialAlphabet;
-    private boolean randomized = false;
+    String filteredCharacters = "";
+    CharacterPolicy characterPolicy = CharacterPolicy.NONE;
+    Wordlist wordlist;
+    BreachedHashes breachedHashes;
+    TokenVault vault;
+    // label the tokens of the current generation run are stored under, null if not storing
+    String vaultLabel;
+    int vaultSequence;
 
     public Generator(String filteredCharacters) {
-        List<Character> characters = new String(referenceAlphabet)
-                .chars()
-                .mapToObj(c -> Character.valueOf((char) c))
-                .collect(Collectors.toList());
-        List<String> removeChars = Arrays.asList(filteredCharacters.split(""));
-        List<Character> filteredChars = characters.stream().filter(c -> !removeChars.contains(c.toString())).collect(Collectors.toList());
-        setReferenceAlphabet(toCharArray(filteredChars));
+        this.filteredCharacters = filteredCharacters;
+        setReferenceAlphabet(CharacterPolicy.NONE.excluding(filteredCharacters).filter(referenceAlphabet));
     }
 
     public Generator() {
@@ -94,14 +121,173 @@ public class Generator {
 
     public static void main(String[] args) {
         Generator g = new Generator();
+        Metrics.registerMBeans();
+        String policy = stringArg(args, POLICY_ARG);
+        if (policy != null) {
+            g.setCharacterPolicy(CharacterPolicy.parse(policy));
+        }
+        Path wordlistPath = pathArg(args, WORDLIST_ARG);
+        if (wordlistPath != null) {
+            try {
+                g.setWordlist(Wordlist.open(wordlistPath));
+            } catch (IOException e) {
+                log.error("Could not open wordlist " + wordlistPath, e);
+                return;
+            }
+        }
+        Path breachedPath = pathArg(args, BREACHED_ARG);
+        if (breachedPath != null) {
+            try {
+                g.setBreachedHashes(BreachedHashes.open(breachedPath));
+            } catch (IOException e) {
+                log.error("Could not open breached hash file " + breachedPath, e);
+                return;
+            }
+        }
+        if (Arrays.asList(args).contains(PIPE_ARG)) {
+            servePipe(g, vaultPath(args));
+            return;
+        }
+        if (Arrays.asList(args).contains(DAEMON_ARG)) {
+            serveDaemon(g, daemonPort(args), daemonSecretPath(args), vaultPath(args));
+            return;
+        }
+        if (Arrays.asList(args).contains(CALIBRATE_ARG)) {
+            calibrate(intArg(args, CALIBRATE_ARG, DEFAULT_CALIBRATION_MILLIS));
+            return;
+        }
+        if (pathArg(args, EXPORT_ARG) != null || pathArg(args, IMPORT_ARG) != null) {
+            transfer(vaultPath(args), pathArg(args, IMPORT_ARG), pathArg(args, EXPORT_ARG));
+            return;
+        }
         AnsiConsole.systemInstall();
         g.printAnsi(ansi().eraseScreen().bg(GREEN).fg(WHITE).a(pwMgr).reset());
         g.printAnsi(ansi().eraseScreen().bg(GREEN).fg(WHITE).a(pwMgr).reset());
         g.printCLICommands();
-        BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-        int option = g.readOption(args.length > 0 && args[0] != null && args[0].equals(TEST) ? null : br);
-        ConsoleReader cr = new ConsoleReader();
-        g.callToAction(br, cr, option);
+        Path vaultPath = vaultPath(args);
+        try (TokenVault vault = vaultPath != null ? TokenVault.open(vaultPath) : null) {
+            g.setVault(vault);
+            BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+            int option = g.readOption(args.length > 0 && args[0] != null && args[0].equals(TEST) ? null : br);
+            ConsoleReader cr = new ConsoleReader();
+            g.callToAction(br, cr, option);
+        } catch (IOException e) {
+            log.error("Could not access vault " + vaultPath, e);
+        }
+    }
+
+    /**
+     * Headless mode of "--pipe": JSON requests from stdin, JSON responses to stdout, see {@link RequestHandler}.
+     * Stdout is reserved for responses, anything else printed, logging included, goes to stderr.
+     */
+    static void servePipe(Generator g, Path vaultPath) {
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        try (TokenVault vault = vaultPath != null ? TokenVault.open(vaultPath) : null;
+             RequestHandler handler = new RequestHandler(g.engine(), vault, g.filteredCharacters, RequestHandler.DEFAULT_SESSION_CAPACITY)) {
+            long requests = PipeServer.serve(System.in, stdout, handler);
+            log.info("Pipe mode answered {} requests", requests);
+        } catch (IOException e) {
+            log.error(DEFAULT_ERR + " in pipe mode", e);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * Daemon mode of "--daemon [port] [--daemon-secret &lt;file&gt;]": serves the JSON protocol of {@link RequestHandler}
+     * on the loopback interface until the process is terminated, to clients sending the secret written to the file.
+     */
+    static void serveDaemon(Generator g, int port, Path secretFile, Path vaultPath) {
+        try (TokenVault vault = vaultPath != null ? TokenVault.open(vaultPath) : null;
+             RequestHandler handler = new RequestHandler(g.engine(), vault, g.filteredCharacters, RequestHandler.DEFAULT_SESSION_CAPACITY);
+             TokenDaemon daemon = new TokenDaemon(handler, port, secretFile)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "daemon-shutdown"));
+            daemon.start().awaitTermination();
+        } catch (IOException e) {
+            log.error(DEFAULT_ERR + " in daemon mode", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * "--calibrate [millis]": benchmarks the key stretching of this machine and prints the iterations taking about
+     * {@code millis}, to be set as {@value KdfParams#ITERATIONS_PROPERTY} for new tokens.
+     */
+    static void calibrate(int millis) {
+        try {
+            KdfParams params = KdfParams.calibrate(Duration.ofMillis(millis));
+            System.out.printf("%s takes %d ms on this machine (target %d ms, minimum %d iterations)%n",
+                    params, params.measure().toMillis(), millis, KdfParams.MIN_ITERATIONS);
+            System.out.printf("Start with -D%s=%d to use it for new tokens, add -D%s=true to upgrade weaker tokens on retrieval%n",
+                    KdfParams.ITERATIONS_PROPERTY, params.getIterations(), KdfParams.REHASH_PROPERTY);
+        } catch (GeneralSecurityException e) {
+            log.error(DEFAULT_ERR + " on calibration", e);
+        }
+    }
+
+    /**
+     * "--vault &lt;file&gt; [--import &lt;file&gt;] [--export &lt;file&gt;]": streams tokens into and out of the vault as CSV or
+     * JSON Lines, chosen by file extension, see {@link TokenTransfer}. An import runs before an export.
+     */
+    static void transfer(Path vaultPath, Path importFile, Path exportFile) {
+        if (vaultPath == null) {
+            log.error("Import and export need a vault, add " + VAULT_ARG + " <file>");
+            return;
+        }
+        try (TokenVault vault = TokenVault.open(vaultPath)) {
+            if (importFile != null) {
+                System.out.printf("Imported %d tokens from %s%n", TokenTransfer.importFrom(importFile, vault), importFile);
+            }
+            if (exportFile != null) {
+                System.out.printf("Exported %d tokens to %s%n", TokenTransfer.exportTo(vault, exportFile), exportFile);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.error(DEFAULT_ERR + " transferring tokens of vault " + vaultPath, e);
+        }
+    }
+
+    // port given by "--daemon <port>", the default port if absent
+    static int daemonPort(String[] args) {
+        return intArg(args, DAEMON_ARG, TokenDaemon.DEFAULT_PORT);
+    }
+
+    // client secret file given by "--daemon-secret <file>", the one in the user home if absent
+    static Path daemonSecretPath(String[] args) {
+        Path secretFile = pathArg(args, DAEMON_SECRET_ARG);
+        return secretFile != null ? secretFile : TokenDaemon.defaultSecretFile();
+    }
+
+    // number following the flag, the default if absent
+    static int intArg(String[] args, String flag, int defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (flag.equals(args[i]) && args[i + 1].matches("\\d+")) {
+                return Integer.parseInt(args[i + 1]);
+            }
+        }
+        return defaultValue;
+    }
+
+    // file given by "--vault <file>", null if absent
+    static Path vaultPath(String[] args) {
+        return pathArg(args, VAULT_ARG);
+    }
+
+    // file following the flag, null if absent
+    static Path pathArg(String[] args, String flag) {
+        String path = stringArg(args, flag);
+        return path != null ? Paths.get(path) : null;
+    }
+
+    // value following the flag, null if absent
+    static String stringArg(String[] args, String flag) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (flag.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return null;
     }
 
     char[] toCharArray(List<Character> list) {
@@ -121,6 +307,34 @@ public class Generator {
         return this;
     }
 
+    // characters and minimum counts of generated PWs, retrieval does not depend on it
+    public Generator setCharacterPolicy(CharacterPolicy characterPolicy) {
+        this.characterPolicy = characterPolicy;
+        return this;
+    }
+
+    // words of generated passphrases, also needed to retrieve them
+    public Generator setWordlist(Wordlist wordlist) {
+        this.wordlist = wordlist;
+        return this;
+    }
+
+    // sorted SHA-1 hashes of breached PWs, generated PWs found in it are redrawn
+    public Generator setBreachedHashes(BreachedHashes breachedHashes) {
+        this.breachedHashes = breachedHashes;
+        return this;
+    }
+
+    public TokenVault getVault() {
+        return vault;
+    }
+
+    // generated tokens are stored in the vault, if one is set
+    public Generator setVault(TokenVault vault) {
+        this.vault = vault;
+        return this;
+    }
+
     int readOption(BufferedReader br) {
         try {
             String input = br.readLine();
@@ -155,6 +369,24 @@ public class Generator {
             case 5:
                 interactivePWRetrieve(false, cr, br);
                 break;
+            case 6:
+                interactiveBulkGenerationHidden(br, cr);
+                break;
+            case 7:
+                interactiveBulkGenerationVisible(br, cr);
+                break;
+            case 8:
+                compactVault();
+                break;
+            case 9:
+                interactiveFileRetrieve(cr, br);
+                break;
+            case 10:
+                interactiveRotation(cr, br);
+                break;
+            case 11:
+                interactivePassphraseGeneration(br, cr);
+                break;
             default:
                 printAnsi(ansi().fg(RED).a("This option is not available. Choose a listed option.").reset());
                 break;
@@ -183,31 +415,30 @@ public class Generator {
         printAnsi(ansi().fg(GREEN).a("3").fg(YELLOW).a(CREATE_PASSWORDS + "Show PWs and Token (Visible)").reset());
         printAnsi(ansi().fg(GREEN).a("4").fg(YELLOW).a(RETRIEVE_PASSWORD + "(Hidden)").reset());
         printAnsi(ansi().fg(GREEN).a("5").fg(YELLOW).a(RETRIEVE_PASSWORD + "(Visible)").reset());
+        printAnsi(ansi().fg(GREEN).a("6").fg(YELLOW).a(CREATE_PASSWORDS + "Parallel Bulk, Show PWs and Token (Hidden)").reset());
+        printAnsi(ansi().fg(GREEN).a("7").fg(YELLOW).a(CREATE_PASSWORDS + "Parallel Bulk, Show PWs and Token (Visible)").reset());
+        printAnsi(ansi().fg(GREEN).a("8").fg(YELLOW).a(" - Compact Vault - Drop deleted and replaced Tokens").reset());
+        printAnsi(ansi().fg(GREEN).a("9").fg(YELLOW).a(RETRIEVE_PASSWORD + "- All Tokens of a File into a File").reset());
+        printAnsi(ansi().fg(GREEN).a("10").fg(YELLOW).a(" - Change Encryption PW - Re-encrypt all Tokens of the Vault").reset());
+        printAnsi(ansi().fg(GREEN).a("11").fg(YELLOW).a(" - Create Passphrase - Show Passphrase and Token (Visible)").reset());
     }
 
     public long convertCharToLong(char[] pwd) {
-        long pwdConverted = 0;
-        for (char c : pwd) {
-            pwdConverted += Character.getNumericValue(c);
-            pwdConverted *= pwdConverted;
-        }
-        return pwdConverted;
+        return TokenEngine.convertCharToLong(pwd);
     }
 
+    // engine of the currently configured reference alphabet and character policy
+    TokenEngine engine() {
+        return new TokenEngine(referenceAlphabet).withPolicy(characterPolicy).withWordlist(wordlist).withBreachedHashes(breachedHashes);
+    }
+
+    // without a pin from the console, fall back to a custom permutation seed of the reference alphabet
     void alphabetSeedRequest(BufferedReader br, char[] pin) {
         if (pin == null && br != null) {
             log.info(CONTINUE_WITH_DEFAULT_INVOCATION);
             alphabetSeedRequestOnNull(br);
         }
-        shuffleAlphabetByPin(pin);
-    }
-
-    private void shuffleAlphabetByPin(char[] pin) {
-        long seed = convertCharToLong(pin);
-        if (!randomized) {
-            referenceAlphabet = randomizeAlphabet(seed, referenceAlphabet);
-            randomized = !randomized;
-        }
+        Objects.requireNonNull(pin, "Pin is null");
     }
 
     void alphabetSeedRequestOnNull(BufferedReader br) {
@@ -223,59 +454,268 @@ public class Generator {
 
     void interactivePWRetrieve(boolean hidden, ConsoleReader cr, BufferedReader br) {
         char[] pwd = retrievePwd(cr);
-        String pass = String.valueOf(pwd);
+        if (pwd == null) {
+            return;
+        }
         char[] readPin = null;
         String token = null;
-        try {
-            printAnsi(ansi().fg(GREEN).a("Enter Token:").reset());
-            token = br.readLine();
-            printAnsi(ansi().fg(GREEN).a(ENTER_PIN).reset());
-            readPin = cr.readPassword();
-            long pin = Long.parseLong(new String(readPin));
-            if (hidden) {
-                printHidden(providePwFromToken(pass, pin, token, br));
-            } else {
-                printNormal(providePwFromToken(pass, pin, token, br));
-            }
-        } catch (Exception e) {
-            if (e instanceof NullPointerException && readPin == null) {
-                log.info(CONTINUE_WITH_DEFAULT_INVOCATION);
-                interactivePWRetrieveOnNull(br, hidden, token);
-            } else {
-                log.error(DEFAULT_ERR + " on retrieving PW. Make sure your token is correct, has no line breaks or empty space. Check Stack Trace for Details: ", e);
-                throw new RuntimeException(e);
+        // the fallback without console reuses the session, the password is not copied into a String
+        try (KeySession session = new KeySession(pwd)) {
+            try {
+                printAnsi(ansi().fg(GREEN).a(vault != null ? "Enter Token or Vault Label:" : "Enter Token:").reset());
+                String input = br.readLine();
+                token = resolveToken(input);
+                // the key stretching of the token runs while the pin is typed
+                TokenEngine.prewarm(session, token);
+                printAnsi(ansi().fg(GREEN).a(ENTER_PIN).reset());
+                readPin = cr.readPassword();
+                long pin = parsePin(readPin);
+                String pw = providePwFromToken(session, pin, input, br);
+                if (!pw.isEmpty() && KdfParams.rehashOnRetrieve()) {
+                    rehashToken(session, input.trim(), token);
+                }
+                printAnsi(ansi().fg(GREEN).a("\nPW: ").reset());
+                if (hidden) {
+                    printHidden(pw);
+                } else {
+                    printNormal(pw);
+                }
+            } catch (Exception e) {
+                if (e instanceof NullPointerException && readPin == null) {
+                    log.info(CONTINUE_WITH_DEFAULT_INVOCATION);
+                    interactivePWRetrieveOnNull(br, hidden, token, session);
+                } else {
+                    log.error(DEFAULT_ERR + " on retrieving PW. Make sure your token is correct, has no line breaks or empty space. Check Stack Trace for Details: ", e);
+                    throw new RuntimeException(e);
+                }
             }
+        } finally {
+            Arrays.fill(pwd, '\0');
         }
     }
 
     String providePwFromToken(String encryptionPw, long pin, String token, BufferedReader br) {
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            return providePwFromToken(session, pin, token, br);
+        }
+    }
+
+    String providePwFromToken(KeySession session, long pin, String token, BufferedReader br) {
         String pw = "";
         try {
-            char[] pinArr = Long.toString(pin).toCharArray();
-            token = AesGcmPw.decrypt(token, encryptionPw);
-            alphabetSeedRequest(br, pinArr);
-            int[] indexes = provideClearDecodedIndexes(decoder, token, pin, encryptionPw);
-            pw = generateByIndexes(indexes, pin);
+            pw = retrievePw(session, pin, token);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error(DEFAULT_ERR + " on retrieving PW from token", e);
         }
         return pw;
     }
 
+    // a vault label is retrieved with the alphabet filter its token was generated with
+    String retrievePw(KeySession session, long pin, String tokenOrLabel) throws GeneralSecurityException {
+        Optional<VaultEntry> entry = vault != null && tokenOrLabel != null ? vault.get(tokenOrLabel.trim()) : Optional.empty();
+        if (entry.isPresent()) {
+            return engine().withoutCharacters(entry.get().getAlphabetFilter()).retrieve(entry.get().getToken(), pin, session);
+        }
+        return engine().retrieve(tokenOrLabel, pin, session);
+    }
+
+    /**
+     * Retrieves the PWs of a file with one token (or vault label) per line in parallel and writes them line by
+     * line into {@code pws}, in input order. Lines failing to decrypt get an empty output line and are reported
+     * with their line number, the run continues.
+     */
+    public OrderedLineProcessor.Result retrievePwsFromFile(Path tokens, Path pws, long pin, String encryptionPw) throws IOException {
+        char[] pw = encryptionPw.toCharArray();
+        try {
+            return retrievePwsFromFile(tokens, pws, pin, pw);
+        } finally {
+            Arrays.fill(pw, '\0');
+        }
+    }
+
+    /**
+     * {@link #retrievePwsFromFile(Path, Path, long, String)} without a String of the encryption password, the
+     * caller wipes {@code encryptionPw}.
+     */
+    public OrderedLineProcessor.Result retrievePwsFromFile(Path tokens, Path pws, long pin, char[] encryptionPw) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        try (KeySession session = new KeySession(encryptionPw);
+             OrderedLineProcessor processor = new OrderedLineProcessor(threads);
+             BufferedReader in = Files.newBufferedReader(tokens, UTF_8);
+             BufferedWriter out = Files.newBufferedWriter(pws, UTF_8)) {
+            return processor.process(in, out,
+                    (lineNumber, line) -> line.trim().isEmpty() ? "" : retrievePw(session, pin, line.trim()),
+                    (lineNumber, e) -> {
+                        log.error("Could not retrieve PW of line {}: {}", lineNumber, e.toString());
+                        printAnsi(ansi().fg(RED).a("Line " + lineNumber + ": " + e.getMessage()).reset());
+                    });
+        }
+    }
+
+    void interactiveFileRetrieve(ConsoleReader cr, BufferedReader br) {
+        char[] pwd = retrievePwd(cr);
+        if (pwd == null) {
+            return;
+        }
+        try {
+            printAnsi(ansi().fg(GREEN).a("Enter Token File (one Token per line):").reset());
+            Path tokens = Paths.get(br.readLine().trim());
+            printAnsi(ansi().fg(GREEN).a("Enter Output File (PWs are written in clear text):").reset());
+            Path pws = Paths.get(br.readLine().trim());
+            printAnsi(ansi().fg(GREEN).a(ENTER_PIN).reset());
+            char[] readPin = cr.readPassword();
+            long pin = readPin != null ? parsePin(readPin) : Long.parseLong(br.readLine());
+            long start = System.nanoTime();
+            OrderedLineProcessor.Result result = retrievePwsFromFile(tokens, pws, pin, pwd);
+            printAnsi(ansi().fg(GREEN).a(String.format("Retrieved %d of %d PWs into %s in %d ms, %d failed",
+                    result.getLines() - result.getFailures(), result.getLines(), pws, (System.nanoTime() - start) / 1_000_000, result.getFailures())).reset());
+        } catch (IOException e) {
+            log.error(DEFAULT_ERR + " on retrieving PWs from file", e);
+        } finally {
+            Arrays.fill(pwd, '\0');
+        }
+    }
+
+    void interactiveRotation(ConsoleReader cr, BufferedReader br) {
+        if (vault == null) {
+            printAnsi(ansi().fg(RED).a("No vault configured, start with " + VAULT_ARG + " <file>").reset());
+            return;
+        }
+        char[] oldPwd = retrievePwd(cr);
+        printAnsi(ansi().fg(GREEN).a("New ").reset());
+        char[] newPwd = retrievePwd(cr);
+        try {
+            // tokens are shifted by their pin, every label is rotated with its own one
+            Map<String, Long> pins = new HashMap<>();
+            while (true) {
+                printAnsi(ansi().fg(GREEN).a(ENTER_PIN + " (empty to start re-encrypting)").reset());
+                char[] readPin = cr.readPassword();
+                String line = readPin == null ? br.readLine() : null;
+                if (readPin != null ? readPin.length == 0 : line == null || line.isBlank()) {
+                    break;
+                }
+                long pin = readPin != null ? parsePin(readPin) : Long.parseLong(line.trim());
+                printAnsi(ansi().fg(GREEN).a("Enter Labels of this Pin, comma separated (* for all Labels without a Pin yet):").reset());
+                String labels = br.readLine().trim();
+                if (labels.equals("*")) {
+                    vault.labels().forEach(label -> pins.putIfAbsent(label, pin));
+                } else {
+                    Arrays.stream(labels.split(",")).map(String::trim).filter(label -> !label.isEmpty()).forEach(label -> pins.put(label, pin));
+                }
+            }
+            long start = System.nanoTime();
+            TokenRotation.Result result = rotateVault(pins, oldPwd, newPwd);
+            printAnsi(ansi().fg(GREEN).a(String.format("Re-encrypted %d Tokens in %d ms, %d already re-encrypted, %d failed, %d without a Pin untouched. Backup of the former Tokens: %s",
+                    result.getRotated(), (System.nanoTime() - start) / 1_000_000, result.getSkipped(), result.getFailures(), result.getUntouched(),
+                    TokenRotation.backupOf(vault))).reset());
+        } catch (IOException | IllegalArgumentException e) {
+            log.error(DEFAULT_ERR + " on re-encrypting the vault", e);
+        } finally {
+            Arrays.fill(oldPwd, '\0');
+            Arrays.fill(newPwd, '\0');
+        }
+    }
+
+    void interactivePassphraseGeneration(BufferedReader br, ConsoleReader cr) {
+        if (wordlist == null) {
+            printAnsi(ansi().fg(RED).a("No wordlist configured, start with " + WORDLIST_ARG + " <file>").reset());
+            return;
+        }
+        char[] pwd = retrievePwd(cr);
+        if (pwd == null) {
+            return;
+        }
+        try (KeySession session = new KeySession(pwd)) {
+            TokenEngine.prewarm(session);
+            printAnsi(ansi().fg(GREEN).a(String.format("Enter number of words (%d words, %.1f bits each):", wordlist.size(), wordlist.bitsPerWord())).reset());
+            int words = Integer.parseInt(br.readLine().trim());
+            requestVaultLabel(br);
+            printAnsi(ansi().fg(GREEN).a(ENTER_PIN).reset());
+            char[] readPin = cr.readPassword();
+            long pin = readPin != null ? parsePin(readPin) : Long.parseLong(br.readLine());
+            printNormal(printToken(provideTokenAndPassphrase(words, pin, session), false, false));
+        } catch (IOException | IllegalArgumentException e) {
+            log.error(DEFAULT_ERR + " generating passphrase", e);
+        } finally {
+            Arrays.fill(pwd, '\0');
+        }
+    }
+
+    /**
+     * Passphrase of {@code words} words of the wordlist and its token, keyed like {@link #provideTokenAndPw(int, long, KeySession)}.
+     * The token is retrieved like PW tokens, with the same wordlist set.
+     */
+    public Map<String, String> provideTokenAndPassphrase(int words, long pin, KeySession session) {
+        try {
+            return engine().generatePassphrase(words, PASSPHRASE_SEPARATOR, pin, session);
+        } catch (GeneralSecurityException e) {
+            log.error(DEFAULT_ERR + " generating encrypted passphrase: ", e);
+            throw new IllegalStateException(DEFAULT_ERR + " generating encrypted passphrase", e);
+        }
+    }
+
+    /**
+     * Re-encrypts the vault tokens of the labels of {@code pins}, each with its pin, from {@code oldPw} to
+     * {@code newPw} on all cores, resuming an interrupted run, see {@link TokenRotation}.
+     */
+    public TokenRotation.Result rotateVault(Map<String, Long> pins, char[] oldPw, char[] newPw) throws IOException {
+        try (KeySession from = new KeySession(oldPw);
+             KeySession to = new KeySession(newPw);
+             TokenRotation rotation = new TokenRotation(engine(), Runtime.getRuntime().availableProcessors())) {
+            return rotation.rotate(vault, pins, from, to, (number, e) -> {
+                log.error("Could not re-encrypt token {}: {}", number, e.toString());
+                printAnsi(ansi().fg(RED).a("Token " + number + ": " + e.getMessage()).reset());
+            });
+        }
+    }
+
+    /**
+     * Parses and wipes a pin read from the console without creating a String of it.
+     *
+     * @throws NullPointerException if no pin was read
+     */
+    static long parsePin(char[] pin) {
+        try {
+            return Long.parseLong(CharBuffer.wrap(pin), 0, pin.length, 10);
+        } finally {
+            Arrays.fill(pin, '\0');
+        }
+    }
+
+    /**
+     * {@link #getPWfromToken(String, long, String)} without Strings of encryption password and PW, the caller
+     * wipes the returned PW. Empty if the token could not be decrypted.
+     */
+    public char[] getPWfromToken(char[] pass, long pin, String token) {
+        try (KeySession session = new KeySession(pass)) {
+            return engine().retrieveChars(token, pin, session);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            log.error(DEFAULT_ERR + " on retrieving PW from token", e);
+            return new char[0];
+        }
+    }
+
     public String getPWfromToken(String pass, long pin, String token) {
         return providePwFromToken(pass, pin, token, null);
     }
 
-    void interactivePWRetrieveOnNull(BufferedReader br, boolean hidden, String token) {
+    void interactivePWRetrieveOnNull(BufferedReader br, boolean hidden, String token, String encryptionPw) {
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            interactivePWRetrieveOnNull(br, hidden, token, session);
+        }
+    }
+
+    void interactivePWRetrieveOnNull(BufferedReader br, boolean hidden, String token, KeySession session) {
         try {
             printAnsi(ansi().fg(GREEN).a(ENTER_PIN).reset());
             String pin = br.readLine();
             long seed = Long.parseLong(pin);
-            int[] indexes = provideClearDecodedIndexes(decoder, token, seed);
+            String pw = providePwFromToken(session, seed, token, br);
+            printAnsi(ansi().fg(GREEN).a("\nPW: ").reset());
             if (hidden) {
-                printHidden(generateByIndexes(indexes, seed));
+                printHidden(pw);
             } else {
-                printNormal(generateByIndexes(indexes, seed));
+                printNormal(pw);
             }
         } catch (IOException e) {
             log.error(DEFAULT_ERR, e);
@@ -298,67 +738,84 @@ public class Generator {
         interactiveGenerator(false, false, br, cr);
     }
 
+    void interactiveBulkGenerationHidden(BufferedReader br, ConsoleReader cr) {
+        interactiveGenerator(false, true, true, br, cr);
+    }
+
+    void interactiveBulkGenerationVisible(BufferedReader br, ConsoleReader cr) {
+        interactiveGenerator(false, false, true, br, cr);
+    }
+
     void interactiveGenerator(boolean anonymous, boolean hidden, BufferedReader br, ConsoleReader cr) {
+        interactiveGenerator(anonymous, hidden, false, br, cr);
+    }
+
+    void interactiveGenerator(boolean anonymous, boolean hidden, boolean bulk, BufferedReader br, ConsoleReader cr) {
         char[] pwd = retrievePwd(cr);
-        String encryptionPw = String.valueOf(pwd);
+        if (pwd == null) {
+            return;
+        }
         char[] readPin = null;
         int min = -1;
         int max = -1;
         int numPws = -1;
-        try {
-            printAnsi(ansi().fg(GREEN).a("Enter minimal PW character length:").reset());
-            min = Integer.parseInt(br.readLine());
-            printAnsi(ansi().fg(GREEN).a("Enter max PW character length:").reset());
-            max = Integer.parseInt(br.readLine());
-            printAnsi(ansi().fg(GREEN).a("Enter number of Passwords to be created:").reset());
-            numPws = Integer.parseInt(br.readLine());
-            printAnsi(ansi().fg(GREEN).a(ENTER_PIN).reset());
-            readPin = cr.readPassword();
-            alphabetSeedRequest(br, readPin);
-            long pin = Long.parseLong(new String(readPin));
-            printMultipleRandomPWs(min, max, numPws, pin, anonymous, hidden, encryptionPw);
-        } catch (Exception e) {
-            if (e instanceof NullPointerException && readPin == null) {
-                log.info(CONTINUE_WITH_DEFAULT_INVOCATION);
-                interactiveGeneratorOnNull(br, min, max, numPws, anonymous, hidden, encryptionPw);
-            } else {
-                log.error("Error occurred on interactive PW generation, check Stack Trace for Details: ", e);
-                System.exit(-1);
+        try (KeySession session = new KeySession(pwd)) {
+            try {
+                // the key stretching runs while lengths, count and pin are typed
+                TokenEngine.prewarm(session);
+                printAnsi(ansi().fg(GREEN).a("Enter minimal PW character length:").reset());
+                min = Integer.parseInt(br.readLine());
+                printAnsi(ansi().fg(GREEN).a("Enter max PW character length:").reset());
+                max = Integer.parseInt(br.readLine());
+                printAnsi(ansi().fg(GREEN).a("Enter number of Passwords to be created:").reset());
+                numPws = Integer.parseInt(br.readLine());
+                requestVaultLabel(br);
+                printAnsi(ansi().fg(GREEN).a(ENTER_PIN).reset());
+                readPin = cr.readPassword();
+                alphabetSeedRequest(br, readPin);
+                long pin = parsePin(readPin);
+                printMultipleRandomPWs(min, max, numPws, pin, anonymous, hidden, bulk, session);
+            } catch (Exception e) {
+                if (e instanceof NullPointerException && readPin == null) {
+                    log.info(CONTINUE_WITH_DEFAULT_INVOCATION);
+                    interactiveGeneratorOnNull(br, min, max, numPws, anonymous, hidden, bulk, session);
+                } else {
+                    log.error("Error occurred on interactive PW generation, check Stack Trace for Details: ", e);
+                    System.exit(-1);
+                }
             }
+        } finally {
+            Arrays.fill(pwd, '\0');
         }
     }
 
     void interactiveGeneratorOnNull(BufferedReader br, int min, int max, int numPws, boolean anonymous, boolean hidden, String encryptionPw) {
+        interactiveGeneratorOnNull(br, min, max, numPws, anonymous, hidden, false, encryptionPw);
+    }
+
+    void interactiveGeneratorOnNull(BufferedReader br, int min, int max, int numPws, boolean anonymous, boolean hidden, boolean bulk, String encryptionPw) {
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            interactiveGeneratorOnNull(br, min, max, numPws, anonymous, hidden, bulk, session);
+        }
+    }
+
+    void interactiveGeneratorOnNull(BufferedReader br, int min, int max, int numPws, boolean anonymous, boolean hidden, boolean bulk, KeySession session) {
         try {
             printAnsi(ansi().fg(GREEN).a(ENTER_PIN).reset());
             String pin = br.readLine();
             long seed = Long.parseLong(pin);
-            printMultipleRandomPWs(min, max, numPws, seed, anonymous, hidden, encryptionPw);
+            printMultipleRandomPWs(min, max, numPws, seed, anonymous, hidden, bulk, session);
         } catch (IOException e) {
             log.error(DEFAULT_ERR, e);
         }
     }
 
     int[] parseStringToIntArr(String word) {
-        String[] stringIndexes = word.replace("{", "").replace("}", "").replace("[", "").replace("]", "").replace(" ", "").split(",");
-        int[] indexes = new int[stringIndexes.length];
-
-        for (int i = 0; i < indexes.length; i++) {
-            indexes[i] = Integer.parseInt(stringIndexes[i]);
-        }
-        return indexes;
+        return TokenEngine.parseStringToIntArr(word);
     }
 
     char[] randomizeAlphabet(long seed, char[] alphabet) {
-        char[] arr = alphabet;
-        List<Character> tempList = new ArrayList<>();
-        for (char c : arr) {
-            tempList.add(Character.valueOf(c));
-        }
-        shuffle(tempList, new MersenneTwister(seed));
-        String str = tempList.toString().replace(",", "");
-        arr = str.substring(1, str.length() - 1).replace(" ", "").toCharArray();
-        return arr;
+        return TokenEngine.randomizeAlphabet(seed, alphabet);
     }
 
     long provideMersenneTwisterPRNGLong(long seed) {
@@ -367,45 +824,42 @@ public class Generator {
 
     // handles only positive integers
     int generateRandomNumber(int min, int max) {
-        int rand = -1;
-        try {
-            rand = SecureRandom.getInstanceStrong().nextInt(max - min) + min;
-        } catch (NoSuchAlgorithmException e) {
-            log.error(DEFAULT_ERR + " generating random numbers: ", e);
-        }
-        if (rand == -1) {
-            throw new IllegalStateException(DEFAULT_ERR + " generating random numbers, random value is -1");
-        }
-        return rand;
+        return TokenEngine.generateRandomNumber(min, max);
     }
 
     int[] generateIndexes(int length, long pin) {
-        if (alphabet == null) {
-            alphabet = randomizeAlphabet(pin, referenceAlphabet);
-        }
-        int[] indexes = new int[length];
+        return TokenEngine.generateIndexes(length, referenceAlphabet.length);
+    }
 
-        for (int i = 0; i < length; i++) {
-            indexes[i] = generateRandomNumber(0, alphabet.length);
+    /**
+     * Token generation without Strings of encryption password and PW, closing the result wipes the PW.
+     */
+    public SecretToken provideTokenAndPw(int length, long pin, char[] encryptionPw) {
+        try (KeySession session = new KeySession(encryptionPw)) {
+            return engine().generateSecret(length, pin, session);
+        } catch (GeneralSecurityException e) {
+            log.error(DEFAULT_ERR + " generating encrypted Pw: ", e);
+            throw new IllegalStateException(DEFAULT_ERR + " generating encrypted Pw", e);
         }
-        return indexes;
     }
 
     public Map<String, String> provideTokenAndPw(int length, long pin, String encryptionPw) {
-        shuffleAlphabetByPin(String.valueOf(pin).toCharArray());
-        alphabet = randomizeAlphabet(pin, referenceAlphabet);
-        int[] indexes = generateIndexes(length, pin);
-        String token = provideObfuscatedEncodedIndexes(encoder, indexes, pin, encryptionPw);
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            return provideTokenAndPw(length, pin, session);
+        }
+    }
+
+    /**
+     * Token generation within an encryption session, the password is stretched only once for all tokens of the
+     * session.
+     */
+    public Map<String, String> provideTokenAndPw(int length, long pin, KeySession session) {
         try {
-            token = AesGcmPw.encrypt(token.getBytes(AesGcmPw.UTF_8), encryptionPw);
-        } catch (Exception e) {
+            return engine().generate(length, pin, session);
+        } catch (GeneralSecurityException e) {
             log.error(DEFAULT_ERR + " generating encrypted Pw: ", e);
+            throw new IllegalStateException(DEFAULT_ERR + " generating encrypted Pw", e);
         }
-        StringBuilder pw = new StringBuilder();
-        for (int index : indexes) {
-            pw.append(alphabet[index]);
-        }
-        return Map.of("token", token, "pw", pw.toString());
     }
 
     public String provideToken(int length, long pin, String encryptionPw) {
@@ -413,29 +867,93 @@ public class Generator {
     }
 
     String generatePw(int length, long pin, boolean hidden, boolean anonymous, String encryptionPw) {
-        alphabet = randomizeAlphabet(pin, referenceAlphabet);
-        StringBuilder pw = new StringBuilder();
-        int[] indexes = generateIndexes(length, pin);
-        printAnsi(ansi().fg(GREEN).a("Token:").reset());
-        String token = provideObfuscatedEncodedIndexes(encoder, indexes, pin, encryptionPw);
-        try {
-            token = AesGcmPw.encrypt(token.getBytes(AesGcmPw.UTF_8), encryptionPw);
-        } catch (Exception e) {
-            log.error(DEFAULT_ERR + " generating encrypted Pw: ", e);
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            return generatePw(length, pin, hidden, anonymous, session);
         }
+    }
+
+    String generatePw(int length, long pin, boolean hidden, boolean anonymous, KeySession session) {
+        return printToken(provideTokenAndPw(length, pin, session), hidden, anonymous);
+    }
+
+    // prints the token and returns the padded pw
+    String printToken(Map<String, String> tokenAndPw, boolean hidden, boolean anonymous) {
+        storeInVault(tokenAndPw.get(TokenEngine.TOKEN));
+        printAnsi(ansi().fg(GREEN).a("Token:").reset());
         if (hidden) {
-            printHidden(token);
+            printHidden(tokenAndPw.get(TokenEngine.TOKEN));
         } else {
-            printNormal(token);
-        }
-        for (int index : indexes) {
-            pw.append(alphabet[index]);
+            printNormal(tokenAndPw.get(TokenEngine.TOKEN));
         }
         if (!anonymous) {
             printAnsi(ansi().fg(GREEN).a("\nPW: ").reset());
         }
-        pw.append(padWithEmtpyString());
-        return pw.toString();
+        return tokenAndPw.get(TokenEngine.PW) + padWithEmtpyString();
+    }
+
+    void requestVaultLabel(BufferedReader br) throws IOException {
+        vaultLabel = null;
+        vaultSequence = 0;
+        if (vault != null) {
+            printAnsi(ansi().fg(GREEN).a("Enter Vault Label (empty to not store Tokens):").reset());
+            String label = br.readLine();
+            vaultLabel = label == null || label.trim().isEmpty() ? null : label.trim();
+        }
+    }
+
+    // first token of a run is stored under the label, further ones under label-2, label-3, ...
+    void storeInVault(String token) {
+        if (vault == null || vaultLabel == null) {
+            return;
+        }
+        vaultSequence++;
+        String label = vaultSequence == 1 ? vaultLabel : vaultLabel + "-" + vaultSequence;
+        try {
+            vault.put(label, token, VaultEntry.alphabetFilterMetadata(filteredCharacters));
+            printAnsi(ansi().fg(GREEN).a("Stored in Vault as: ").fg(YELLOW).a(label).reset());
+        } catch (IOException e) {
+            log.error(DEFAULT_ERR + " storing token in vault", e);
+        }
+    }
+
+    // re-encrypts a token of weaker KDF parameters than the policy, in place if it was given by vault label
+    void rehashToken(KeySession session, String input, String token) {
+        try {
+            if (!session.needsRehash(token)) {
+                return;
+            }
+            String upgraded = session.rehash(token);
+            Optional<VaultEntry> entry = vault != null ? vault.get(input) : Optional.empty();
+            if (entry.isPresent() && entry.get().getToken().equals(token)) {
+                vault.put(input, upgraded, entry.get().getMetadata());
+                printAnsi(ansi().fg(GREEN).a("\nUpgraded Token in Vault to " + session.getKdfParams()).reset());
+            } else {
+                printAnsi(ansi().fg(GREEN).a("\nUpgraded Token (" + session.getKdfParams() + "): ").fg(YELLOW).a(upgraded).reset());
+            }
+        } catch (GeneralSecurityException | IOException e) {
+            log.error(DEFAULT_ERR + " upgrading token", e);
+        }
+    }
+
+    // a vault label is replaced by its token, anything else is taken as token
+    String resolveToken(String input) {
+        if (vault == null || input == null) {
+            return input;
+        }
+        return vault.get(input.trim()).map(VaultEntry::getToken).orElse(input);
+    }
+
+    void compactVault() {
+        if (vault == null) {
+            printAnsi(ansi().fg(RED).a("No vault configured, start with " + VAULT_ARG + " <file>").reset());
+            return;
+        }
+        try {
+            long reclaimed = vault.compact();
+            printAnsi(ansi().fg(GREEN).a(String.format("Compacted Vault %s: %d Tokens, %d bytes reclaimed", vault.getPath(), vault.size(), reclaimed)).reset());
+        } catch (IOException e) {
+            log.error(DEFAULT_ERR + " compacting vault", e);
+        }
     }
 
     String padWithEmtpyString() {
@@ -445,13 +963,7 @@ public class Generator {
 
     // pass your indexes to retrieve your pwd.
     String generateByIndexes(int[] indexes, long pin) {
-        alphabet = randomizeAlphabet(pin, referenceAlphabet);
-        StringBuilder pw = new StringBuilder();
-        for (int index : indexes) {
-            pw.append(alphabet[index]);
-        }
-        printAnsi(ansi().fg(GREEN).a("\nPW: ").reset());
-        return pw.toString();
+        return TokenEngine.generateByIndexes(indexes, randomizeAlphabet(pin, referenceAlphabet));
     }
 
     void printCharArrayToString(char[] arr) {
@@ -466,16 +978,71 @@ public class Generator {
         log.info(str.toString()); //NOSONAR
     }
 
+    void printMultipleRandomPWs(int rangeMin, int rangeMax, int numOfPWs, long pin, boolean anonymous, boolean hidden, boolean bulk, String encryptionPw) {
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            printMultipleRandomPWs(rangeMin, rangeMax, numOfPWs, pin, anonymous, hidden, bulk, session);
+        }
+    }
+
+    void printMultipleRandomPWs(int rangeMin, int rangeMax, int numOfPWs, long pin, boolean anonymous, boolean hidden, boolean bulk, KeySession session) {
+        if (bulk) {
+            printMultipleRandomPWsParallel(rangeMin, rangeMax, numOfPWs, pin, anonymous, hidden, session);
+        } else {
+            printMultipleRandomPWs(rangeMin, rangeMax, numOfPWs, pin, anonymous, hidden, session);
+        }
+    }
+
+    /**
+     * Generates all tokens in parallel on all cores first and prints them afterwards in order, along with the
+     * achieved throughput.
+     */
+    public void printMultipleRandomPWsParallel(int rangeMin, int rangeMax, int numOfPWs, long pin, boolean anonymous, boolean hidden, String encryptionPw) {
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            printMultipleRandomPWsParallel(rangeMin, rangeMax, numOfPWs, pin, anonymous, hidden, session);
+        }
+    }
+
+    void printMultipleRandomPWsParallel(int rangeMin, int rangeMax, int numOfPWs, long pin, boolean anonymous, boolean hidden, KeySession session) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Map<String, String>> tokens;
+        long start = System.nanoTime();
+        try (BulkTokenGenerator bulkGenerator = new BulkTokenGenerator(engine(), threads)) {
+            tokens = bulkGenerator.generate(rangeMin, rangeMax, numOfPWs, pin, session);
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        for (int i = 0; i < tokens.size(); i++) {
+            printAnsi(ansi().fg(GREEN).a("\n----------------PW NO:" + ((i + 1) < 10 ? "0" + (i + 1) : (i + 1)) + "-----------------").reset());
+            String pw = printToken(tokens.get(i), hidden, anonymous);
+            if (!anonymous) {
+                if (hidden) {
+                    printHidden(pw);
+                } else {
+                    printNormal(pw);
+                }
+            }
+            printAnsi(ansi().fg(GREEN).a("-----------------------------------------").reset()); //NOSONAR
+        }
+        printAnsi(ansi().fg(GREEN).a(String.format("%nGenerated %d tokens in %d ms (%.1f tokens/s) on %d threads",
+                tokens.size(), elapsedMillis, tokens.size() * 1000.0 / elapsedMillis, threads)).reset());
+    }
+
     public void printMultipleRandomPWs(int rangeMin, int rangeMax, int numOfPWs, long pin, boolean anonymous, boolean hidden, String encryptionPw) {
+        // one session for the whole batch, the encryption password is stretched only once
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            printMultipleRandomPWs(rangeMin, rangeMax, numOfPWs, pin, anonymous, hidden, session);
+        }
+    }
+
+    void printMultipleRandomPWs(int rangeMin, int rangeMax, int numOfPWs, long pin, boolean anonymous, boolean hidden, KeySession session) {
         for (int i = 0; i < numOfPWs; i++) {
             printAnsi(ansi().fg(GREEN).a("\n----------------PW NO:" + ((i + 1) < 10 ? "0" + (i + 1) : (i + 1)) + "-----------------").reset());
             int rand = generateRandomNumber(rangeMin, rangeMax);
             if (anonymous) {
-                generatePw(rand, pin, hidden, true, encryptionPw);
+                generatePw(rand, pin, hidden, true, session);
             } else if (hidden) {
-                printHidden(generatePw(rand, pin, true, false, encryptionPw));
+                printHidden(generatePw(rand, pin, true, false, session));
             } else {
-                printNormal(generatePw(rand, pin, false, false, encryptionPw));
+                printNormal(generatePw(rand, pin, false, false, session));
             }
             printAnsi(ansi().fg(GREEN).a("-----------------------------------------").reset()); //NOSONAR
         }
@@ -491,11 +1058,6 @@ public class Generator {
         return clearObfuscatedIndexes(obfuscatedIndexes, pin, encryptionPw);
     }
 
-    int[] provideClearDecodedIndexes(Decoder d, String encodedIndexes, long pin) {
-        int[] obfuscatedIndexes = base64Decoding(encodedIndexes, d);
-        return clearObfuscatedIndexes(obfuscatedIndexes, pin, null);
-    }
-
     void printHidden(String message) {
         message = padWithEmtpyString() + message + padWithEmtpyString();
         printAnsi(ansi().fg(BLACK).bg(BLACK).a(message).reset()); //NOSONAR
@@ -507,76 +1069,25 @@ public class Generator {
 
     // applies surjection with sumDigits
     int provideShiftValue(long pin) {
-        int cycles = sumDigits(pin);
-        long maskNumber = -1;
-        for (int i = 0; i < cycles; i++) {
-            maskNumber = Math.abs(provideMersenneTwisterPRNGLong(pin));
-        }
-        double p = ((double) maskNumber / (double) Long.MAX_VALUE);
-        return (int) Math.ceil(OBFUSCATION_ARRAY_SIZE * p);
+        return TokenEngine.provideShiftValue(pin);
     }
 
     int sumDigits(long num) {
-        num = Math.abs(num);
-        long sum = 0;
-        while (num > 0) {
-            sum = sum + num % 10;
-            num = num / 10;
-        }
-        return (int) sum;
+        return TokenEngine.sumDigits(num);
     }
 
     // only deals with positive integers
     int provideSecureRandomInteger(int min, int max) {
-        int n = -1;
-        try {
-            n = SecureRandom.getInstanceStrong().nextInt(max - min + 1) + min;
-        } catch (NoSuchAlgorithmException e) {
-            log.error(DEFAULT_ERR, e);
-        }
-        if (n == -1) {
-            throw new IllegalStateException(DEFAULT_ERR + " assigning random number. Random number is -1");
-        }
-        return n;
+        return TokenEngine.provideSecureRandomInteger(min, max);
     }
 
     int[] obfuscateIndexes(int[] indexes, long pin, String encryptionPw) {
-        int pwLength = indexes.length;
-        int[] obfuscatedIndexes = new int[OBFUSCATION_ARRAY_SIZE];
-        int min = RESERVED_ARRAY_INDEXES;
-        int max = OBFUSCATION_ARRAY_SIZE - pwLength;
-        int shiftValue = provideShiftValue(pin + transformPwToHashedLong(encryptionPw));
-        boolean obfuscationOffsetTooLong = (OBFUSCATION_ARRAY_SIZE - (pwLength + 1)) <= OBFUSCATION_OFFSET;
-        boolean alphabetPWLengthCritical = max <= min;
-        if (obfuscationOffsetTooLong || alphabetPWLengthCritical) {
-            throw new IllegalArgumentException("Password too long, lower password max-length to max: " + (OBFUSCATION_ARRAY_SIZE - (OBFUSCATION_OFFSET + 2)));
-        }
-
-        int arrayStartIndex = provideSecureRandomInteger(min, max);
-        obfuscatedIndexes[1] = arrayStartIndex;
-        System.arraycopy(indexes, 0, obfuscatedIndexes, arrayStartIndex, indexes.length);
-        int[] remainingIndexes = provideRemainingIndexes(arrayStartIndex, pwLength);
-        int random = provideSecureRandomInteger(0, remainingIndexes.length - 1);
-        obfuscatedIndexes[0] = remainingIndexes[random];
-        obfuscatedIndexes[obfuscatedIndexes[0]] = pwLength;
-        obfuscatedIndexes = fillEmptySpotsInObfuscatedArray(obfuscatedIndexes, remainingIndexes, referenceAlphabet.length);
-        for (int i = 0; i < obfuscatedIndexes.length; i++) {
-            obfuscatedIndexes[i] = shiftValue(obfuscatedIndexes[i], shiftValue);
-        }
-        return obfuscatedIndexes;
+        return engine().obfuscateIndexes(indexes, pin, transformPwToHashedLong(encryptionPw));
     }
 
     int[] clearObfuscatedIndexes(int[] obfuscatedIndexes, long pin, String encryptionPw) {
         try {
-            int shiftValue = provideShiftValue(pin + (encryptionPw != null ? transformPwToHashedLong(encryptionPw) : 0));
-            int lengthIndex = unShiftValue(obfuscatedIndexes[0], shiftValue);
-            int length = unShiftValue(obfuscatedIndexes[lengthIndex], shiftValue);
-            int start = unShiftValue(obfuscatedIndexes[1], shiftValue);
-            int[] clearIndexes = new int[length];
-            for (int i = 0; i < clearIndexes.length; i++) {
-                clearIndexes[i] = unShiftValue(obfuscatedIndexes[(i + start)], shiftValue);
-            }
-            return clearIndexes;
+            return TokenEngine.clearObfuscatedIndexes(obfuscatedIndexes, pin, encryptionPw != null ? transformPwToHashedLong(encryptionPw) : 0);
         } catch (Exception e) {
             log.error("Issue clearing obfuscated Indexes ", e);
         }
@@ -584,47 +1095,19 @@ public class Generator {
     }
 
     int[] provideRemainingIndexes(int pwStartIndex, int pwLength) {
-        int beforePwMinIndex = pwStartIndex > RESERVED_ARRAY_INDEXES ? RESERVED_ARRAY_INDEXES : -1;
-        int beforePwMaxIndex = pwStartIndex > RESERVED_ARRAY_INDEXES ? pwStartIndex : -1;
-        int afterPwMinIndex = (pwStartIndex + pwLength) >= OBFUSCATION_ARRAY_SIZE - 1 ? -1 : (pwStartIndex + pwLength);
-        int afterPwMaxIndex = (pwStartIndex + pwLength) >= OBFUSCATION_ARRAY_SIZE - 1 ? -1 : OBFUSCATION_ARRAY_SIZE - 1;
-
-        int remainingIndexesLength = (Math.max(beforePwMaxIndex, 0)) + ((pwStartIndex + pwLength) < (OBFUSCATION_ARRAY_SIZE - 1) ? (OBFUSCATION_ARRAY_SIZE) - (pwStartIndex + pwLength) : 0) - RESERVED_ARRAY_INDEXES;
-
-        int[] remainingIndexes = new int[remainingIndexesLength];
-        if (beforePwMaxIndex > 0) {
-            for (int i = 0; i < (beforePwMaxIndex - beforePwMinIndex); i++) {
-                remainingIndexes[i] = beforePwMinIndex + i;
-            }
-        }
-        if (afterPwMaxIndex > 0) {
-            for (int i = (beforePwMaxIndex - beforePwMinIndex); i < remainingIndexes.length; i++) {
-                remainingIndexes[i] = afterPwMinIndex + (i - (beforePwMaxIndex - beforePwMinIndex));
-            }
-        }
-        return remainingIndexes;
+        return TokenEngine.provideRemainingIndexes(pwStartIndex, pwLength);
     }
 
     int[] fillEmptySpotsInObfuscatedArray(int[] obfuscatedArray, int[] remainingIndexes, int alphabetLength) {
-        int pwLengthIndex = obfuscatedArray[0];
-        if (pwLengthIndex == 0) {
-            throw new IllegalStateException("Pw Length not yet assigned to obfuscated Array");
-        }
-        for (int remainingIndex : remainingIndexes) {
-            if (remainingIndex != pwLengthIndex) {
-                obfuscatedArray[remainingIndex] = provideSecureRandomInteger(0, alphabetLength);
-            }
-        }
-        return obfuscatedArray;
+        return TokenEngine.fillEmptySpotsInObfuscatedArray(obfuscatedArray, remainingIndexes, alphabetLength);
     }
 
     int shiftValue(int value, int shiftValue) {
-        return (value + shiftValue) % OBFUSCATION_ARRAY_SIZE;
+        return TokenEngine.shiftValue(value, shiftValue);
     }
 
     int unShiftValue(int value, int shiftValue) {
-        int tempIndex = (value - shiftValue) % OBFUSCATION_ARRAY_SIZE;
-        return tempIndex < 0 ? tempIndex + OBFUSCATION_ARRAY_SIZE : tempIndex;
+        return TokenEngine.unShiftValue(value, shiftValue);
     }
 
     String base64Encoding(int[] indexes, Encoder e) {
@@ -683,28 +1166,11 @@ public class Generator {
     }
 
     long transformPwToHashedLong(String encryptionPw) {
-        return bytesToLong(getSha3Instance().digest(encryptionPw.getBytes(UTF_8)));
+        return TokenEngine.transformPwToHashedLong(encryptionPw);
     }
 
     long bytesToLong(byte[] bytes) {
-        long bytesInLong = 0;
-        for (int i = 0; i < BYTE; i++) {
-            bytesInLong <<= BYTE;
-            bytesInLong |= (bytes[i] & 0xFF);
-        }
-        return bytesInLong;
-    }
-
-    MessageDigest getSha3Instance() {
-        if (sha3Instance == null) {
-            try {
-                sha3Instance = MessageDigest.getInstance("SHA3-512");
-                return sha3Instance;
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        return sha3Instance;
+        return TokenEngine.bytesToLong(bytes);
     }
 
     // Wrap Console in order to ease testing and for separation of concerns
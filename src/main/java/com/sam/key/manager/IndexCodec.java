@@ -0,0 +1,204 @@
+package com.sam.key.manager;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary serialization of the obfuscation array that is encrypted into a token.
+ * <p>
+ * Packed layout: {@code [format 0x01][bit width][count, 2 bytes big endian][values, MSB first]}. With the values
+ * of the obfuscation array all below 128 every value takes 7 bits, 100 values fit in 92 bytes instead of the
+ * roughly 400 byte Base64 of {@link java.util.Arrays#toString(int[])} tokens used to carry.
+ * <p>
+ * Block layout of PWs beyond the fixed obfuscation array: {@code [format 0x02][bit width][count, 2 bytes][length,
+ * 2 bytes][start, 2 bytes][values]}, the obfuscation block is sized to the PW and its (shifted) length and start are
+ * carried in the header instead of in slots of the array.
+ * <p>
+ * Passphrase layout: {@code [format 0x03][bit width][count, 2 bytes][length, 2 bytes][start, 2 bytes][wordlist size,
+ * 4 bytes][wordlist CRC32, 4 bytes][separator, 2 bytes][values]}, a block of word indexes recording the wordlist and
+ * separator the passphrase is composed of.
+ * <p>
+ * {@link #decode(byte[])} tells the formats apart by the first byte: legacy payloads are Base64 text and can
+ * never start with a format byte.
+ */
+final class IndexCodec {
+
+    static final byte FORMAT_PACKED = 0x01;
+    static final byte FORMAT_BLOCK = 0x02;
+    static final byte FORMAT_PASSPHRASE = 0x03;
+    static final int HEADER_LENGTH = 4;
+    static final int BLOCK_HEADER_LENGTH = 8;
+    static final int PASSPHRASE_HEADER_LENGTH = 18;
+    private static final int MAX_BIT_WIDTH = 31;
+    private static final int MAX_COUNT = 0xFFFF;
+
+    private IndexCodec() {
+    }
+
+    static byte[] encode(int[] values) {
+        return pack(values, FORMAT_PACKED, HEADER_LENGTH);
+    }
+
+    static byte[] encodeBlock(int[] values, int length, int start) {
+        return block(values, FORMAT_BLOCK, BLOCK_HEADER_LENGTH, length, start);
+    }
+
+    static byte[] encodePassphrase(int[] values, int length, int start, int wordCount, int checksum, char separator) {
+        byte[] packed = block(values, FORMAT_PASSPHRASE, PASSPHRASE_HEADER_LENGTH, length, start);
+        putInt(packed, 8, wordCount);
+        putInt(packed, 12, checksum);
+        packed[16] = (byte) (separator >>> 8);
+        packed[17] = (byte) separator;
+        return packed;
+    }
+
+    // same format and header fields as block, with other values, length and start
+    static byte[] reencodeBlock(byte[] block, int[] values, int length, int start) {
+        return isPassphrase(block)
+                ? encodePassphrase(values, length, start, wordCount(block), wordlistChecksum(block), separator(block))
+                : encodeBlock(values, length, start);
+    }
+
+    private static byte[] block(int[] values, byte format, int headerLength, int length, int start) {
+        if (length < 0 || length > MAX_COUNT || start < 0 || start > MAX_COUNT) {
+            throw new IllegalArgumentException("Block length and start out of range: " + length + ", " + start);
+        }
+        byte[] packed = pack(values, format, headerLength);
+        packed[4] = (byte) (length >>> 8);
+        packed[5] = (byte) length;
+        packed[6] = (byte) (start >>> 8);
+        packed[7] = (byte) start;
+        return packed;
+    }
+
+    private static void putInt(byte[] packed, int pos, int value) {
+        packed[pos] = (byte) (value >>> 24);
+        packed[pos + 1] = (byte) (value >>> 16);
+        packed[pos + 2] = (byte) (value >>> 8);
+        packed[pos + 3] = (byte) value;
+    }
+
+    private static byte[] pack(int[] values, byte format, int headerLength) {
+        if (values.length > MAX_COUNT) {
+            throw new IllegalArgumentException("Too many indexes: " + values.length);
+        }
+        int max = 0;
+        for (int value : values) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative index: " + value);
+            }
+            max |= value;
+        }
+        int bitWidth = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(max));
+        byte[] packed = new byte[headerLength + packedLength(values.length, bitWidth)];
+        packed[0] = format;
+        packed[1] = (byte) bitWidth;
+        packed[2] = (byte) (values.length >>> 8);
+        packed[3] = (byte) values.length;
+        long buffer = 0;
+        int bits = 0;
+        int pos = headerLength;
+        for (int value : values) {
+            buffer = (buffer << bitWidth) | value;
+            bits += bitWidth;
+            while (bits >= Byte.SIZE) {
+                bits -= Byte.SIZE;
+                packed[pos++] = (byte) (buffer >>> bits);
+            }
+        }
+        if (bits > 0) {
+            packed[pos] = (byte) (buffer << (Byte.SIZE - bits));
+        }
+        return packed;
+    }
+
+    /**
+     * Decodes a packed payload or a legacy Base64 encoded {@code "[12, 7, ...]"} payload, of a block payload only
+     * the values.
+     *
+     * @throws IllegalArgumentException on a malformed payload
+     */
+    static int[] decode(byte[] payload) {
+        if (isPacked(payload) || isBlock(payload) || isPassphrase(payload)) {
+            return unpack(payload);
+        }
+        return TokenEngine.base64Decoding(new String(payload, UTF_8));
+    }
+
+    static int[] unpack(byte[] packed) {
+        int headerLength = isPassphrase(packed) ? PASSPHRASE_HEADER_LENGTH : isBlock(packed) ? BLOCK_HEADER_LENGTH : HEADER_LENGTH;
+        if (packed.length < headerLength) {
+            throw new IllegalArgumentException("Packed indexes are truncated");
+        }
+        int bitWidth = packed[1];
+        int count = blockSize(packed);
+        if (bitWidth < 1 || bitWidth > MAX_BIT_WIDTH || packed.length != headerLength + packedLength(count, bitWidth)) {
+            throw new IllegalArgumentException("Malformed packed indexes");
+        }
+        int[] values = new int[count];
+        int mask = (1 << bitWidth) - 1;
+        long buffer = 0;
+        int bits = 0;
+        int pos = headerLength;
+        for (int i = 0; i < count; i++) {
+            while (bits < bitWidth) {
+                buffer = (buffer << Byte.SIZE) | (packed[pos++] & 0xFF);
+                bits += Byte.SIZE;
+            }
+            bits -= bitWidth;
+            values[i] = (int) (buffer >>> bits) & mask;
+        }
+        return values;
+    }
+
+    static boolean isPacked(byte[] payload) {
+        return payload.length > 0 && payload[0] == FORMAT_PACKED;
+    }
+
+    static boolean isBlock(byte[] payload) {
+        return payload.length > 0 && payload[0] == FORMAT_BLOCK;
+    }
+
+    static boolean isPassphrase(byte[] payload) {
+        return payload.length > 0 && payload[0] == FORMAT_PASSPHRASE;
+    }
+
+    // count of values, of a block or passphrase payload its size
+    static int blockSize(byte[] packed) {
+        return unsignedShort(packed, 2);
+    }
+
+    static int blockLength(byte[] block) {
+        return unsignedShort(block, 4);
+    }
+
+    static int blockStart(byte[] block) {
+        return unsignedShort(block, 6);
+    }
+
+    static int wordCount(byte[] passphrase) {
+        return getInt(passphrase, 8);
+    }
+
+    static int wordlistChecksum(byte[] passphrase) {
+        return getInt(passphrase, 12);
+    }
+
+    static char separator(byte[] passphrase) {
+        return (char) unsignedShort(passphrase, 16);
+    }
+
+    private static int unsignedShort(byte[] packed, int pos) {
+        if (packed.length < pos + 2) {
+            throw new IllegalArgumentException("Packed indexes are truncated");
+        }
+        return ((packed[pos] & 0xFF) << 8) | (packed[pos + 1] & 0xFF);
+    }
+
+    private static int getInt(byte[] packed, int pos) {
+        return (unsignedShort(packed, pos) << 16) | unsignedShort(packed, pos + 2);
+    }
+
+    private static int packedLength(int count, int bitWidth) {
+        return (int) (((long) count * bitWidth + Byte.SIZE - 1) / Byte.SIZE);
+    }
+}
@@ -0,0 +1,139 @@
+package com.sam.key.manager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps the lines of a reader in parallel and writes the results in input order, one output line per input line.
+ * At most {@code window} lines are in flight, reading blocks until the oldest one is written, so memory stays
+ * bounded regardless of the input size.
+ * <p>
+ * A line whose function throws gets an empty output line, keeping output lines aligned with input lines, and is
+ * reported to the {@link FailureHandler} with its line number. Failures never abort the run.
+ */
+public class OrderedLineProcessor implements AutoCloseable {
+
+    private final ExecutorService pool;
+    private final int window;
+
+    public OrderedLineProcessor(int parallelism) {
+        this(parallelism, 4 * parallelism);
+    }
+
+    public OrderedLineProcessor(int parallelism, int window) {
+        if (parallelism < 1 || window < 1) {
+            throw new IllegalArgumentException("Parallelism and window must be positive");
+        }
+        this.window = window;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "line-processor-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Processes all lines of {@code in}. Failures are reported on the calling thread in line order.
+     */
+    public Result process(BufferedReader in, Writer out, LineFunction function, FailureHandler onFailure) throws IOException {
+        Deque<Future<Outcome>> pending = new ArrayDeque<>(window);
+        Result result = new Result();
+        long lineNumber = 0;
+        String line;
+        try {
+            while ((line = in.readLine()) != null) {
+                if (pending.size() == window) {
+                    write(pending.poll(), out, onFailure, result);
+                }
+                long number = ++lineNumber;
+                String input = line;
+                pending.add(pool.submit(() -> Outcome.of(number, input, function)));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll(), out, onFailure, result);
+            }
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+        }
+        out.flush();
+        return result;
+    }
+
+    private void write(Future<Outcome> future, Writer out, FailureHandler onFailure, Result result) throws IOException {
+        Outcome outcome;
+        try {
+            outcome = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted on line processing");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Issue occurred on line processing", e.getCause());
+        }
+        result.lines++;
+        if (outcome.failure != null) {
+            result.failures++;
+            onFailure.onFailure(outcome.lineNumber, outcome.failure);
+        } else if (outcome.value != null) {
+            out.write(outcome.value);
+        }
+        out.write('\n');
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface LineFunction {
+        String apply(long lineNumber, String line) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface FailureHandler {
+        void onFailure(long lineNumber, Exception failure);
+    }
+
+    public static final class Result {
+        private long lines;
+        private long failures;
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+    }
+
+    private static final class Outcome {
+        private final long lineNumber;
+        private final String value;
+        private final Exception failure;
+
+        private Outcome(long lineNumber, String value, Exception failure) {
+            this.lineNumber = lineNumber;
+            this.value = value;
+            this.failure = failure;
+        }
+
+        static Outcome of(long lineNumber, String line, LineFunction function) {
+            try {
+                return new Outcome(lineNumber, function.apply(lineNumber, line), null);
+            } catch (Exception e) {
+                return new Outcome(lineNumber, null, e);
+            }
+        }
+    }
+}
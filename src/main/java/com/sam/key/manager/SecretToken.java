@@ -0,0 +1,39 @@
+package com.sam.key.manager;
+
+import java.util.Arrays;
+
+/**
+ * Token and password of a generation, the password kept as {@code char[]} so it can be wiped after use instead
+ * of lingering as immutable String until garbage collection. The token is cipher text and not secret.
+ */
+public final class SecretToken implements AutoCloseable {
+
+    private final String token;
+    private final char[] pw;
+
+    SecretToken(String token, char[] pw) {
+        this.token = token;
+        this.pw = pw;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Password of the token, the returned array is owned by this instance and wiped on {@link #close()}.
+     */
+    public char[] getPw() {
+        return pw;
+    }
+
+    @Override
+    public void close() {
+        Arrays.fill(pw, '\0');
+    }
+
+    @Override
+    public String toString() {
+        return "SecretToken{token='" + token + "'}";
+    }
+}
@@ -0,0 +1,899 @@
+package com.sam.key.manager;
+
+import com.sam.key.breach.BreachedHashes;
+import com.sam.key.cipher.DerivedSecretCache;
+import com.sam.key.cipher.KeySession;
+import com.sam.key.cipher.RandomPool;
+import com.sam.key.metrics.Metrics;
+import com.sam.key.metrics.Phase;
+import com.sam.key.wordlist.Wordlist;
+import org.apache.commons.math3.random.MersenneTwister;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Stateless token generation and retrieval engine. All inputs are passed as parameters, the only instance state
+ * is the immutable reference alphabet, character policy, wordlist and breached hash file, so one engine can be shared
+ * by any number of threads without locking.
+ * <p>
+ * The alphabet of a pin is derived from the reference alphabet: it is first permuted by the pin digits
+ * ({@link #convertCharToLong(char[])}) and then by the pin itself. This is the same alphabet the interactive
+ * {@link Generator} arrives at for a single pin, so tokens of both are interchangeable. Alphabet, password hash and
+ * shift value are kept in the {@link DerivedSecretCache} of the {@link KeySession}, repeated operations of one
+ * session and pin derive them once.
+ */
+public final class TokenEngine {
+
+    public static final String TOKEN = "token";
+    public static final String PW = "pw";
+    // longest PW of the fixed obfuscation array, longer ones get an obfuscation block sized to them
+    public static final int MAX_ARRAY_PW_LENGTH = Generator.OBFUSCATION_ARRAY_SIZE - (Generator.OBFUSCATION_OFFSET + 2);
+    static final int MIN_BLOCK_SIZE = 128;
+    static final int MAX_BLOCK_SIZE = 1 << 13;
+    public static final int MAX_PW_LENGTH = MAX_BLOCK_SIZE - Generator.OBFUSCATION_OFFSET;
+    public static final int MAX_PASSPHRASE_WORDS = 1024;
+    static final int MIN_PASSPHRASE_BLOCK_SIZE = 32;
+    // draws of a PW before giving up on finding one outside the breached hash file
+    static final int MAX_BREACH_ATTEMPTS = 32;
+    private static final int BYTE = 8;
+    private static final String ALPHABET_KIND = "alphabet";
+    private static final String PW_HASH_KIND = "pwHash";
+    private static final String SHIFT_KIND = "shift";
+    private static final ThreadLocal<MessageDigest> SHA3 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA3-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadLocal<MersenneTwister> TWISTER = ThreadLocal.withInitial(MersenneTwister::new);
+
+    private final char[] referenceAlphabet;
+    // derived alphabets are only valid for the reference alphabet they were derived from
+    private final String alphabetContext;
+    private final CharacterPolicy policy;
+    private final Wordlist wordlist;
+    private final BreachedHashes breachedHashes;
+
+    public TokenEngine(char[] referenceAlphabet) {
+        this(referenceAlphabet, CharacterPolicy.NONE, null, null);
+    }
+
+    private TokenEngine(char[] referenceAlphabet, CharacterPolicy policy, Wordlist wordlist, BreachedHashes breachedHashes) {
+        this.referenceAlphabet = referenceAlphabet.clone();
+        this.alphabetContext = new String(referenceAlphabet);
+        this.policy = policy;
+        this.wordlist = wordlist;
+        this.breachedHashes = breachedHashes;
+    }
+
+    public char[] getReferenceAlphabet() {
+        return referenceAlphabet.clone();
+    }
+
+    /**
+     * Engine of the reference alphabet without {@code filteredCharacters}, the alphabet of
+     * {@link Generator#Generator(String)}.
+     */
+    public TokenEngine withoutCharacters(String filteredCharacters) {
+        if (filteredCharacters.isEmpty()) {
+            return this;
+        }
+        return new TokenEngine(CharacterPolicy.NONE.excluding(filteredCharacters).filter(referenceAlphabet), policy, wordlist, breachedHashes);
+    }
+
+    /**
+     * Engine generating PWs of {@code policy}. Retrieval does not depend on the policy, its tokens are retrieved
+     * by any engine of the same reference alphabet.
+     */
+    public TokenEngine withPolicy(CharacterPolicy policy) {
+        return new TokenEngine(referenceAlphabet, policy, wordlist, breachedHashes);
+    }
+
+    public CharacterPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Engine generating passphrases of {@code wordlist} and retrieving them, null if none.
+     */
+    public TokenEngine withWordlist(Wordlist wordlist) {
+        return new TokenEngine(referenceAlphabet, policy, wordlist, breachedHashes);
+    }
+
+    public Wordlist getWordlist() {
+        return wordlist;
+    }
+
+    /**
+     * Engine redrawing generated PWs found in {@code breachedHashes}, null to skip the check.
+     */
+    public TokenEngine withBreachedHashes(BreachedHashes breachedHashes) {
+        return new TokenEngine(referenceAlphabet, policy, wordlist, breachedHashes);
+    }
+
+    public BreachedHashes getBreachedHashes() {
+        return breachedHashes;
+    }
+
+    public Map<String, String> generate(int length, long pin, String encryptionPw) throws GeneralSecurityException {
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            return generate(length, pin, session);
+        }
+    }
+
+    /**
+     * Generates a password of the given length and its token, keyed by {@link #TOKEN} and {@link #PW}.
+     */
+    public Map<String, String> generate(int length, long pin, KeySession session) throws GeneralSecurityException {
+        try (SecretToken secretToken = generateSecret(length, pin, session)) {
+            return Map.of(TOKEN, secretToken.getToken(), PW, new String(secretToken.getPw()));
+        }
+    }
+
+    /**
+     * Generates a password of the given length and its token without an intermediate String of the password,
+     * every derived array is wiped before returning. The caller closes the result to wipe the password.
+     * A password found in the breached hash file is redrawn.
+     *
+     * @throws IllegalArgumentException if no password of the length outside the breached hash file is drawn
+     */
+    public SecretToken generateSecret(int length, long pin, KeySession session) throws GeneralSecurityException {
+        if (length > MAX_PW_LENGTH) {
+            throw new IllegalArgumentException("Password too long, lower password max-length to max: " + MAX_PW_LENGTH);
+        }
+        long start = Metrics.start();
+        char[] alphabet = session.derivedSecrets().getChars(ALPHABET_KIND, pin, alphabetContext, () -> alphabetFor(pin));
+        int[] indexes = null;
+        int[] obfuscatedIndexes = null;
+        byte[] payload = null;
+        char[] pw = null;
+        try {
+            CharacterPolicy.Table table = policy.isUnrestricted() ? null : policy.compile(alphabet);
+            for (int attempt = 1; pw == null; attempt++) {
+                indexes = table == null ? generateIndexes(length, alphabet.length) : table.generateIndexes(length);
+                pw = charsByIndexes(indexes, alphabet);
+                if (breachedHashes != null && breachedHashes.contains(pw)) {
+                    Arrays.fill(pw, '\0');
+                    Arrays.fill(indexes, 0);
+                    pw = null;
+                    if (attempt == MAX_BREACH_ATTEMPTS) {
+                        throw new IllegalArgumentException("No PW of length " + length + " outside the breached hashes in " + attempt + " attempts");
+                    }
+                }
+            }
+            if (length > MAX_ARRAY_PW_LENGTH) {
+                int blockSize = blockSizeOf(length);
+                payload = obfuscateBlock(indexes, blockShiftValue(pin, session, blockSize), blockSize);
+            } else {
+                obfuscatedIndexes = obfuscateIndexes(indexes, shiftValue(pin, session));
+                payload = IndexCodec.encode(obfuscatedIndexes);
+            }
+            SecretToken secretToken = new SecretToken(session.encrypt(payload), pw);
+            pw = null;
+            return secretToken;
+        } finally {
+            Arrays.fill(alphabet, '\0');
+            if (pw != null) {
+                Arrays.fill(pw, '\0');
+            }
+            if (indexes != null) {
+                Arrays.fill(indexes, 0);
+            }
+            if (obfuscatedIndexes != null) {
+                Arrays.fill(obfuscatedIndexes, 0);
+            }
+            if (payload != null) {
+                Arrays.fill(payload, (byte) 0);
+            }
+            Metrics.stop(Phase.GENERATE, start);
+        }
+    }
+
+    public Map<String, String> generatePassphrase(int words, char separator, long pin, KeySession session) throws GeneralSecurityException {
+        try (SecretToken secretToken = generatePassphraseSecret(words, separator, pin, session)) {
+            return Map.of(TOKEN, secretToken.getToken(), PW, new String(secretToken.getPw()));
+        }
+    }
+
+    /**
+     * Generates a passphrase of {@code words} words of the wordlist drawn uniformly and its token. The token carries
+     * the word indexes in the obfuscation scheme of PW tokens, is retrieved like them and only with the same
+     * wordlist.
+     *
+     * @throws IllegalStateException if the engine has no wordlist
+     */
+    public SecretToken generatePassphraseSecret(int words, char separator, long pin, KeySession session) throws GeneralSecurityException {
+        if (wordlist == null) {
+            throw new IllegalStateException("No wordlist to generate passphrases of");
+        }
+        if (words < 1 || words > MAX_PASSPHRASE_WORDS) {
+            throw new IllegalArgumentException("Word count must be in [1, " + MAX_PASSPHRASE_WORDS + "]: " + words);
+        }
+        long start = Metrics.start();
+        int[] indexes = RandomPool.ints(new int[words], 0, wordlist.size());
+        byte[] payload = null;
+        try {
+            int blockSize = passphraseBlockSizeOf(words);
+            payload = obfuscatePassphrase(indexes, blockShiftValue(pin, session, wordlist.size()), blockShiftValue(pin, session, blockSize), blockSize, separator);
+            return new SecretToken(session.encrypt(payload), wordsByIndexes(indexes, wordlist, separator));
+        } finally {
+            Arrays.fill(indexes, 0);
+            if (payload != null) {
+                Arrays.fill(payload, (byte) 0);
+            }
+            Metrics.stop(Phase.GENERATE, start);
+        }
+    }
+
+    public String retrieve(String token, long pin, String encryptionPw) throws GeneralSecurityException {
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            return retrieve(token, pin, session);
+        }
+    }
+
+    /**
+     * Retrieves the password of a v1, v2 or v3 token, with packed or legacy textual indexes.
+     *
+     * @throws GeneralSecurityException on a wrong password or a manipulated token
+     * @throws IllegalArgumentException on a malformed token
+     */
+    public String retrieve(String token, long pin, KeySession session) throws GeneralSecurityException {
+        char[] pw = retrieveChars(token, pin, session);
+        try {
+            return new String(pw);
+        } finally {
+            Arrays.fill(pw, '\0');
+        }
+    }
+
+    /**
+     * {@link #retrieve(String, long, KeySession)} without an intermediate String, every derived array is wiped
+     * before returning. The caller owns and wipes the returned password.
+     */
+    public char[] retrieveChars(String token, long pin, KeySession session) throws GeneralSecurityException {
+        long start = Metrics.start();
+        byte[] payload = session.decrypt(token);
+        int[] obfuscatedIndexes = null;
+        int[] indexes = null;
+        char[] alphabet = null;
+        try {
+            if (IndexCodec.isPassphrase(payload)) {
+                Wordlist words = wordlistOf(payload);
+                indexes = clearBlock(payload, blockShiftValue(pin, session, words.size()), words.size(),
+                        blockShiftValue(pin, session, IndexCodec.blockSize(payload)));
+                return wordsByIndexes(indexes, words, IndexCodec.separator(payload));
+            }
+            if (IndexCodec.isBlock(payload)) {
+                indexes = clearBlock(payload, blockShiftValue(pin, session, IndexCodec.blockSize(payload)));
+            } else {
+                obfuscatedIndexes = IndexCodec.decode(payload);
+                indexes = clearObfuscatedIndexes(obfuscatedIndexes, shiftValue(pin, session));
+            }
+            alphabet = session.derivedSecrets().getChars(ALPHABET_KIND, pin, alphabetContext, () -> alphabetFor(pin));
+            return charsByIndexes(indexes, alphabet);
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+            if (obfuscatedIndexes != null) {
+                Arrays.fill(obfuscatedIndexes, 0);
+            }
+            if (indexes != null) {
+                Arrays.fill(indexes, 0);
+            }
+            if (alphabet != null) {
+                Arrays.fill(alphabet, '\0');
+            }
+            Metrics.stop(Phase.RETRIEVE, start);
+        }
+    }
+
+    /**
+     * Token of the same PW under the password of {@code to}: the obfuscated indexes of {@code token} are decrypted
+     * in {@code from}, moved from the shift value of its password to the one of {@code to} and encrypted in
+     * {@code to}. The token must be of the reference alphabet of this engine.
+     * <p>
+     * The shift value depends on the pin, a wrong pin yields a token of a different PW. The cleared layout is
+     * therefore validated completely before it is shifted again: length, start and position of the length, and
+     * the range of every value. A wrong pin passes all of them only by chance, so callers must know the pin of
+     * every token instead of relying on the validation.
+     *
+     * @throws GeneralSecurityException if {@code token} does not decrypt in {@code from}
+     * @throws IllegalArgumentException if the cleared layout does not match pin and password
+     */
+    public String reencrypt(String token, long pin, KeySession from, KeySession to) throws GeneralSecurityException {
+        byte[] payload = from.decrypt(token);
+        int[] obfuscatedIndexes = null;
+        byte[] rotated = null;
+        try {
+            if (IndexCodec.isBlock(payload) || IndexCodec.isPassphrase(payload)) {
+                rotated = reshiftBlock(payload, pin, from, to);
+                return to.encrypt(rotated);
+            }
+            obfuscatedIndexes = IndexCodec.decode(payload);
+            if (obfuscatedIndexes.length != Generator.OBFUSCATION_ARRAY_SIZE) {
+                throw new IllegalArgumentException("Unexpected obfuscated index count: " + obfuscatedIndexes.length);
+            }
+            int fromShift = shiftValue(pin, from);
+            int toShift = shiftValue(pin, to);
+            for (int i = 0; i < obfuscatedIndexes.length; i++) {
+                obfuscatedIndexes[i] = unShiftValue(obfuscatedIndexes[i], fromShift);
+            }
+            requireArrayLayout(obfuscatedIndexes, alphabetLength(pin, from));
+            for (int i = 0; i < obfuscatedIndexes.length; i++) {
+                obfuscatedIndexes[i] = shiftValue(obfuscatedIndexes[i], toShift);
+            }
+            rotated = IndexCodec.encode(obfuscatedIndexes);
+            return to.encrypt(rotated);
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+            if (obfuscatedIndexes != null) {
+                Arrays.fill(obfuscatedIndexes, 0);
+            }
+            if (rotated != null) {
+                Arrays.fill(rotated, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Starts the password-only work of generating tokens in {@code session} on background threads: the master key
+     * of new tokens and the hash of the password. Generation later joins it instead of starting from scratch.
+     */
+    public static CompletableFuture<Void> prewarm(KeySession session) {
+        return CompletableFuture.allOf(session.prewarm(), CompletableFuture.runAsync(() -> pwHash(session)));
+    }
+
+    // retrieval of token, the master key of its salt instead of the one of new tokens
+    public static CompletableFuture<Void> prewarm(KeySession session, String token) {
+        return CompletableFuture.allOf(session.prewarm(token), CompletableFuture.runAsync(() -> pwHash(session)));
+    }
+
+    // shift value of pin and session password, both cached by the session
+    static int shiftValue(long pin, KeySession session) {
+        long pwHash = pwHash(session);
+        return (int) session.derivedSecrets().getLong(SHIFT_KIND, pin, "", () -> provideShiftValue(pin + pwHash));
+    }
+
+    // shift value over the values of a block of blockSize
+    static int blockShiftValue(long pin, KeySession session, int blockSize) {
+        long pwHash = pwHash(session);
+        return (int) session.derivedSecrets().getLong(SHIFT_KIND, pin, String.valueOf(blockSize), () -> provideShiftValue(pin + pwHash, blockSize));
+    }
+
+    // payload of the block or passphrase layout to re-shift, the values of a passphrase modulo its wordlist size
+    private byte[] reshiftBlock(byte[] payload, long pin, KeySession from, KeySession to) {
+        int[] block = IndexCodec.unpack(payload);
+        try {
+            boolean passphrase = IndexCodec.isPassphrase(payload);
+            int modulus = passphrase ? IndexCodec.wordCount(payload) : block.length;
+            if (modulus < 1) {
+                throw new IllegalArgumentException("Obfuscated indexes do not match pin and password");
+            }
+            int fromShift = blockShiftValue(pin, from, block.length);
+            int toShift = blockShiftValue(pin, to, block.length);
+            int fromValueShift = blockShiftValue(pin, from, modulus);
+            int toValueShift = blockShiftValue(pin, to, modulus);
+            int length = unShiftValue(IndexCodec.blockLength(payload), fromShift, block.length);
+            int start = unShiftValue(IndexCodec.blockStart(payload), fromShift, block.length);
+            for (int i = 0; i < block.length; i++) {
+                block[i] = unShiftValue(block[i], fromValueShift, modulus);
+            }
+            if (passphrase) {
+                requirePassphraseLayout(block.length, length, start);
+            } else {
+                requireBlockLayout(block, length, start, alphabetLength(pin, from));
+            }
+            for (int i = 0; i < block.length; i++) {
+                block[i] = shiftValue(block[i], toValueShift, modulus);
+            }
+            return IndexCodec.reencodeBlock(payload, block, shiftValue(length, toShift, block.length), shiftValue(start, toShift, block.length));
+        } finally {
+            Arrays.fill(block, 0);
+        }
+    }
+
+    /**
+     * Throws unless {@code array} is the cleared layout of {@link #obfuscateIndexes(int[], int)}: the position of
+     * the length outside the reserved slots and the PW, the PW within the array, its indexes within the alphabet
+     * of the pin and every other value within the noise range of the reference alphabet.
+     */
+    private void requireArrayLayout(int[] array, int alphabetLength) {
+        int lengthIndex = array[0];
+        int start = array[1];
+        if (lengthIndex < Generator.RESERVED_ARRAY_INDEXES || lengthIndex >= array.length) {
+            throw layoutMismatch();
+        }
+        int length = array[lengthIndex];
+        if (length > MAX_ARRAY_PW_LENGTH || start < Generator.RESERVED_ARRAY_INDEXES || start + length > array.length
+                || (lengthIndex >= start && lengthIndex < start + length)) {
+            throw layoutMismatch();
+        }
+        for (int i = Generator.RESERVED_ARRAY_INDEXES; i < array.length; i++) {
+            boolean pw = i >= start && i < start + length;
+            // noise is drawn from [0, reference alphabet length], both ends included
+            if (i != lengthIndex && array[i] >= (pw ? alphabetLength : referenceAlphabet.length + 1)) {
+                throw layoutMismatch();
+            }
+        }
+    }
+
+    // cleared block layout of obfuscateBlock, the block size follows from the PW length
+    private void requireBlockLayout(int[] block, int length, int start, int alphabetLength) {
+        if (length <= MAX_ARRAY_PW_LENGTH || blockSizeOf(length) != block.length || start + length > block.length) {
+            throw layoutMismatch();
+        }
+        for (int i = 0; i < block.length; i++) {
+            if (block[i] >= (i >= start && i < start + length ? alphabetLength : referenceAlphabet.length)) {
+                throw layoutMismatch();
+            }
+        }
+    }
+
+    // cleared passphrase layout, every value modulo the wordlist size is a word so only the positions tell
+    private static void requirePassphraseLayout(int blockSize, int words, int start) {
+        if (words < 1 || words > MAX_PASSPHRASE_WORDS || passphraseBlockSizeOf(words) != blockSize || start + words > blockSize) {
+            throw layoutMismatch();
+        }
+    }
+
+    private static IllegalArgumentException layoutMismatch() {
+        return new IllegalArgumentException("Obfuscated indexes do not match pin and password");
+    }
+
+    // length of the alphabet of pin, PW indexes are below it
+    private int alphabetLength(long pin, KeySession session) {
+        char[] alphabet = session.derivedSecrets().getChars(ALPHABET_KIND, pin, alphabetContext, () -> alphabetFor(pin));
+        Arrays.fill(alphabet, '\0');
+        return alphabet.length;
+    }
+
+    // wordlist of the engine if it is the one the passphrase was composed of
+    private Wordlist wordlistOf(byte[] passphrase) {
+        if (wordlist == null) {
+            throw new IllegalArgumentException("Passphrase token needs a wordlist to be retrieved");
+        }
+        if (wordlist.size() != IndexCodec.wordCount(passphrase) || wordlist.getChecksum() != IndexCodec.wordlistChecksum(passphrase)) {
+            throw new IllegalArgumentException("Passphrase token of another wordlist than " + wordlist.getPath());
+        }
+        return wordlist;
+    }
+
+    private static long pwHash(KeySession session) {
+        return session.derivedSecrets().getLong(PW_HASH_KIND, 0L, "", () -> transformPwToHashedLong(session.getPassword()));
+    }
+
+    char[] alphabetFor(long pin) {
+        long start = Metrics.start();
+        char[] alphabet = randomizeAlphabet(convertPinToLong(pin), referenceAlphabet);
+        permute(alphabet, mersenneTwister(pin));
+        alphabet = removeSeparators(alphabet);
+        Metrics.stop(Phase.ALPHABET, start);
+        return alphabet;
+    }
+
+    static String generateByIndexes(int[] indexes, char[] alphabet) {
+        char[] pw = charsByIndexes(indexes, alphabet);
+        try {
+            return new String(pw);
+        } finally {
+            Arrays.fill(pw, '\0');
+        }
+    }
+
+    static char[] charsByIndexes(int[] indexes, char[] alphabet) {
+        char[] pw = new char[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            int index = indexes[i];
+            if (index < 0 || index >= alphabet.length) {
+                Arrays.fill(pw, '\0');
+                throw new IllegalArgumentException("Index out of alphabet range: " + index);
+            }
+            pw[i] = alphabet[index];
+        }
+        return pw;
+    }
+
+    static long convertCharToLong(char[] pwd) {
+        return convertCharToLong(pwd, 0);
+    }
+
+    private static long convertCharToLong(char[] pwd, int from) {
+        long pwdConverted = 0;
+        for (int i = from; i < pwd.length; i++) {
+            pwdConverted += Character.getNumericValue(pwd[i]);
+            pwdConverted *= pwdConverted;
+        }
+        return pwdConverted;
+    }
+
+    // convertCharToLong of the decimal digits of the pin, sign included, without building a String of the pin
+    static long convertPinToLong(long pin) {
+        long converted = 0;
+        if (pin < 0) {
+            converted += Character.getNumericValue('-');
+            converted *= converted;
+        }
+        // negative digits, so Long.MIN_VALUE needs no special case
+        long rest = pin < 0 ? pin : -pin;
+        long divisor = 1;
+        while (rest / divisor <= -10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            converted += -((rest / divisor) % 10);
+            converted *= converted;
+        }
+        return converted;
+    }
+
+    static char[] randomizeAlphabet(long seed, char[] alphabet) {
+        char[] arr = alphabet.clone();
+        permute(arr, mersenneTwister(seed));
+        return removeSeparators(arr);
+    }
+
+    /**
+     * In place Fisher–Yates shuffle. Draws exactly the {@link MersenneTwister#nextInt(int)} sequence of
+     * {@link Generator#shuffle(java.util.List, MersenneTwister)}, so permutations and therefore tokens are
+     * identical to the former boxed list shuffle.
+     */
+    static void permute(char[] arr, MersenneTwister rnd) {
+        for (int i = arr.length; i > 1; i--) {
+            int j = rnd.nextInt(i);
+            char tmp = arr[i - 1];
+            arr[i - 1] = arr[j];
+            arr[j] = tmp;
+        }
+    }
+
+    static void permute(int[] arr, MersenneTwister rnd) {
+        for (int i = arr.length; i > 1; i--) {
+            int j = rnd.nextInt(i);
+            int tmp = arr[i - 1];
+            arr[i - 1] = arr[j];
+            arr[j] = tmp;
+        }
+    }
+
+    // reseeds the twister of the calling thread, identical to a new MersenneTwister(seed) without allocating its state
+    static MersenneTwister mersenneTwister(long seed) {
+        MersenneTwister rnd = TWISTER.get();
+        rnd.setSeed(seed);
+        return rnd;
+    }
+
+    // the former List#toString based conversion dropped ',' and ' ', kept for token compatibility
+    static char[] removeSeparators(char[] arr) {
+        int count = 0;
+        for (char c : arr) {
+            if (c != ',' && c != ' ') {
+                count++;
+            }
+        }
+        if (count == arr.length) {
+            return arr;
+        }
+        char[] stripped = new char[count];
+        int i = 0;
+        for (char c : arr) {
+            if (c != ',' && c != ' ') {
+                stripped[i++] = c;
+            }
+        }
+        return stripped;
+    }
+
+    static int[] generateIndexes(int length, int alphabetLength) {
+        long start = Metrics.start();
+        int[] indexes = RandomPool.ints(new int[length], 0, alphabetLength);
+        Metrics.stop(Phase.INDEX_GENERATION, start);
+        return indexes;
+    }
+
+    // handles only positive integers, max is exclusive
+    static int generateRandomNumber(int min, int max) {
+        return RandomPool.nextInt(min, max);
+    }
+
+    // only deals with positive integers, max is inclusive
+    static int provideSecureRandomInteger(int min, int max) {
+        return RandomPool.nextInt(min, max + 1);
+    }
+
+    int[] obfuscateIndexes(int[] indexes, long pin, long pwHash) {
+        return obfuscateIndexes(indexes, provideShiftValue(pin + pwHash));
+    }
+
+    int[] obfuscateIndexes(int[] indexes, int shiftValue) {
+        int pwLength = indexes.length;
+        int[] obfuscatedIndexes = new int[Generator.OBFUSCATION_ARRAY_SIZE];
+        int min = Generator.RESERVED_ARRAY_INDEXES;
+        int max = Generator.OBFUSCATION_ARRAY_SIZE - pwLength;
+        boolean obfuscationOffsetTooLong = (Generator.OBFUSCATION_ARRAY_SIZE - (pwLength + 1)) <= Generator.OBFUSCATION_OFFSET;
+        boolean alphabetPWLengthCritical = max <= min;
+        if (obfuscationOffsetTooLong || alphabetPWLengthCritical) {
+            throw new IllegalArgumentException("Password too long, lower password max-length to max: " + (Generator.OBFUSCATION_ARRAY_SIZE - (Generator.OBFUSCATION_OFFSET + 2)));
+        }
+        long start = Metrics.start();
+        int arrayStartIndex = provideSecureRandomInteger(min, max);
+        obfuscatedIndexes[1] = arrayStartIndex;
+        System.arraycopy(indexes, 0, obfuscatedIndexes, arrayStartIndex, indexes.length);
+        int[] remainingIndexes = provideRemainingIndexes(arrayStartIndex, pwLength);
+        int random = provideSecureRandomInteger(0, remainingIndexes.length - 1);
+        obfuscatedIndexes[0] = remainingIndexes[random];
+        obfuscatedIndexes[obfuscatedIndexes[0]] = pwLength;
+        fillEmptySpotsInObfuscatedArray(obfuscatedIndexes, remainingIndexes, referenceAlphabet.length);
+        for (int i = 0; i < obfuscatedIndexes.length; i++) {
+            obfuscatedIndexes[i] = shiftValue(obfuscatedIndexes[i], shiftValue);
+        }
+        Metrics.stop(Phase.OBFUSCATE, start);
+        return obfuscatedIndexes;
+    }
+
+    static int[] clearObfuscatedIndexes(int[] obfuscatedIndexes, long pin, long pwHash) {
+        return clearObfuscatedIndexes(obfuscatedIndexes, provideShiftValue(pin + pwHash));
+    }
+
+    static int[] clearObfuscatedIndexes(int[] obfuscatedIndexes, int shiftValue) {
+        if (obfuscatedIndexes.length != Generator.OBFUSCATION_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Unexpected obfuscated index count: " + obfuscatedIndexes.length);
+        }
+        long begin = Metrics.start();
+        int lengthIndex = unShiftValue(obfuscatedIndexes[0], shiftValue);
+        int length = unShiftValue(obfuscatedIndexes[lengthIndex], shiftValue);
+        int start = unShiftValue(obfuscatedIndexes[1], shiftValue);
+        if (start + length > obfuscatedIndexes.length) {
+            throw new IllegalArgumentException("Obfuscated indexes do not match pin and password");
+        }
+        int[] clearIndexes = new int[length];
+        for (int i = 0; i < clearIndexes.length; i++) {
+            clearIndexes[i] = unShiftValue(obfuscatedIndexes[(i + start)], shiftValue);
+        }
+        Metrics.stop(Phase.CLEAR_INDEXES, begin);
+        return clearIndexes;
+    }
+
+    // smallest power of two leaving OBFUSCATION_OFFSET values of noise, the block size reveals the PW length only roughly
+    static int blockSizeOf(int pwLength) {
+        return Math.max(MIN_BLOCK_SIZE, Integer.highestOneBit(pwLength + Generator.OBFUSCATION_OFFSET - 1) << 1);
+    }
+
+    /**
+     * Block layout of PWs longer than {@link #MAX_ARRAY_PW_LENGTH}: the indexes at a random start of a block of
+     * random alphabet indexes, every value, length and start shifted modulo the block size. Takes one pass over the
+     * block, there are no reserved slots to skip.
+     */
+    byte[] obfuscateBlock(int[] indexes, int shiftValue, int blockSize) {
+        long begin = Metrics.start();
+        int[] block = RandomPool.ints(new int[blockSize], 0, referenceAlphabet.length);
+        try {
+            int start = provideSecureRandomInteger(0, blockSize - indexes.length);
+            System.arraycopy(indexes, 0, block, start, indexes.length);
+            for (int i = 0; i < block.length; i++) {
+                block[i] = shiftValue(block[i], shiftValue, blockSize);
+            }
+            return IndexCodec.encodeBlock(block, shiftValue(indexes.length, shiftValue, blockSize), shiftValue(start, shiftValue, blockSize));
+        } finally {
+            Arrays.fill(block, 0);
+            Metrics.stop(Phase.OBFUSCATE, begin);
+        }
+    }
+
+    static int[] clearBlock(byte[] payload, int shiftValue) {
+        return clearBlock(payload, shiftValue, IndexCodec.blockSize(payload), shiftValue);
+    }
+
+    // values shifted modulo valueModulus, length and start modulo the block size
+    static int[] clearBlock(byte[] payload, int valueShift, int valueModulus, int positionShift) {
+        int[] block = IndexCodec.unpack(payload);
+        long begin = Metrics.start();
+        try {
+            int length = unShiftValue(IndexCodec.blockLength(payload), positionShift, block.length);
+            int start = unShiftValue(IndexCodec.blockStart(payload), positionShift, block.length);
+            if (start + length > block.length || valueModulus < 1) {
+                throw new IllegalArgumentException("Obfuscated indexes do not match pin and password");
+            }
+            int[] clearIndexes = new int[length];
+            for (int i = 0; i < length; i++) {
+                clearIndexes[i] = unShiftValue(block[start + i], valueShift, valueModulus);
+            }
+            return clearIndexes;
+        } finally {
+            Arrays.fill(block, 0);
+            Metrics.stop(Phase.CLEAR_INDEXES, begin);
+        }
+    }
+
+    static int passphraseBlockSizeOf(int words) {
+        return Math.max(MIN_PASSPHRASE_BLOCK_SIZE, Integer.highestOneBit(words + Generator.OBFUSCATION_OFFSET - 1) << 1);
+    }
+
+    /**
+     * Passphrase layout: word indexes at a random start of a block of random word indexes, the indexes shifted
+     * modulo the wordlist size and length and start modulo the block size.
+     */
+    byte[] obfuscatePassphrase(int[] indexes, int wordShift, int positionShift, int blockSize, char separator) {
+        long begin = Metrics.start();
+        int[] block = RandomPool.ints(new int[blockSize], 0, wordlist.size());
+        try {
+            int start = provideSecureRandomInteger(0, blockSize - indexes.length);
+            System.arraycopy(indexes, 0, block, start, indexes.length);
+            for (int i = 0; i < block.length; i++) {
+                block[i] = shiftValue(block[i], wordShift, wordlist.size());
+            }
+            return IndexCodec.encodePassphrase(block, shiftValue(indexes.length, positionShift, blockSize),
+                    shiftValue(start, positionShift, blockSize), wordlist.size(), wordlist.getChecksum(), separator);
+        } finally {
+            Arrays.fill(block, 0);
+            Metrics.stop(Phase.OBFUSCATE, begin);
+        }
+    }
+
+    // words of the indexes joined by separator, every intermediate word is wiped
+    static char[] wordsByIndexes(int[] indexes, Wordlist wordlist, char separator) {
+        char[][] words = new char[indexes.length][];
+        try {
+            int length = Math.max(0, indexes.length - 1);
+            for (int i = 0; i < indexes.length; i++) {
+                words[i] = wordlist.chars(indexes[i]);
+                length += words[i].length;
+            }
+            char[] passphrase = new char[length];
+            int pos = 0;
+            for (int i = 0; i < words.length; i++) {
+                if (i > 0) {
+                    passphrase[pos++] = separator;
+                }
+                System.arraycopy(words[i], 0, passphrase, pos, words[i].length);
+                pos += words[i].length;
+            }
+            return passphrase;
+        } finally {
+            for (char[] word : words) {
+                if (word != null) {
+                    Arrays.fill(word, '\0');
+                }
+            }
+        }
+    }
+
+    static int[] provideRemainingIndexes(int pwStartIndex, int pwLength) {
+        int size = Generator.OBFUSCATION_ARRAY_SIZE;
+        int reserved = Generator.RESERVED_ARRAY_INDEXES;
+        int beforePwMinIndex = pwStartIndex > reserved ? reserved : -1;
+        int beforePwMaxIndex = pwStartIndex > reserved ? pwStartIndex : -1;
+        int afterPwMinIndex = (pwStartIndex + pwLength) >= size - 1 ? -1 : (pwStartIndex + pwLength);
+        int afterPwMaxIndex = (pwStartIndex + pwLength) >= size - 1 ? -1 : size - 1;
+
+        int remainingIndexesLength = (Math.max(beforePwMaxIndex, 0)) + ((pwStartIndex + pwLength) < (size - 1) ? size - (pwStartIndex + pwLength) : 0) - reserved;
+
+        int[] remainingIndexes = new int[remainingIndexesLength];
+        if (beforePwMaxIndex > 0) {
+            for (int i = 0; i < (beforePwMaxIndex - beforePwMinIndex); i++) {
+                remainingIndexes[i] = beforePwMinIndex + i;
+            }
+        }
+        if (afterPwMaxIndex > 0) {
+            for (int i = (beforePwMaxIndex - beforePwMinIndex); i < remainingIndexes.length; i++) {
+                remainingIndexes[i] = afterPwMinIndex + (i - (beforePwMaxIndex - beforePwMinIndex));
+            }
+        }
+        return remainingIndexes;
+    }
+
+    static int[] fillEmptySpotsInObfuscatedArray(int[] obfuscatedArray, int[] remainingIndexes, int alphabetLength) {
+        int pwLengthIndex = obfuscatedArray[0];
+        if (pwLengthIndex == 0) {
+            throw new IllegalStateException("Pw Length not yet assigned to obfuscated Array");
+        }
+        for (int remainingIndex : remainingIndexes) {
+            if (remainingIndex != pwLengthIndex) {
+                obfuscatedArray[remainingIndex] = provideSecureRandomInteger(0, alphabetLength);
+            }
+        }
+        return obfuscatedArray;
+    }
+
+    // applies surjection with sumDigits, every one of the former sumDigits cycles reseeded the twister with the
+    // same pin and drew the same value, a single draw is equivalent
+    static int provideShiftValue(long pin) {
+        return provideShiftValue(pin, Generator.OBFUSCATION_ARRAY_SIZE);
+    }
+
+    static int provideShiftValue(long pin, int modulus) {
+        long start = Metrics.start();
+        long maskNumber = sumDigits(pin) > 0 ? Math.abs(mersenneTwister(pin).nextLong()) : -1;
+        double p = ((double) maskNumber / (double) Long.MAX_VALUE);
+        int shiftValue = (int) Math.ceil(modulus * p);
+        Metrics.stop(Phase.SHIFT_VALUE, start);
+        return shiftValue;
+    }
+
+    static int sumDigits(long num) {
+        num = Math.abs(num);
+        long sum = 0;
+        while (num > 0) {
+            sum = sum + num % 10;
+            num = num / 10;
+        }
+        return (int) sum;
+    }
+
+    static int shiftValue(int value, int shiftValue) {
+        return shiftValue(value, shiftValue, Generator.OBFUSCATION_ARRAY_SIZE);
+    }
+
+    static int shiftValue(int value, int shiftValue, int modulus) {
+        return (value + shiftValue) % modulus;
+    }
+
+    static int unShiftValue(int value, int shiftValue) {
+        return unShiftValue(value, shiftValue, Generator.OBFUSCATION_ARRAY_SIZE);
+    }
+
+    static int unShiftValue(int value, int shiftValue, int modulus) {
+        int tempIndex = (value - shiftValue) % modulus;
+        return tempIndex < 0 ? tempIndex + modulus : tempIndex;
+    }
+
+    static String base64Encoding(int[] indexes) {
+        return Base64.getEncoder().encodeToString(Arrays.toString(indexes).getBytes(UTF_8));
+    }
+
+    static int[] base64Decoding(String indexes) {
+        return parseStringToIntArr(new String(Base64.getDecoder().decode(indexes), UTF_8));
+    }
+
+    static int[] parseStringToIntArr(String word) {
+        String[] stringIndexes = word.replace("{", "").replace("}", "").replace("[", "").replace("]", "").replace(" ", "").split(",");
+        int[] indexes = new int[stringIndexes.length];
+
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = Integer.parseInt(stringIndexes[i]);
+        }
+        return indexes;
+    }
+
+    static long transformPwToHashedLong(String encryptionPw) {
+        long start = Metrics.start();
+        long pwHash = bytesToLong(SHA3.get().digest(encryptionPw.getBytes(UTF_8)));
+        Metrics.stop(Phase.PW_HASH, start);
+        return pwHash;
+    }
+
+    /**
+     * Same hash as {@link #transformPwToHashedLong(String)}, the UTF-8 bytes and the digest are wiped after use.
+     */
+    static long transformPwToHashedLong(char[] encryptionPw) {
+        long start = Metrics.start();
+        ByteBuffer bytes = UTF_8.encode(CharBuffer.wrap(encryptionPw));
+        MessageDigest sha3 = SHA3.get();
+        sha3.update(bytes.array(), bytes.arrayOffset(), bytes.limit());
+        byte[] digest = sha3.digest();
+        long pwHash = bytesToLong(digest);
+        Arrays.fill(bytes.array(), (byte) 0);
+        Arrays.fill(digest, (byte) 0);
+        Metrics.stop(Phase.PW_HASH, start);
+        return pwHash;
+    }
+
+    static long bytesToLong(byte[] bytes) {
+        long bytesInLong = 0;
+        for (int i = 0; i < BYTE; i++) {
+            bytesInLong <<= BYTE;
+            bytesInLong |= (bytes[i] & 0xFF);
+        }
+        return bytesInLong;
+    }
+}
@@ -0,0 +1,246 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.KeySession;
+import com.sam.key.transfer.TokenTransfer;
+import com.sam.key.vault.TokenVault;
+import com.sam.key.vault.VaultEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Re-encrypts the tokens of a vault under a new encryption password, see
+ * {@link TokenEngine#reencrypt(String, long, KeySession, KeySession)}. Every token keeps its PW, its label,
+ * metadata and creation time.
+ * <p>
+ * Tokens are re-encrypted in parallel and written back in label order. Every {@value #CHECKPOINT_INTERVAL}
+ * tokens the vault is synced and the last written label is recorded in a checkpoint file next to the vault, a
+ * rotation interrupted by a crash resumes after it. A token that was written back but not checkpointed yet no
+ * longer decrypts under the old password, on resume it is recognized by decrypting under the new one and skipped.
+ * <p>
+ * The shift values of a token depend on its pin, so the pin of every label is passed and labels of an unknown pin
+ * are left untouched. Before the first token is touched the vault is exported to a backup file next to it. Tokens
+ * failing to decrypt under either password, or whose indexes do not match their pin, are left as they are and
+ * reported, the run continues.
+ */
+public class TokenRotation implements AutoCloseable {
+
+    public static final String CHECKPOINT_SUFFIX = ".rotation";
+    public static final String BACKUP_SUFFIX = ".pre-rotation.jsonl";
+    static final int CHECKPOINT_INTERVAL = 256;
+    private static final Logger log = LoggerFactory.getLogger(TokenRotation.class);
+
+    private final TokenEngine engine;
+    private final ExecutorService pool;
+    private final int window;
+
+    /**
+     * @param engine engine of the reference alphabet of the tokens, entries with an alphabet filter are rotated by
+     *               the engine without those characters
+     */
+    public TokenRotation(TokenEngine engine, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.engine = engine;
+        this.window = 4 * parallelism;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "token-rotation-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static Path checkpointOf(TokenVault vault) {
+        return vault.getPath().resolveSibling(vault.getPath().getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    public static Path backupOf(TokenVault vault) {
+        return vault.getPath().resolveSibling(vault.getPath().getFileName() + BACKUP_SUFFIX);
+    }
+
+    /**
+     * Rotates the tokens of {@code vault} from the password of {@code from} to the one of {@code to}, resuming an
+     * interrupted rotation if a checkpoint exists. The checkpoint is removed once all tokens are processed.
+     *
+     * @param pins pin of every label to rotate, labels missing are left untouched
+     */
+    public Result rotate(TokenVault vault, Map<String, Long> pins, KeySession from, KeySession to, OrderedLineProcessor.FailureHandler onFailure) throws IOException {
+        Path checkpoint = checkpointOf(vault);
+        Result result = new Result();
+        String last = null;
+        if (Files.exists(checkpoint)) {
+            last = Files.readString(checkpoint, UTF_8);
+            result.resumed = true;
+            log.info("Resuming rotation of {} after label '{}'", vault.getPath(), last);
+        } else {
+            TokenTransfer.exportTo(vault, backupOf(vault));
+            writeCheckpoint(checkpoint, "");
+        }
+        List<String> labels = vault.labels();
+        Deque<Future<Outcome>> pending = new ArrayDeque<>(window);
+        // one engine per alphabet filter of the entries
+        Map<String, TokenEngine> engines = new ConcurrentHashMap<>();
+        long number = 0;
+        try {
+            for (String label : labels) {
+                number++;
+                if (last != null && label.compareTo(last) <= 0) {
+                    continue;
+                }
+                Long pin = pins.get(label);
+                if (pin == null) {
+                    result.untouched++;
+                    continue;
+                }
+                if (pending.size() == window) {
+                    write(pending.poll(), vault, checkpoint, result, onFailure);
+                }
+                long entryNumber = number;
+                pending.add(pool.submit(() -> Outcome.of(entryNumber, vault.get(label), pin,
+                        filter -> engines.computeIfAbsent(filter, engine::withoutCharacters), from, to)));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll(), vault, checkpoint, result, onFailure);
+            }
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+        }
+        vault.flush();
+        Files.deleteIfExists(checkpoint);
+        log.info("Rotated {} tokens of {}, {} already rotated, {} failed, {} of an unknown pin untouched",
+                result.rotated, vault.getPath(), result.skipped, result.failures, result.untouched);
+        return result;
+    }
+
+    private void write(Future<Outcome> future, TokenVault vault, Path checkpoint, Result result, OrderedLineProcessor.FailureHandler onFailure) throws IOException {
+        Outcome outcome;
+        try {
+            outcome = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted on token rotation");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Issue occurred on token rotation", e.getCause());
+        }
+        if (outcome.failure != null) {
+            result.failures++;
+            onFailure.onFailure(outcome.number, outcome.failure);
+        } else if (outcome.rotated != null) {
+            vault.put(outcome.rotated);
+            result.rotated++;
+        } else if (outcome.label != null) {
+            result.skipped++;
+        }
+        if (outcome.label != null && (result.rotated + result.skipped + result.failures) % CHECKPOINT_INTERVAL == 0) {
+            vault.flush();
+            writeCheckpoint(checkpoint, outcome.label);
+        }
+    }
+
+    // written next to the checkpoint and moved over it, a crash leaves either the former or the new checkpoint
+    private static void writeCheckpoint(Path checkpoint, String label) throws IOException {
+        Path next = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.writeString(next, label, UTF_8);
+        Files.move(next, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    public static final class Result {
+        private long rotated;
+        private long skipped;
+        private long failures;
+        private long untouched;
+        private boolean resumed;
+
+        public long getRotated() {
+            return rotated;
+        }
+
+        // tokens already under the new password, written back before an interruption
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        // tokens of labels without a pin, left under the old password
+        public long getUntouched() {
+            return untouched;
+        }
+
+        public boolean isResumed() {
+            return resumed;
+        }
+    }
+
+    private static final class Outcome {
+        private final long number;
+        private final String label;
+        private final VaultEntry rotated;
+        private final Exception failure;
+
+        private Outcome(long number, String label, VaultEntry rotated, Exception failure) {
+            this.number = number;
+            this.label = label;
+            this.rotated = rotated;
+            this.failure = failure;
+        }
+
+        // a label deleted meanwhile has nothing to rotate
+        static Outcome of(long number, Optional<VaultEntry> entry, long pin, Function<String, TokenEngine> engines, KeySession from, KeySession to) {
+            if (entry.isEmpty()) {
+                return new Outcome(number, null, null, null);
+            }
+            VaultEntry current = entry.get();
+            try {
+                String token = engines.apply(current.getAlphabetFilter()).reencrypt(current.getToken(), pin, from, to);
+                return new Outcome(number, current.getLabel(),
+                        new VaultEntry(current.getLabel(), token, current.getMetadata(), current.getCreatedAt()), null);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                if (decryptsIn(to, current.getToken())) {
+                    return new Outcome(number, current.getLabel(), null, null);
+                }
+                return new Outcome(number, current.getLabel(), null,
+                        new GeneralSecurityException("Could not rotate token '" + current.getLabel() + "': " + e.getMessage(), e));
+            }
+        }
+
+        private static boolean decryptsIn(KeySession session, String token) {
+            try {
+                Arrays.fill(session.decrypt(token), (byte) 0);
+                return true;
+            } catch (GeneralSecurityException | RuntimeException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.sam.key.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per {@link Phase} latency recording. Instrumented code brackets a phase by
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.stop(Phase.DECRYPT, start);
+ * </pre>
+ * While disabled, the default, this costs one volatile read per call and no clock access. Recording is enabled by
+ * the system property {@value #ENABLED_PROPERTY}, by {@link #setEnabled(boolean)} or at runtime through the
+ * {@link MetricsControlMXBean} once {@link #registerMBeans()} published the beans on the platform MBean server.
+ */
+public final class Metrics {
+
+    public static final String ENABLED_PROPERTY = "com.sam.key.metrics";
+    public static final String DOMAIN = "com.sam.key";
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+    private static final Map<Phase, LatencyHistogram> HISTOGRAMS = new EnumMap<>(Phase.class);
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    static {
+        for (Phase phase : Phase.values()) {
+            HISTOGRAMS.put(phase, new LatencyHistogram());
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Start of a phase, 0 if recording is disabled.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the phase begun at {@code start}, a no-op for a start taken while disabled.
+     */
+    public static void stop(Phase phase, long start) {
+        if (start != 0) {
+            HISTOGRAMS.get(phase).record(System.nanoTime() - start);
+        }
+    }
+
+    public static LatencyHistogram histogram(Phase phase) {
+        return HISTOGRAMS.get(phase);
+    }
+
+    public static void resetAll() {
+        HISTOGRAMS.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * Registers the control bean and one bean per phase on the platform MBean server, repeated calls are no-ops.
+     */
+    public static synchronized void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName(DOMAIN + ":type=Metrics"), new Control());
+            for (Phase phase : Phase.values()) {
+                register(server, new ObjectName(DOMAIN + ":type=PhaseMetrics,name=" + phase.name()), new PhaseMetrics(HISTOGRAMS.get(phase)));
+            }
+        } catch (JMException e) {
+            log.warn("Could not register metrics MBeans", e);
+        }
+    }
+
+    private static void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+        if (server.isRegistered(name)) {
+            return;
+        }
+        try {
+            server.registerMBean(bean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            // registered concurrently by another class loader
+        }
+    }
+
+    static final class Control implements MetricsControlMXBean {
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public void resetAll() {
+            Metrics.resetAll();
+        }
+    }
+
+    static final class PhaseMetrics implements PhaseMetricsMXBean {
+        private static final double NANOS_PER_MICRO = 1_000.0;
+        private final LatencyHistogram histogram;
+
+        PhaseMetrics(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return histogram.getMeanNanos() / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return histogram.getPercentileNanos(50) / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return histogram.getPercentileNanos(99) / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return histogram.getMaxNanos() / NANOS_PER_MICRO;
+        }
+
+        @Override
+        public void reset() {
+            histogram.reset();
+        }
+    }
+}
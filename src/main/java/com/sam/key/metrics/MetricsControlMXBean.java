@@ -0,0 +1,13 @@
+package com.sam.key.metrics;
+
+/**
+ * Switches recording on and off, registered as {@code com.sam.key:type=Metrics}.
+ */
+public interface MetricsControlMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void resetAll();
+}
@@ -0,0 +1,59 @@
+package com.sam.key.metrics;
+
+/**
+ * Measured phases of token generation and retrieval.
+ */
+public enum Phase {
+    /**
+     * Whole {@code TokenEngine#generate} call.
+     */
+    GENERATE,
+    /**
+     * Whole {@code TokenEngine#retrieve} call.
+     */
+    RETRIEVE,
+    /**
+     * PBKDF2 key stretching of a password.
+     */
+    KEY_DERIVATION,
+    /**
+     * HKDF expansion of a per token key.
+     */
+    KEY_EXPANSION,
+    /**
+     * AES GCM encryption.
+     */
+    ENCRYPT,
+    /**
+     * AES GCM decryption including tag verification.
+     */
+    DECRYPT,
+    /**
+     * Pin dependent alphabet permutation.
+     */
+    ALPHABET,
+    /**
+     * CSPRNG index generation.
+     */
+    INDEX_GENERATION,
+    /**
+     * SHA3 hash of the encryption password.
+     */
+    PW_HASH,
+    /**
+     * Pin and password dependent shift value.
+     */
+    SHIFT_VALUE,
+    /**
+     * Embedding the indexes into the obfuscation array.
+     */
+    OBFUSCATE,
+    /**
+     * Recovering the indexes from the obfuscation array.
+     */
+    CLEAR_INDEXES,
+    /**
+     * Lookup of a generated PW in the breached hash file.
+     */
+    BREACH_CHECK
+}
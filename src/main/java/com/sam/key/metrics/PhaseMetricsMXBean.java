@@ -0,0 +1,19 @@
+package com.sam.key.metrics;
+
+/**
+ * Latency statistics of one {@link Phase}, registered as {@code com.sam.key:type=PhaseMetrics,name=<PHASE>}.
+ */
+public interface PhaseMetricsMXBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
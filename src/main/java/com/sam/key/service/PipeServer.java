@@ -0,0 +1,72 @@
+package com.sam.key.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Headless mode: reads one JSON request per line until end of input and answers each of them with one JSON line,
+ * in request order, see {@link RequestHandler}. The JVM stays up for the whole stream, so scripts pay startup and
+ * key stretching once instead of per request. Responses are flushed whenever no further request is buffered,
+ * so request/response clients as well as bulk producers are served without delay. A request line longer than
+ * {@value RequestHandler#MAX_REQUEST_LENGTH} characters ends the stream with an {@link IOException}.
+ */
+public final class PipeServer {
+
+    private PipeServer() {
+    }
+
+    /**
+     * @return number of answered requests
+     */
+    public static long serve(InputStream in, OutputStream out, RequestHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        Writer writer = new OutputStreamWriter(out, UTF_8);
+        long requests = 0;
+        String line;
+        while ((line = nextLine(reader)) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            writer.write(handler.handle(line));
+            writer.write('\n');
+            requests++;
+            if (!reader.ready()) {
+                writer.flush();
+            }
+        }
+        writer.flush();
+        return requests;
+    }
+
+    /**
+     * Reads up to the next line break, unlike {@link BufferedReader#readLine()} bounded in length, null at the end
+     * of input.
+     *
+     * @throws IOException if the line exceeds {@value RequestHandler#MAX_REQUEST_LENGTH} characters
+     */
+    static String nextLine(BufferedReader reader) throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (c != -1 && c != '\n') {
+            if (line.length() == RequestHandler.MAX_REQUEST_LENGTH) {
+                throw new IOException("Request exceeds " + RequestHandler.MAX_REQUEST_LENGTH + " characters");
+            }
+            line.append((char) c);
+            c = reader.read();
+        }
+        if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
+        }
+        return line.toString();
+    }
+}
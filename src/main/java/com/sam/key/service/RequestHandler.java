@@ -0,0 +1,247 @@
+package com.sam.key.service;
+
+import com.sam.key.cipher.KdfParams;
+import com.sam.key.cipher.KeySession;
+import com.sam.key.cipher.RandomPool;
+import com.sam.key.manager.TokenEngine;
+import com.sam.key.vault.TokenVault;
+import com.sam.key.vault.VaultEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Handles JSON requests of the headless modes, one flat JSON object per request and response:
+ * <pre>
+ * {"id":1,"op":"generate","password":"...","pin":12345,"length":20[,"label":"mail"]}
+ *   -> {"id":1,"ok":true,"token":"v3...","pw":"..."}
+ * {"id":2,"op":"retrieve","password":"...","pin":12345,"token":"v3..."|"label":"mail"[,"rehash":true]}
+ *   -> {"id":2,"ok":true,"pw":"..."[,"token":"v3..."]}
+ * {"op":"ping"} -> {"ok":true}
+ * </pre>
+ * Failures are answered with {@code {"id":..,"ok":false,"error":"..."}}, {@link #handle(String)} never throws.
+ * Requests of unauthenticated clients, see {@link #handle(String, boolean)}, are answered to {@code ping} only, so
+ * neither passwords nor the vault are reachable without authentication.
+ * A {@code label} stores generated tokens in, and looks up tokens from, the vault if one is configured. Tokens looked
+ * up by label are retrieved with the alphabet filter recorded in their entry.
+ * With {@code rehash}, or {@link KdfParams#rehashOnRetrieve()}, a retrieved token of weaker KDF parameters than the
+ * policy is re-encrypted and returned as {@code token}, replacing the vault entry if given by label.
+ * <p>
+ * Key stretching cannot be interrupted, so a token whose header claims more than {@value #MAX_ITERATIONS_FACTOR}
+ * times the iterations of the {@link KdfParams#policy()} is rejected before it could occupy a worker for minutes.
+ * <p>
+ * Instances are thread safe.
+ */
+public class RequestHandler implements AutoCloseable {
+
+    public static final int DEFAULT_SESSION_CAPACITY = 32;
+    // longest request line of the headless modes, far above the token of the longest PW
+    public static final int MAX_REQUEST_LENGTH = 64 * 1024;
+    static final int MAX_ITERATIONS_FACTOR = 4;
+    static final String GENERATE = "generate";
+    static final String RETRIEVE = "retrieve";
+    static final String PING = "ping";
+    static final String UNAUTHORIZED = "Unauthorized";
+    private static final Logger log = LoggerFactory.getLogger(RequestHandler.class);
+
+    private final TokenEngine engine;
+    private final TokenVault vault;
+    // characters removed from the reference alphabet of the engine, recorded with tokens stored by label
+    private final String alphabetFilter;
+    private final SessionCache sessions;
+    private final int maxIterations;
+
+    public RequestHandler(TokenEngine engine, TokenVault vault) {
+        this(engine, vault, "", DEFAULT_SESSION_CAPACITY);
+    }
+
+    /**
+     * Handler of an engine whose reference alphabet lacks {@code alphabetFilter}, see
+     * {@link com.sam.key.manager.Generator#Generator(String)}.
+     */
+    public RequestHandler(TokenEngine engine, TokenVault vault, String alphabetFilter, int sessionCapacity) {
+        this.engine = engine;
+        this.vault = vault;
+        this.alphabetFilter = alphabetFilter;
+        this.sessions = new SessionCache(sessionCapacity);
+        this.maxIterations = (int) Math.min(KdfParams.MAX_ITERATIONS, (long) MAX_ITERATIONS_FACTOR * KdfParams.policy().getIterations());
+    }
+
+    /**
+     * Answers a request of an authenticated client, such as the owner of the process input in pipe mode.
+     */
+    public String handle(String line) {
+        return handle(line, true);
+    }
+
+    /**
+     * Answers a request, of an unauthenticated client only {@code ping}.
+     */
+    public String handle(String line, boolean authenticated) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        try {
+            Map<String, Object> request = Json.parseObject(line);
+            if (request.containsKey("id")) {
+                response.put("id", request.get("id"));
+            }
+            if (!authenticated && !PING.equals(request.get("op"))) {
+                return failure(response.get("id"), UNAUTHORIZED);
+            }
+            response.put("ok", true);
+            response.putAll(dispatch(request));
+        } catch (Exception e) {
+            log.debug("Request failed", e);
+            return failure(response.get("id"), e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+        return Json.write(response);
+    }
+
+    /**
+     * Failure response to {@code line}, carrying its id if it has one.
+     */
+    public String failure(String line, String message) {
+        Object id = null;
+        try {
+            id = Json.parseObject(line).get("id");
+        } catch (IllegalArgumentException e) {
+            // no id to echo
+        }
+        return failure(id, message);
+    }
+
+    private static String failure(Object id, String message) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        if (id != null) {
+            response.put("id", id);
+        }
+        response.put("ok", false);
+        response.put("error", message);
+        return Json.write(response);
+    }
+
+    /**
+     * Round trip on a throwaway session, primes the crypto providers and the thread local state of the running
+     * thread. One instance can be run on any number of threads, the key stretching happens once.
+     */
+    public WarmUp warmUp() {
+        return new WarmUp();
+    }
+
+    Map<String, Object> dispatch(Map<String, Object> request) throws Exception {
+        String op = string(request, "op");
+        switch (op) {
+            case GENERATE:
+                return generate(request);
+            case RETRIEVE:
+                return retrieve(request);
+            case PING:
+                return Map.of();
+            default:
+                throw new IllegalArgumentException("Unknown op: " + op);
+        }
+    }
+
+    private Map<String, Object> generate(Map<String, Object> request) throws Exception {
+        int length = Math.toIntExact(number(request, "length"));
+        long pin = number(request, "pin");
+        Map<String, String> tokenAndPw;
+        try (SessionCache.Lease lease = sessions.acquire(string(request, "password"))) {
+            tokenAndPw = engine.generate(length, pin, lease.session());
+        }
+        String label = (String) request.get("label");
+        if (label != null) {
+            vault().put(label, tokenAndPw.get(TokenEngine.TOKEN), VaultEntry.alphabetFilterMetadata(alphabetFilter));
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("token", tokenAndPw.get(TokenEngine.TOKEN));
+        response.put("pw", tokenAndPw.get(TokenEngine.PW));
+        return response;
+    }
+
+    private Map<String, Object> retrieve(Map<String, Object> request) throws Exception {
+        long pin = number(request, "pin");
+        Optional<VaultEntry> entry = request.containsKey("label")
+                ? Optional.of(vault().get(string(request, "label"))
+                .orElseThrow(() -> new IllegalArgumentException("Unknown label: " + request.get("label"))))
+                : Optional.empty();
+        String token = entry.isPresent() ? entry.get().getToken() : string(request, "token");
+        int iterations = KeySession.kdfParamsOf(token).getIterations();
+        if (iterations > maxIterations) {
+            throw new IllegalArgumentException("Token KDF iterations " + iterations + " exceed the limit of " + maxIterations);
+        }
+        boolean rehash = Boolean.TRUE.equals(request.get("rehash")) || KdfParams.rehashOnRetrieve();
+        Map<String, Object> response = new LinkedHashMap<>();
+        try (SessionCache.Lease lease = sessions.acquire(string(request, "password"))) {
+            KeySession session = lease.session();
+            TokenEngine tokenEngine = entry.isPresent() ? engine.withoutCharacters(entry.get().getAlphabetFilter()) : engine;
+            response.put("pw", tokenEngine.retrieve(token, pin, session));
+            if (rehash && session.needsRehash(token)) {
+                String upgraded = session.rehash(token);
+                if (entry.isPresent()) {
+                    vault().put(entry.get().getLabel(), upgraded, entry.get().getMetadata());
+                }
+                response.put("token", upgraded);
+            }
+        }
+        return response;
+    }
+
+    private TokenVault vault() {
+        if (vault == null) {
+            throw new IllegalStateException("No vault configured");
+        }
+        return vault;
+    }
+
+    private static String string(Map<String, Object> request, String key) {
+        Object value = request.get(key);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("Missing string field: " + key);
+        }
+        return (String) value;
+    }
+
+    // integral numbers, also accepted as string since pins may exceed the precision of JSON numbers elsewhere
+    private static long number(Map<String, Object> request, String key) {
+        Object value = request.get(key);
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        if (value instanceof String) {
+            return Long.parseLong((String) value);
+        }
+        throw new IllegalArgumentException("Missing integer field: " + key);
+    }
+
+    @Override
+    public void close() {
+        sessions.close();
+    }
+
+    public final class WarmUp implements Runnable, AutoCloseable {
+        private final KeySession session = new KeySession(Long.toHexString(RandomPool.secureRandom().nextLong()).toCharArray());
+
+        private WarmUp() {
+        }
+
+        @Override
+        public void run() {
+            long pin = RandomPool.secureRandom().nextLong();
+            try {
+                Map<String, String> tokenAndPw = engine.generate(20, pin, session);
+                engine.retrieve(tokenAndPw.get(TokenEngine.TOKEN), pin, session);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Warm-up round trip failed", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            session.close();
+        }
+    }
+}
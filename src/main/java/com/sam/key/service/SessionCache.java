@@ -0,0 +1,136 @@
+package com.sam.key.service;
+
+import com.sam.key.cipher.KeySession;
+import com.sam.key.cipher.RandomPool;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Bounded LRU cache of {@link KeySession}s by password, so repeated requests of a password pay its key stretching
+ * only once. Sessions are handed out as leases: a session evicted while leased is closed, and its password wiped,
+ * when the last lease is returned.
+ * <p>
+ * The cache is keyed by an HMAC of the password under a random key of the cache, the password itself is only held
+ * by its session.
+ */
+final class SessionCache implements AutoCloseable {
+
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final int KEY_BYTES = 32;
+
+    private final int capacity;
+    private final Mac mac;
+    private final LinkedHashMap<ByteBuffer, Entry> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    SessionCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        byte[] key = new byte[KEY_BYTES];
+        RandomPool.nextBytes(key);
+        try {
+            mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(new SecretKeySpec(key, HMAC_SHA256));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialize session cache", e);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    synchronized Lease acquire(String password) {
+        ByteBuffer digest = digestOf(password);
+        Entry entry = sessions.get(digest);
+        if (entry == null) {
+            entry = new Entry(new KeySession(password.toCharArray()));
+            sessions.put(digest, entry);
+            evict();
+        }
+        entry.leases++;
+        return new Lease(entry);
+    }
+
+    // keyed digest of the UTF-8 bytes of password, the bytes are wiped
+    private ByteBuffer digestOf(String password) {
+        byte[] bytes = password.getBytes(UTF_8);
+        try {
+            return ByteBuffer.wrap(mac.doFinal(bytes));
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<ByteBuffer, Entry>> eldest = sessions.entrySet().iterator();
+        while (sessions.size() > capacity) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            retire(entry);
+        }
+    }
+
+    private void retire(Entry entry) {
+        entry.evicted = true;
+        if (entry.leases == 0) {
+            entry.session.close();
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.leases--;
+        if (entry.evicted && entry.leases == 0) {
+            entry.session.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        sessions.values().forEach(this::retire);
+        sessions.clear();
+    }
+
+    private static final class Entry {
+        private final KeySession session;
+        private int leases;
+        private boolean evicted;
+
+        private Entry(KeySession session) {
+            this.session = session;
+        }
+    }
+
+    final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        KeySession session() {
+            return entry.session;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(entry);
+            }
+        }
+    }
+}
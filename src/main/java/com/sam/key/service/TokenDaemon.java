@@ -0,0 +1,296 @@
+package com.sam.key.service;
+
+import com.sam.key.cipher.RandomPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Long running local service speaking the line-delimited JSON protocol of {@link RequestHandler} over TCP,
+ * bound to the loopback interface only. Every connection may send any number of requests and gets the
+ * responses in request order.
+ * <p>
+ * Loopback is reachable by every local process and by web pages, so clients authenticate every request with the
+ * {@code "auth"} field: a random secret the daemon writes at startup to a file readable by its user only
+ * ({@value #SECRET_FILE_NAME} in the user home by default) and deletes on close. Requests without it are only
+ * answered to {@code ping}. A line that is no JSON object, such as the request line of an HTTP client, closes the
+ * connection.
+ * <p>
+ * Requests are computed on a bounded worker pool sized to the cores. A request that finds the pool queue full is
+ * answered with "Server busy", one that is not answered within the timeout with "Request timed out"; the
+ * connection stays usable in both cases. A request line longer than {@value RequestHandler#MAX_REQUEST_LENGTH} characters
+ * closes the connection. At startup the crypto providers, the DRBGs of all workers and the token
+ * pipeline are warmed up, so the first client request is not paying for it.
+ */
+public final class TokenDaemon implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 4711;
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    static final int DEFAULT_MAX_CONNECTIONS = 64;
+    static final String BUSY = "Server busy";
+    static final String TIMED_OUT = "Request timed out";
+    static final String AUTH = "auth";
+    static final String SECRET_FILE_NAME = ".sam-key-daemon.secret";
+    private static final int SECRET_BYTES = 32;
+    private static final Logger log = LoggerFactory.getLogger(TokenDaemon.class);
+
+    private final RequestHandler handler;
+    private final ServerSocket server;
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor connections;
+    private final long timeoutMillis;
+    private final Path secretFile;
+    private final byte[] secret;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+
+    public TokenDaemon(RequestHandler handler, int port, Path secretFile) throws IOException {
+        this(handler, port, secretFile, Runtime.getRuntime().availableProcessors(), 64 * Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Binds to {@code port} of the loopback interface, 0 picks a free port, and writes a new client secret to
+     * {@code secretFile}. Serving starts with {@link #start()}.
+     */
+    public TokenDaemon(RequestHandler handler, int port, Path secretFile, int workerThreads, int queueCapacity, int maxConnections, Duration timeout) throws IOException {
+        this.handler = handler;
+        this.timeoutMillis = timeout.toMillis();
+        this.secretFile = secretFile.toAbsolutePath();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threads("daemon-worker-"), new ThreadPoolExecutor.AbortPolicy());
+        this.connections = new ThreadPoolExecutor(0, maxConnections, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threads("daemon-connection-"), new ThreadPoolExecutor.AbortPolicy());
+        this.server = new ServerSocket();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        try {
+            this.secret = writeSecret(this.secretFile);
+        } catch (IOException e) {
+            closeQuietly(server);
+            throw e;
+        }
+        this.acceptor = threads("daemon-acceptor-").newThread(this::accept);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public Path getSecretFile() {
+        return secretFile;
+    }
+
+    // the client secret in the user home
+    public static Path defaultSecretFile() {
+        return Paths.get(System.getProperty("user.home"), SECRET_FILE_NAME);
+    }
+
+    /**
+     * Warms up all workers and starts accepting connections.
+     */
+    public TokenDaemon start() {
+        long start = System.nanoTime();
+        warmUp();
+        acceptor.start();
+        log.info("Token daemon listening on {}:{}, warm-up took {} ms", server.getInetAddress().getHostAddress(), getPort(), (System.nanoTime() - start) / 1_000_000);
+        return this;
+    }
+
+    // primes providers once and the thread local DRBG and digest of every worker
+    private void warmUp() {
+        workers.prestartAllCoreThreads();
+        try (RequestHandler.WarmUp warmUp = handler.warmUp()) {
+            Future<?>[] tasks = new Future<?>[workers.getCorePoolSize()];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = workers.submit(warmUp);
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Warm-up failed", e.getCause());
+        }
+    }
+
+    /**
+     * Blocks until the daemon is closed.
+     */
+    public void awaitTermination() throws InterruptedException {
+        acceptor.join();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    log.error("Could not accept connection", e);
+                }
+                continue;
+            }
+            try {
+                connections.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                log.warn("Too many connections, closing {}", socket.getRemoteSocketAddress());
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        sockets.add(socket);
+        try (socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+             Writer writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8)) {
+            String line;
+            while ((line = PipeServer.nextLine(reader)) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Map<String, Object> request;
+                try {
+                    request = Json.parseObject(line);
+                } catch (IllegalArgumentException e) {
+                    log.debug("Closing connection {} sending no JSON", socket.getRemoteSocketAddress());
+                    break;
+                }
+                writer.write(process(line, isAuthenticated(request)));
+                writer.write('\n');
+                if (!reader.ready()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Connection closed", e);
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    String process(String line, boolean authenticated) {
+        Future<String> response;
+        try {
+            response = workers.submit(() -> handler.handle(line, authenticated));
+        } catch (RejectedExecutionException e) {
+            return handler.failure(line, BUSY);
+        }
+        try {
+            return response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // key stretching is not interruptible, the worker is freed once the computation is done
+            response.cancel(true);
+            return handler.failure(line, TIMED_OUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.cancel(true);
+            return handler.failure(line, "Server shutting down");
+        } catch (ExecutionException e) {
+            return handler.failure(line, String.valueOf(e.getCause()));
+        }
+    }
+
+    // constant time comparison, a timing side channel must not reveal the secret
+    private boolean isAuthenticated(Map<String, Object> request) {
+        Object auth = request.get(AUTH);
+        return auth instanceof String && MessageDigest.isEqual(secret, ((String) auth).getBytes(UTF_8));
+    }
+
+    // random hex secret, written to a file only its owner can read before it becomes visible under its name
+    private static byte[] writeSecret(Path file) throws IOException {
+        byte[] random = new byte[SECRET_BYTES];
+        RandomPool.secureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b));
+        }
+        byte[] secret = hex.toString().getBytes(UTF_8);
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path next = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(next);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(next, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            // without POSIX permissions the file inherits the ACL of the user home, private to the user by default
+            Files.createFile(next);
+        }
+        Files.write(next, secret);
+        Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return secret;
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(secretFile);
+        } catch (IOException e) {
+            log.warn("Could not delete client secret {}", secretFile, e);
+        }
+        closeQuietly(server);
+        sockets.forEach(TokenDaemon::closeQuietly);
+        connections.shutdownNow();
+        workers.shutdownNow();
+        try {
+            if (acceptor.isAlive()) {
+                acceptor.join(TimeUnit.SECONDS.toMillis(5));
+            }
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            log.debug("Could not close {}", closeable, e);
+        }
+    }
+
+    private static ThreadFactory threads(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package com.sam.key.transfer;
+
+import com.sam.key.vault.VaultEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link TransferFormat#CSV} reader, parsing one record at a time character by character, so quoted fields may
+ * span lines. The header line is required and determines the column order, {@value TransferFormat#LABEL} and
+ * {@value TransferFormat#TOKEN} are required columns, unknown columns are ignored. Blank lines are skipped, line
+ * breaks may be LF or CRLF.
+ */
+final class CsvTokenReader implements TokenRecordReader {
+
+    private static final int END = -1;
+
+    private final Reader in;
+    private final Map<String, Integer> columns = new HashMap<>();
+    private final StringBuilder field = new StringBuilder();
+    private long record;
+    private int recordLength;
+
+    CsvTokenReader(Reader in) throws IOException {
+        this.in = in;
+        List<String> header = nextRecord();
+        if (header == null) {
+            throw new IOException("Missing CSV header");
+        }
+        for (int i = 0; i < header.size(); i++) {
+            columns.putIfAbsent(header.get(i).trim(), i);
+        }
+        if (!columns.containsKey(TransferFormat.LABEL) || !columns.containsKey(TransferFormat.TOKEN)) {
+            throw new IOException("CSV header must name the columns " + TransferFormat.LABEL + " and " + TransferFormat.TOKEN + ": " + header);
+        }
+    }
+
+    @Override
+    public VaultEntry read() throws IOException {
+        List<String> fields;
+        do {
+            fields = nextRecord();
+        } while (fields != null && fields.size() == 1 && fields.get(0).isEmpty());
+        if (fields == null) {
+            return null;
+        }
+        return TransferFormat.entry(record,
+                column(fields, TransferFormat.LABEL),
+                column(fields, TransferFormat.TOKEN),
+                column(fields, TransferFormat.CREATED_AT),
+                column(fields, TransferFormat.ALPHABET_FILTER));
+    }
+
+    private String column(List<String> fields, String name) {
+        Integer index = columns.get(name);
+        return index == null || index >= fields.size() ? null : fields.get(index);
+    }
+
+    // fields of the next record, null at the end of the input
+    private List<String> nextRecord() throws IOException {
+        int c = in.read();
+        if (c == END) {
+            return null;
+        }
+        record++;
+        recordLength = 0;
+        List<String> fields = new ArrayList<>(CsvTokenWriter.HEADER.length);
+        field.setLength(0);
+        boolean quoted = false;
+        boolean closedQuote = false;
+        while (true) {
+            if (quoted) {
+                if (c == END) {
+                    throw new IOException("Record " + record + ": unterminated quoted field");
+                }
+                if (c == '"') {
+                    c = in.read();
+                    if (c != '"') {
+                        quoted = false;
+                        closedQuote = true;
+                        continue;
+                    }
+                }
+                append(c);
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                closedQuote = false;
+            } else if (c == '\n' || c == END) {
+                fields.add(field.toString());
+                return fields;
+            } else if (c == '\r') {
+                c = in.read();
+                if (c == '\n' || c == END) {
+                    fields.add(field.toString());
+                    return fields;
+                }
+                appendUnquoted('\r', closedQuote);
+                continue;
+            } else if (c == '"' && field.length() == 0 && !closedQuote) {
+                quoted = true;
+            } else {
+                appendUnquoted(c, closedQuote);
+            }
+            c = in.read();
+        }
+    }
+
+    private void appendUnquoted(int c, boolean closedQuote) throws IOException {
+        if (closedQuote) {
+            throw new IOException("Record " + record + ": unexpected character after closing quote");
+        }
+        append(c);
+    }
+
+    private void append(int c) throws IOException {
+        if (++recordLength > TransferFormat.MAX_RECORD_LENGTH) {
+            throw new IOException("Record " + record + " exceeds " + TransferFormat.MAX_RECORD_LENGTH + " characters");
+        }
+        field.append((char) c);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.sam.key.transfer;
+
+import com.sam.key.vault.VaultEntry;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * {@link TransferFormat#CSV} writer, records end with CRLF as of RFC 4180.
+ */
+final class CsvTokenWriter implements TokenRecordWriter {
+
+    static final String[] HEADER = {TransferFormat.LABEL, TransferFormat.TOKEN, TransferFormat.CREATED_AT, TransferFormat.ALPHABET_FILTER};
+
+    private final Writer out;
+
+    CsvTokenWriter(Writer out) throws IOException {
+        this.out = out;
+        writeRecord(HEADER);
+    }
+
+    @Override
+    public void write(VaultEntry entry) throws IOException {
+        writeRecord(entry.getLabel(), entry.getToken(), entry.getCreatedAt().toString(), entry.getAlphabetFilter());
+    }
+
+    private void writeRecord(String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeField(fields[i]);
+        }
+        out.write("\r\n");
+    }
+
+    private void writeField(String field) throws IOException {
+        if (!needsQuotes(field)) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    private static boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,75 @@
+package com.sam.key.transfer;
+
+import com.sam.key.service.Json;
+import com.sam.key.vault.VaultEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * {@link TransferFormat#JSONL} reader, {@value TransferFormat#LABEL} and {@value TransferFormat#TOKEN} are required
+ * fields, unknown fields are ignored and blank lines skipped.
+ */
+final class JsonLinesTokenReader implements TokenRecordReader {
+
+    private final Reader in;
+    private final StringBuilder line = new StringBuilder();
+    private long record;
+
+    JsonLinesTokenReader(Reader in) {
+        this.in = in;
+    }
+
+    @Override
+    public VaultEntry read() throws IOException {
+        while (nextLine()) {
+            record++;
+            if (line.toString().trim().isEmpty()) {
+                continue;
+            }
+            Map<String, Object> fields;
+            try {
+                fields = Json.parseObject(line.toString());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Record " + record + ": " + e.getMessage(), e);
+            }
+            return TransferFormat.entry(record,
+                    string(fields, TransferFormat.LABEL),
+                    string(fields, TransferFormat.TOKEN),
+                    string(fields, TransferFormat.CREATED_AT),
+                    string(fields, TransferFormat.ALPHABET_FILTER));
+        }
+        return null;
+    }
+
+    private String string(Map<String, Object> fields, String name) throws IOException {
+        Object value = fields.get(name);
+        if (value != null && !(value instanceof String)) {
+            throw new IOException("Record " + record + ": " + name + " is not a string");
+        }
+        return (String) value;
+    }
+
+    // reads up to the next line break into line, unlike BufferedReader.readLine bounded in length
+    private boolean nextLine() throws IOException {
+        line.setLength(0);
+        int c = in.read();
+        if (c == -1) {
+            return false;
+        }
+        while (c != -1 && c != '\n') {
+            if (line.length() == TransferFormat.MAX_RECORD_LENGTH) {
+                throw new IOException("Record " + (record + 1) + " exceeds " + TransferFormat.MAX_RECORD_LENGTH + " characters");
+            }
+            line.append((char) c);
+            c = in.read();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,42 @@
+package com.sam.key.transfer;
+
+import com.sam.key.service.Json;
+import com.sam.key.vault.VaultEntry;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link TransferFormat#JSONL} writer, line breaks within fields are escaped by the JSON encoding.
+ */
+final class JsonLinesTokenWriter implements TokenRecordWriter {
+
+    private final Writer out;
+
+    JsonLinesTokenWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(VaultEntry entry) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put(TransferFormat.LABEL, entry.getLabel());
+        record.put(TransferFormat.TOKEN, entry.getToken());
+        record.put(TransferFormat.CREATED_AT, entry.getCreatedAt().toString());
+        record.put(TransferFormat.ALPHABET_FILTER, entry.getAlphabetFilter());
+        out.write(Json.write(record));
+        out.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
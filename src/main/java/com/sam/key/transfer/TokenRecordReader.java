@@ -0,0 +1,19 @@
+package com.sam.key.transfer;
+
+import com.sam.key.vault.VaultEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads token records one at a time, at most one record is held in memory.
+ */
+public interface TokenRecordReader extends Closeable {
+
+    /**
+     * Next record, null at the end of the input.
+     *
+     * @throws IOException also if the record is malformed, the message names its record number
+     */
+    VaultEntry read() throws IOException;
+}
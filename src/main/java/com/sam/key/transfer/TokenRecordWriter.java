@@ -0,0 +1,15 @@
+package com.sam.key.transfer;
+
+import com.sam.key.vault.VaultEntry;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Writes token records one at a time, nothing is held beyond the buffer of the underlying writer.
+ */
+public interface TokenRecordWriter extends Closeable, Flushable {
+
+    void write(VaultEntry entry) throws IOException;
+}
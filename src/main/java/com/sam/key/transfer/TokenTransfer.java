@@ -0,0 +1,78 @@
+package com.sam.key.transfer;
+
+import com.sam.key.vault.TokenVault;
+import com.sam.key.vault.VaultEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Streams the tokens of a {@link TokenVault} to and from {@link TransferFormat} files. Records pass one at a time
+ * through fixed size buffers, the size of a transfer is bounded by the vault only, never by memory.
+ * <p>
+ * The alphabet filter of an entry is exported with it and restored as its metadata on import, so a token
+ * generated with a filtered reference alphabet is retrieved with the same alphabet on the target machine.
+ */
+public final class TokenTransfer {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final Logger log = LoggerFactory.getLogger(TokenTransfer.class);
+
+    private TokenTransfer() {
+    }
+
+    /**
+     * Writes all entries of {@code vault} to {@code file}, replacing it, in the format of its extension.
+     *
+     * @return number of exported records
+     */
+    public static long exportTo(TokenVault vault, Path file) throws IOException {
+        return exportTo(vault, file, TransferFormat.of(file));
+    }
+
+    public static long exportTo(TokenVault vault, Path file, TransferFormat format) throws IOException {
+        long[] count = {0};
+        try (TokenRecordWriter writer = format.writer(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), UTF_8), BUFFER_SIZE))) {
+            vault.forEach(entry -> {
+                writer.write(entry);
+                count[0]++;
+            });
+        }
+        log.info("Exported {} tokens of {} to {}", count[0], vault.getPath(), file);
+        return count[0];
+    }
+
+    /**
+     * Puts all records of {@code file} into {@code vault}, a record replaces an entry of the same label. The
+     * import stops at the first malformed record, records before it stay imported.
+     *
+     * @return number of imported records
+     */
+    public static long importFrom(Path file, TokenVault vault) throws IOException {
+        return importFrom(file, TransferFormat.of(file), vault);
+    }
+
+    public static long importFrom(Path file, TransferFormat format, TokenVault vault) throws IOException {
+        long count = 0;
+        try (TokenRecordReader reader = format.reader(new BufferedReader(new InputStreamReader(Files.newInputStream(file), UTF_8), BUFFER_SIZE))) {
+            VaultEntry entry;
+            while ((entry = reader.read()) != null) {
+                vault.put(entry);
+                count++;
+            }
+        } finally {
+            vault.flush();
+        }
+        log.info("Imported {} tokens from {} into {}", count, file, vault.getPath());
+        return count;
+    }
+}
@@ -0,0 +1,72 @@
+package com.sam.key.transfer;
+
+import com.sam.key.vault.VaultEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * File formats of token transfers. Both carry the columns {@value #LABEL}, {@value #TOKEN}, {@value #CREATED_AT}
+ * (ISO-8601) and {@value #ALPHABET_FILTER}, the characters removed from the reference alphabet of the token.
+ */
+public enum TransferFormat {
+
+    /**
+     * RFC 4180 with a header line, fields containing separators, quotes or line breaks are quoted.
+     */
+    CSV,
+    /**
+     * One flat JSON object per line.
+     */
+    JSONL;
+
+    public static final String LABEL = "label";
+    public static final String TOKEN = "token";
+    public static final String CREATED_AT = "createdAt";
+    public static final String ALPHABET_FILTER = "alphabetFilter";
+    // longest record accepted on import, a file without line breaks must not be buffered as a whole
+    static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    /**
+     * Format by file extension, ".csv" or ".jsonl" (also ".ndjson").
+     *
+     * @throws IllegalArgumentException for any other extension
+     */
+    public static TransferFormat of(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) {
+            return CSV;
+        }
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+            return JSONL;
+        }
+        throw new IllegalArgumentException("Unknown transfer format of " + file + ", expected .csv or .jsonl");
+    }
+
+    public TokenRecordWriter writer(Writer out) throws IOException {
+        return this == CSV ? new CsvTokenWriter(out) : new JsonLinesTokenWriter(out);
+    }
+
+    public TokenRecordReader reader(Reader in) throws IOException {
+        return this == CSV ? new CsvTokenReader(in) : new JsonLinesTokenReader(in);
+    }
+
+    // entry of an imported record, created now if the record has no timestamp
+    static VaultEntry entry(long record, String label, String token, String createdAt, String alphabetFilter) throws IOException {
+        if (label == null || label.isEmpty() || token == null || token.isEmpty()) {
+            throw new IOException("Record " + record + ": " + LABEL + " and " + TOKEN + " are required");
+        }
+        Instant created;
+        try {
+            created = createdAt == null || createdAt.isEmpty() ? Instant.now() : Instant.parse(createdAt);
+        } catch (DateTimeParseException e) {
+            throw new IOException("Record " + record + ": invalid " + CREATED_AT + " " + createdAt, e);
+        }
+        return new VaultEntry(label, token, VaultEntry.alphabetFilterMetadata(alphabetFilter == null ? "" : alphabetFilter), created);
+    }
+}
@@ -0,0 +1,470 @@
+package com.sam.key.vault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Local store of tokens by label, kept as an append-only log of checksummed records.
+ * <p>
+ * Record layout: {@code [magic][body length][body][CRC32 of body]}, the body being
+ * {@code [type][timestamp millis][label length, u16][label][token length][token][metadata length][metadata]}
+ * with UTF-8 strings. A put of an existing label supersedes the former record, a delete appends a tombstone.
+ * Nothing is ever rewritten in place, {@link #compact()} drops deleted and superseded records by writing the
+ * live ones into a new file that atomically replaces the log.
+ * <p>
+ * Records are read through a memory mapping of the log, the label index is rebuilt from it on open. Records
+ * appended after the mapping are read from the channel until they add up to the mapped bytes, at least
+ * {@value #MIN_REMAP_BYTES}; the log is mapped again only then, so alternating puts and gets do not map the log
+ * once per read. An
+ * incomplete record at the end of the log, left by an interrupted write, is cut off on open. A corrupt record is
+ * skipped up to the next valid record and left in the log as garbage for {@link #compact()}, the log is first
+ * copied to {@code <vault>.corrupt}.
+ * <p>
+ * The open vault holds an exclusive {@link FileLock} of its file, opening a vault in use by another process or
+ * instance fails. The mapping is unmapped when the log is replaced or truncated, since Windows refuses both for
+ * a mapped file. Instances are thread safe.
+ */
+public final class TokenVault implements AutoCloseable {
+
+    static final int MAGIC = 0x544B5631; // "TKV1"
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final int RECORD_OVERHEAD = 3 * Integer.BYTES;
+    private static final int MIN_BODY_LENGTH = 1 + Long.BYTES + Short.BYTES + 2 * Integer.BYTES;
+    private static final int MAX_LABEL_LENGTH = 0xFFFF;
+    // bytes appended after the mapping that are read from the channel before the log is mapped again
+    static final int MIN_REMAP_BYTES = 1 << 16;
+    private static final String COMPACT_SUFFIX = ".compact";
+    static final String CORRUPT_SUFFIX = ".corrupt";
+    private static final Logger log = LoggerFactory.getLogger(TokenVault.class);
+    // sun.misc.Unsafe#invokeCleaner of jdk.unsupported, null if not available
+    private static final Object UNMAPPER;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unmapper = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafe.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unmapper = theUnsafe.get(null);
+            invokeCleaner = unsafe.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Mappings of vaults are unmapped on garbage collection only", e);
+            unmapper = null;
+        }
+        UNMAPPER = unmapper;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path path;
+    // label to offset of its live record, sorted for listing
+    private final Map<String, Long> index = new TreeMap<>();
+    private FileChannel channel;
+    private FileLock lock;
+    private MappedByteBuffer map;
+    private long size;
+    private long liveBytes;
+
+    private TokenVault(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Opens the vault at {@code path}, the file is created if it does not exist yet.
+     */
+    public static TokenVault open(Path path) throws IOException {
+        TokenVault vault = new TokenVault(path.toAbsolutePath());
+        vault.load();
+        return vault;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized void put(String label, String token, String metadata) throws IOException {
+        put(new VaultEntry(label, token, metadata, Instant.now()));
+    }
+
+    public synchronized void put(VaultEntry entry) throws IOException {
+        ensureOpen();
+        ByteBuffer record = encode(PUT, entry.getCreatedAt().toEpochMilli(), entry.getLabel(), entry.getToken(), entry.getMetadata());
+        long offset = append(record);
+        Long former = index.put(entry.getLabel(), offset);
+        if (former != null) {
+            liveBytes -= recordLength(former);
+        }
+        liveBytes += record.capacity();
+    }
+
+    /**
+     * Appends a tombstone for {@code label}.
+     *
+     * @return false if there was no entry for the label
+     */
+    public synchronized boolean delete(String label) throws IOException {
+        ensureOpen();
+        Long former = index.get(label);
+        if (former == null) {
+            return false;
+        }
+        append(encode(DELETE, System.currentTimeMillis(), label, "", ""));
+        index.remove(label);
+        liveBytes -= recordLength(former);
+        return true;
+    }
+
+    public synchronized Optional<VaultEntry> get(String label) {
+        ensureOpen();
+        Long offset = index.get(label);
+        return offset == null ? Optional.empty() : Optional.of(read(offset));
+    }
+
+    public synchronized List<String> labels() {
+        ensureOpen();
+        return new ArrayList<>(index.keySet());
+    }
+
+    public synchronized List<VaultEntry> entries() {
+        ensureOpen();
+        List<VaultEntry> entries = new ArrayList<>(index.size());
+        for (long offset : index.values()) {
+            entries.add(read(offset));
+        }
+        return entries;
+    }
+
+    /**
+     * Passes the live entries in label order to {@code consumer} one at a time, without collecting them like
+     * {@link #entries()}. The vault is locked until all entries are consumed.
+     */
+    public synchronized <E extends Exception> void forEach(EntryConsumer<E> consumer) throws E {
+        ensureOpen();
+        for (long offset : index.values()) {
+            consumer.accept(read(offset));
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    // bytes of deleted and superseded records, reclaimed by compact
+    public synchronized long garbageBytes() {
+        return size - liveBytes;
+    }
+
+    /**
+     * Rewrites the log with live records only. The new log is written and synced next to the current one and
+     * then moved over it, an interruption leaves either the old or the new log behind.
+     *
+     * @return number of reclaimed bytes
+     */
+    public synchronized long compact() throws IOException {
+        ensureOpen();
+        Path compacted = path.resolveSibling(path.getFileName() + COMPACT_SUFFIX);
+        try (FileChannel out = FileChannel.open(compacted, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            for (long offset : index.values()) {
+                ByteBuffer record = record(offset);
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            out.force(true);
+        }
+        long before = size;
+        release();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        load();
+        log.info("Compacted vault {} from {} to {} bytes", path, before, size);
+        return before - size;
+    }
+
+    // syncs appended records to the storage device
+    public synchronized void flush() throws IOException {
+        ensureOpen();
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            release();
+        }
+    }
+
+    private void load() throws IOException {
+        channel = FileChannel.open(path, CREATE, READ, WRITE);
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            channel = null;
+            throw new IOException("Vault is in use by another process or instance: " + path);
+        }
+        index.clear();
+        liveBytes = 0;
+        long fileSize = channel.size();
+        remap(fileSize);
+        long pos = 0;
+        boolean backedUp = false;
+        while (pos < fileSize) {
+            int bodyLength = validBodyLength(pos, fileSize);
+            if (bodyLength < 0) {
+                long next = nextValidRecord(pos + 1, fileSize);
+                if (next < 0) {
+                    break;
+                }
+                backedUp = backedUp || backUp(fileSize);
+                log.warn("Skipping {} bytes of corrupt records at offset {} of vault {}, compact it to drop them", next - pos, pos, path);
+                pos = next;
+                continue;
+            }
+            String label = readLabel(pos);
+            boolean put = map.get((int) pos + 2 * Integer.BYTES) == PUT;
+            Long former = put ? index.put(label, pos) : index.remove(label);
+            if (former != null) {
+                liveBytes -= recordLength(former);
+            }
+            if (put) {
+                liveBytes += RECORD_OVERHEAD + bodyLength;
+            }
+            pos += RECORD_OVERHEAD + bodyLength;
+        }
+        if (pos < fileSize && isIncomplete(pos, fileSize)) {
+            log.warn("Cutting off {} bytes of an incomplete record at the end of vault {}", fileSize - pos, path);
+            unmap();
+            channel.truncate(pos);
+            remap(pos);
+        } else if (pos < fileSize) {
+            if (!backedUp) {
+                backUp(fileSize);
+            }
+            log.warn("Skipping {} bytes of corrupt records at offset {} of vault {}, compact it to drop them", fileSize - pos, pos, path);
+            pos = fileSize;
+        }
+        size = pos;
+    }
+
+    // body length of the record at pos if it is complete and its checksum matches, -1 otherwise
+    private int validBodyLength(long pos, long fileSize) {
+        if (pos + RECORD_OVERHEAD + MIN_BODY_LENGTH > fileSize || map.getInt((int) pos) != MAGIC) {
+            return -1;
+        }
+        int bodyLength = map.getInt((int) pos + Integer.BYTES);
+        if (bodyLength < MIN_BODY_LENGTH || pos + RECORD_OVERHEAD + bodyLength > fileSize
+                || checksum(pos, bodyLength) != map.getInt((int) pos + 2 * Integer.BYTES + bodyLength)) {
+            return -1;
+        }
+        return bodyLength;
+    }
+
+    // offset of the first valid record at or after from, -1 if there is none
+    private long nextValidRecord(long from, long fileSize) {
+        for (long pos = from; pos + RECORD_OVERHEAD + MIN_BODY_LENGTH <= fileSize; pos++) {
+            if (map.getInt((int) pos) == MAGIC && validBodyLength(pos, fileSize) >= 0) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    // record at pos ends beyond the end of the log, as left by an interrupted append
+    private boolean isIncomplete(long pos, long fileSize) {
+        if (fileSize - pos < 2 * Integer.BYTES) {
+            return true;
+        }
+        long bodyLength = map.getInt((int) pos + Integer.BYTES);
+        return map.getInt((int) pos) == MAGIC && pos + RECORD_OVERHEAD + bodyLength > fileSize;
+    }
+
+    // copy of the log before corrupt records are skipped, through the locked channel
+    private boolean backUp(long fileSize) throws IOException {
+        Path backup = path.resolveSibling(path.getFileName() + CORRUPT_SUFFIX);
+        try (FileChannel out = FileChannel.open(backup, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            long copied = 0;
+            while (copied < fileSize) {
+                copied += channel.transferTo(copied, fileSize - copied, out);
+            }
+            out.force(true);
+        }
+        log.warn("Vault {} has corrupt records, copied it to {}", path, backup);
+        return true;
+    }
+
+    private long append(ByteBuffer record) throws IOException {
+        long offset = size;
+        long pos = offset;
+        while (record.hasRemaining()) {
+            pos += channel.write(record, pos);
+        }
+        size = pos;
+        return offset;
+    }
+
+    private VaultEntry read(long offset) {
+        ByteBuffer body = record(offset).position(2 * Integer.BYTES);
+        body.get();
+        long timestamp = body.getLong();
+        String label = readString(body, Short.toUnsignedInt(body.getShort()));
+        String token = readString(body, body.getInt());
+        String metadata = readString(body, body.getInt());
+        return new VaultEntry(label, token, metadata, Instant.ofEpochMilli(timestamp));
+    }
+
+    private String readLabel(long offset) {
+        ByteBuffer body = map.duplicate().position((int) offset + 2 * Integer.BYTES + 1 + Long.BYTES);
+        return readString(body, Short.toUnsignedInt(body.getShort()));
+    }
+
+    private long recordLength(long offset) {
+        if (offset < map.capacity()) {
+            return RECORD_OVERHEAD + (long) map.getInt((int) offset + Integer.BYTES);
+        }
+        return RECORD_OVERHEAD + (long) readAt(offset, 2 * Integer.BYTES).getInt(Integer.BYTES);
+    }
+
+    /**
+     * The record at {@code offset}, positioned at its start. The mapping ends on a record boundary, a record
+     * appended after it is read from the channel unless the appended records have outgrown the mapping.
+     */
+    private ByteBuffer record(long offset) {
+        long unmapped = size - map.capacity();
+        if (offset >= map.capacity() && unmapped >= Math.max(map.capacity(), MIN_REMAP_BYTES)) {
+            try {
+                remap(size);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not map vault " + path, e);
+            }
+        }
+        if (offset < map.capacity()) {
+            int start = (int) offset;
+            return map.duplicate().position(start).limit(start + RECORD_OVERHEAD + map.getInt(start + Integer.BYTES)).slice();
+        }
+        return readAt(offset, (int) recordLength(offset));
+    }
+
+    private ByteBuffer readAt(long offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of vault at offset " + (offset + buffer.position()));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read vault " + path, e);
+        }
+        return buffer.flip();
+    }
+
+    // bytes of the log covered by the mapping
+    synchronized long mappedBytes() {
+        return map.capacity();
+    }
+
+    private int checksum(long offset, int bodyLength) {
+        CRC32 crc = new CRC32();
+        crc.update(map.duplicate().position((int) offset + 2 * Integer.BYTES).limit((int) offset + 2 * Integer.BYTES + bodyLength));
+        return (int) crc.getValue();
+    }
+
+    private void remap(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Vault exceeds 2 GiB, compact it: " + path);
+        }
+        // the former mapping is unmapped right away, a chain of mappings freed on garbage collection only would
+        // keep the file from being replaced or truncated on Windows
+        unmap();
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+
+    private void release() throws IOException {
+        unmap();
+        index.clear();
+        try {
+            channel.close();
+        } finally {
+            channel = null;
+            lock = null;
+        }
+    }
+
+    // unmaps now instead of on garbage collection, no duplicate of the mapping outlives a synchronized call
+    private void unmap() {
+        MappedByteBuffer mapping = map;
+        map = null;
+        if (mapping != null && UNMAPPER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNMAPPER, mapping);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.debug("Could not unmap vault {}, it is unmapped on garbage collection", path, e);
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("Vault is closed: " + path);
+        }
+    }
+
+    static ByteBuffer encode(byte type, long timestamp, String label, String token, String metadata) {
+        byte[] labelBytes = label.getBytes(UTF_8);
+        if (labelBytes.length == 0 || labelBytes.length > MAX_LABEL_LENGTH) {
+            throw new IllegalArgumentException("Label must have 1 to " + MAX_LABEL_LENGTH + " bytes");
+        }
+        byte[] tokenBytes = token.getBytes(UTF_8);
+        byte[] metadataBytes = metadata.getBytes(UTF_8);
+        int bodyLength = MIN_BODY_LENGTH + labelBytes.length + tokenBytes.length + metadataBytes.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + bodyLength);
+        record.putInt(MAGIC).putInt(bodyLength)
+                .put(type).putLong(timestamp)
+                .putShort((short) labelBytes.length).put(labelBytes)
+                .putInt(tokenBytes.length).put(tokenBytes)
+                .putInt(metadataBytes.length).put(metadataBytes);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 2 * Integer.BYTES, bodyLength);
+        record.putInt((int) crc.getValue());
+        return record.flip();
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<E extends Exception> {
+        void accept(VaultEntry entry) throws E;
+    }
+}
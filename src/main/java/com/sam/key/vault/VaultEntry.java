@@ -0,0 +1,74 @@
+package com.sam.key.vault;
+
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Live record of a {@link TokenVault}: a token stored under a label along with free form metadata.
+ */
+public final class VaultEntry {
+
+    // metadata of tokens generated with a filtered reference alphabet, followed by the removed characters
+    public static final String ALPHABET_FILTER = "alphabetFilter=";
+
+    private final String label;
+    private final String token;
+    private final String metadata;
+    private final Instant createdAt;
+
+    public VaultEntry(String label, String token, String metadata, Instant createdAt) {
+        this.label = Objects.requireNonNull(label, "label is null");
+        this.token = Objects.requireNonNull(token, "token is null");
+        this.metadata = metadata == null ? "" : metadata;
+        this.createdAt = Objects.requireNonNull(createdAt, "createdAt is null");
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getMetadata() {
+        return metadata;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Characters removed from the reference alphabet the token was generated with, empty if none.
+     */
+    public String getAlphabetFilter() {
+        return metadata.startsWith(ALPHABET_FILTER) ? metadata.substring(ALPHABET_FILTER.length()) : "";
+    }
+
+    public static String alphabetFilterMetadata(String filteredCharacters) {
+        return filteredCharacters.isEmpty() ? "" : ALPHABET_FILTER + filteredCharacters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VaultEntry)) {
+            return false;
+        }
+        VaultEntry that = (VaultEntry) o;
+        return label.equals(that.label) && token.equals(that.token) && metadata.equals(that.metadata) && createdAt.equals(that.createdAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(label, token, metadata, createdAt);
+    }
+
+    @Override
+    public String toString() {
+        return "VaultEntry{label='" + label + "', createdAt=" + createdAt + '}';
+    }
+}
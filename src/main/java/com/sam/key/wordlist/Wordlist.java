@@ -0,0 +1,238 @@
+package com.sam.key.wordlist;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Words of passphrases, one word per line of a UTF-8 text file. Of diceware lines such as {@code "11111\tabacus"}
+ * the text after the last tab or space is the word, empty lines are skipped.
+ * <p>
+ * The list is read through a memory mapping and word i is located by an offset table kept in the sidecar file
+ * {@code <wordlist>.idx}: {@code [magic][list size][list modified millis][CRC32 of list][word count][start and end
+ * offset of every word]}. The table is built once and rebuilt when size or modification time of the list change,
+ * opening a list neither parses it nor loads words or offsets onto the heap. Words are decoded on lookup.
+ * <p>
+ * Instances are thread safe.
+ */
+public final class Wordlist {
+
+    public static final String INDEX_SUFFIX = ".idx";
+    static final int MAGIC = 0x57494458; // "WIDX"
+    static final int HEADER_LENGTH = Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES;
+    static final int ENTRY_LENGTH = 2 * Integer.BYTES;
+    private static final int SIZE_OFFSET = Integer.BYTES;
+    private static final int MODIFIED_OFFSET = SIZE_OFFSET + Long.BYTES;
+    private static final int CHECKSUM_OFFSET = MODIFIED_OFFSET + Long.BYTES;
+    private static final int COUNT_OFFSET = CHECKSUM_OFFSET + Integer.BYTES;
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final Logger log = LoggerFactory.getLogger(Wordlist.class);
+
+    private final Path path;
+    private final MappedByteBuffer words;
+    private final ByteBuffer offsets;
+    private final int count;
+    private final int checksum;
+
+    private Wordlist(Path path, MappedByteBuffer words, ByteBuffer offsets) {
+        this.path = path;
+        this.words = words;
+        this.offsets = offsets;
+        this.count = offsets.getInt(COUNT_OFFSET);
+        this.checksum = offsets.getInt(CHECKSUM_OFFSET);
+    }
+
+    /**
+     * Opens the wordlist at {@code path}, building its offset table if it is missing or outdated.
+     *
+     * @throws IOException if the list cannot be read, has no words or is larger than 2 GiB
+     */
+    public static Wordlist open(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        MappedByteBuffer words;
+        try (FileChannel channel = FileChannel.open(absolute, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Wordlist larger than 2 GiB: " + absolute);
+            }
+            words = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        long modified = Files.getLastModifiedTime(absolute).toMillis();
+        ByteBuffer offsets = loadIndex(indexOf(absolute), words.capacity(), modified);
+        if (offsets == null) {
+            offsets = buildIndex(absolute, words, modified);
+        }
+        Wordlist wordlist = new Wordlist(absolute, words, offsets);
+        if (wordlist.size() == 0) {
+            throw new IOException("Wordlist has no words: " + absolute);
+        }
+        return wordlist;
+    }
+
+    public static Path indexOf(Path wordlist) {
+        return wordlist.resolveSibling(wordlist.getFileName() + INDEX_SUFFIX);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // CRC32 of the list file, tokens record it to detect retrieval with another list
+    public int getChecksum() {
+        return checksum;
+    }
+
+    // entropy a word drawn uniformly from the list adds to a passphrase
+    public double bitsPerWord() {
+        return Math.log(count) / Math.log(2);
+    }
+
+    public String word(int index) {
+        char[] word = chars(index);
+        try {
+            return new String(word);
+        } finally {
+            Arrays.fill(word, '\0');
+        }
+    }
+
+    /**
+     * Chars of word {@code index}, owned and to be wiped by the caller.
+     *
+     * @throws IllegalArgumentException if index is out of the list
+     */
+    public char[] chars(int index) {
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("Index out of wordlist range: " + index);
+        }
+        int entry = HEADER_LENGTH + index * ENTRY_LENGTH;
+        ByteBuffer bytes = words.duplicate();
+        bytes.limit(offsets.getInt(entry + Integer.BYTES)).position(offsets.getInt(entry));
+        CharBuffer decoded = UTF_8.decode(bytes);
+        char[] word = new char[decoded.remaining()];
+        decoded.get(word);
+        if (decoded.hasArray()) {
+            Arrays.fill(decoded.array(), '\0');
+        }
+        return word;
+    }
+
+    // table of the index file, null if it is missing, malformed or of another version of the list
+    private static ByteBuffer loadIndex(Path index, long listSize, long modified) throws IOException {
+        if (!Files.exists(index)) {
+            return null;
+        }
+        MappedByteBuffer offsets;
+        try (FileChannel channel = FileChannel.open(index, READ)) {
+            if (channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            offsets = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        long count = offsets.getInt(COUNT_OFFSET);
+        if (offsets.getInt(0) != MAGIC || offsets.getLong(SIZE_OFFSET) != listSize || offsets.getLong(MODIFIED_OFFSET) != modified
+                || count < 0 || offsets.capacity() != HEADER_LENGTH + count * ENTRY_LENGTH) {
+            log.info("Rebuilding outdated offset table {}", index);
+            return null;
+        }
+        return offsets;
+    }
+
+    // counts the words in a first pass and records their offsets in a second one, then persists the table
+    private static ByteBuffer buildIndex(Path path, MappedByteBuffer words, long modified) throws IOException {
+        int count = scan(words, null);
+        if (HEADER_LENGTH + (long) count * ENTRY_LENGTH > Integer.MAX_VALUE) {
+            throw new IOException("Wordlist has too many words: " + count);
+        }
+        ByteBuffer offsets = ByteBuffer.allocateDirect(HEADER_LENGTH + count * ENTRY_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(words.duplicate());
+        offsets.putInt(MAGIC).putLong(words.capacity()).putLong(modified).putInt((int) crc.getValue()).putInt(count);
+        scan(words, offsets);
+        offsets.flip();
+        Path index = indexOf(path);
+        Path next = index.resolveSibling(index.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(next, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            ByteBuffer table = offsets.duplicate();
+            while (table.hasRemaining()) {
+                channel.write(table);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            log.warn("Could not store offset table {}, it is rebuilt on every open: {}", index, e.toString());
+            return offsets;
+        }
+        try {
+            Files.move(next, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not store offset table {}, it is rebuilt on every open: {}", index, e.toString());
+        }
+        log.info("Built offset table {} of {} words", index, count);
+        return offsets;
+    }
+
+    // number of words, their start and end offsets are put into offsets if given
+    private static int scan(ByteBuffer words, ByteBuffer offsets) {
+        int size = words.capacity();
+        int pos = hasBom(words) ? BOM.length : 0;
+        int count = 0;
+        while (pos < size) {
+            int end = pos;
+            while (end < size && words.get(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            while (end > pos && isBlank(words.get(end - 1))) {
+                end--;
+            }
+            int start = end;
+            while (start > pos && !isSeparator(words.get(start - 1))) {
+                start--;
+            }
+            if (start < end) {
+                if (offsets != null) {
+                    offsets.putInt(start).putInt(end);
+                }
+                count++;
+            }
+            pos = next;
+        }
+        return count;
+    }
+
+    private static boolean hasBom(ByteBuffer words) {
+        if (words.capacity() < BOM.length) {
+            return false;
+        }
+        for (int i = 0; i < BOM.length; i++) {
+            if (words.get(i) != BOM[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,79 @@
+package com.sam.key.breach;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BreachedHashesTest {
+
+    // SHA-1 of "123456"
+    static final String BREACHED = "7C4A8D09CA3762AF61E59520943DC26494F8941B";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void lookupTest() throws IOException {
+        Random random = new Random(42);
+        TreeSet<String> hashes = new TreeSet<>();
+        while (hashes.size() < 20_000) {
+            hashes.add(randomHash(random));
+        }
+        hashes.add(BREACHED);
+        // hashes at the edges of the prefix range
+        hashes.add("0000000000000000000000000000000000000000");
+        hashes.add("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF");
+        StringBuilder corpus = new StringBuilder();
+        for (String hash : hashes) {
+            corpus.append(hash).append(':').append(random.nextInt(1000) + 1).append("\r\n");
+        }
+        Path file = dir.resolve("pwned.txt");
+        Files.write(file, corpus.toString().getBytes(UTF_8));
+
+        BreachedHashes breached = BreachedHashes.open(file);
+        for (String hash : hashes) {
+            assertTrue(breached.containsHash(hash.getBytes(UTF_8)), hash);
+        }
+        for (int i = 0; i < 20_000; i++) {
+            String hash = randomHash(random);
+            assertEquals(hashes.contains(hash), breached.containsHash(hash.getBytes(UTF_8)), hash);
+        }
+        assertTrue(breached.contains("123456".toCharArray()));
+        assertFalse(breached.contains("1234567".toCharArray()));
+    }
+
+    @Test
+    void lowerCaseWithoutCountsTest() throws IOException {
+        Path file = dir.resolve("pwned.txt");
+        Files.write(file, ("0123456789abcdef0123456789abcdef01234567\n" + BREACHED.toLowerCase() + "\n").getBytes(UTF_8));
+        BreachedHashes breached = BreachedHashes.open(file);
+        assertTrue(breached.contains("123456".toCharArray()));
+        assertTrue(breached.containsHash("0123456789ABCDEF0123456789ABCDEF01234567".getBytes(UTF_8)));
+        assertFalse(breached.containsHash("0123456789ABCDEF0123456789ABCDEF01234568".getBytes(UTF_8)));
+    }
+
+    @Test
+    void notAHashFileTest() throws IOException {
+        Path empty = Files.write(dir.resolve("empty.txt"), new byte[0]);
+        assertThrows(IOException.class, () -> BreachedHashes.open(empty));
+        // NTLM hashes are 32 digits
+        Path ntlm = Files.write(dir.resolve("ntlm.txt"), "32ED87BDB5FDC5E9CBA88547376818D4:1\n".getBytes(UTF_8));
+        assertThrows(IOException.class, () -> BreachedHashes.open(ntlm));
+    }
+
+    private static String randomHash(Random random) {
+        StringBuilder hash = new StringBuilder();
+        for (int i = 0; i < BreachedHashes.HASH_LENGTH; i++) {
+            hash.append(Character.toUpperCase(Character.forDigit(random.nextInt(16), 16)));
+        }
+        return hash.toString();
+    }
+}
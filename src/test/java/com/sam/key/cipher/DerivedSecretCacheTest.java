@@ -0,0 +1,61 @@
+package com.sam.key.cipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DerivedSecretCacheTest {
+
+    final AtomicLong now = new AtomicLong();
+    final AtomicInteger derivations = new AtomicInteger();
+
+    @Test
+    void hitsAndCopiesTest() {
+        try (DerivedSecretCache cache = new DerivedSecretCache(4, Duration.ofMinutes(1), now::get)) {
+            assertEquals(42L, cache.getLong("shift", 1L, "", this::derive));
+            assertEquals(42L, cache.getLong("shift", 1L, "", this::derive));
+            assertEquals(1, derivations.get());
+            char[] alphabet = cache.getChars("alphabet", 1L, "abc", () -> "cab".toCharArray());
+            alphabet[0] = '\0';
+            assertArrayEquals("cab".toCharArray(), cache.getChars("alphabet", 1L, "abc", () -> "xxx".toCharArray()));
+            // kind, input and context all make up the key
+            assertArrayEquals("bca".toCharArray(), cache.getChars("alphabet", 1L, "abcd", () -> "bca".toCharArray()));
+            assertEquals(42L, cache.getLong("shift", 2L, "", this::derive));
+            assertEquals(2, derivations.get());
+            assertEquals(4, cache.size());
+        }
+    }
+
+    @Test
+    void capacityAndTtlEvictionTest() {
+        try (DerivedSecretCache cache = new DerivedSecretCache(2, Duration.ofSeconds(10), now::get)) {
+            cache.getLong("shift", 1L, "", this::derive);
+            cache.getLong("shift", 2L, "", this::derive);
+            cache.getLong("shift", 1L, "", this::derive);
+            cache.getLong("shift", 3L, "", this::derive);
+            // least recently used pin 2 was evicted
+            assertEquals(2, cache.size());
+            assertEquals(3, derivations.get());
+            cache.getLong("shift", 1L, "", this::derive);
+            assertEquals(3, derivations.get());
+            cache.getLong("shift", 2L, "", this::derive);
+            assertEquals(4, derivations.get());
+
+            now.addAndGet(Duration.ofSeconds(11).toNanos());
+            cache.getLong("shift", 2L, "", this::derive);
+            assertEquals(5, derivations.get());
+            cache.close();
+            assertEquals(0, cache.size());
+        }
+        assertThrows(IllegalArgumentException.class, () -> new DerivedSecretCache(0, Duration.ZERO));
+    }
+
+    private long derive() {
+        derivations.incrementAndGet();
+        return 42L;
+    }
+}
@@ -0,0 +1,151 @@
+package com.sam.key.cipher;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeySessionTest {
+
+    static final char[] PASSWORD = "session-test-pw".toCharArray();
+    static final byte[] PLAIN_TEXT = "[12, 7, 99, 0]".getBytes(UTF_8);
+
+    @Test
+    void v3RoundTripTest() throws GeneralSecurityException {
+        try (KeySession session = new KeySession(PASSWORD)) {
+            String first = session.encrypt(PLAIN_TEXT);
+            String second = session.encrypt(PLAIN_TEXT);
+            assertTrue(KeySession.isV3(first));
+            assertNotEquals(first, second);
+            assertArrayEquals(PLAIN_TEXT, session.decrypt(first));
+            assertArrayEquals(PLAIN_TEXT, session.decrypt(second));
+            assertEquals(KdfParams.policy(), KeySession.kdfParamsOf(first));
+            // both tokens share KDF parameters and master salt of the session and differ in token salt
+            byte[] firstBytes = Base64.getDecoder().decode(first.substring(KeySession.V3_PREFIX.length()));
+            byte[] secondBytes = Base64.getDecoder().decode(second.substring(KeySession.V3_PREFIX.length()));
+            for (int i = 0; i < KdfParams.HEADER_LENGTH + Nonce.MEDIUM.getSize(); i++) {
+                assertEquals(firstBytes[i], secondBytes[i]);
+            }
+        }
+    }
+
+    @Test
+    void v3TokenOfOtherSessionTest() throws GeneralSecurityException {
+        String token;
+        try (KeySession session = new KeySession(PASSWORD, KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS))) {
+            token = session.encrypt(PLAIN_TEXT);
+        }
+        // decrypted with the parameters of the token, not the ones of the session
+        try (KeySession session = new KeySession(PASSWORD)) {
+            assertArrayEquals(PLAIN_TEXT, session.decrypt(token));
+        }
+        try (KeySession session = new KeySession("wrong".toCharArray())) {
+            assertThrows(AEADBadTagException.class, () -> session.decrypt(token));
+        }
+    }
+
+    @Test
+    void v2TokenTest() throws GeneralSecurityException {
+        String v2Token;
+        try (KeySession session = new KeySession(PASSWORD)) {
+            v2Token = session.encryptV2(PLAIN_TEXT);
+        }
+        assertTrue(KeySession.isV2(v2Token));
+        assertEquals(KdfParams.LEGACY, KeySession.kdfParamsOf(v2Token));
+        try (KeySession session = new KeySession(PASSWORD)) {
+            assertArrayEquals(PLAIN_TEXT, session.decrypt(v2Token));
+        }
+    }
+
+    @Test
+    void v1TokenTest() throws Exception {
+        String v1Token = AesGcmPw.encrypt(PLAIN_TEXT, new String(PASSWORD));
+        assertFalse(KeySession.isV2(v1Token));
+        assertFalse(KeySession.isV3(v1Token));
+        try (KeySession session = new KeySession(PASSWORD)) {
+            assertArrayEquals(PLAIN_TEXT, session.decrypt(v1Token));
+        }
+        assertArrayEquals(new String(PLAIN_TEXT, UTF_8).toCharArray(), AesGcmPw.decrypt(AesGcmPw.encrypt(PLAIN_TEXT, PASSWORD), PASSWORD));
+        assertEquals(new String(PLAIN_TEXT, UTF_8), AesGcmPw.decrypt(v1Token, new String(PASSWORD)));
+    }
+
+    @Test
+    void tamperedHeaderTest() throws GeneralSecurityException {
+        try (KeySession session = new KeySession(PASSWORD)) {
+            byte[] token = Base64.getDecoder().decode(session.encrypt(PLAIN_TEXT).substring(KeySession.V3_PREFIX.length()));
+            token[KdfParams.HEADER_LENGTH + Nonce.MEDIUM.getSize()] ^= 1;
+            String tampered = KeySession.V3_PREFIX + Base64.getEncoder().encodeToString(token);
+            assertThrows(AEADBadTagException.class, () -> session.decrypt(tampered));
+            assertThrows(GeneralSecurityException.class, () -> session.decrypt(KeySession.V3_PREFIX + "AAAA"));
+            assertThrows(GeneralSecurityException.class, () -> session.decrypt(KeySession.V2_PREFIX + "AAAA"));
+        }
+    }
+
+    @Test
+    void tamperedKdfParamsTest() throws GeneralSecurityException {
+        try (KeySession session = new KeySession(PASSWORD)) {
+            byte[] token = Base64.getDecoder().decode(session.encrypt(PLAIN_TEXT).substring(KeySession.V3_PREFIX.length()));
+            byte[] cheaper = token.clone();
+            // 210_000 -> 144_464 iterations, authenticated as additional data
+            cheaper[2] ^= 1;
+            assertThrows(AEADBadTagException.class, () -> session.decrypt(KeySession.V3_PREFIX + Base64.getEncoder().encodeToString(cheaper)));
+            byte[] unbounded = token.clone();
+            unbounded[1] = 0x7f;
+            assertThrows(GeneralSecurityException.class, () -> session.decrypt(KeySession.V3_PREFIX + Base64.getEncoder().encodeToString(unbounded)));
+            byte[] unknown = token.clone();
+            unknown[0] = 9;
+            assertThrows(GeneralSecurityException.class, () -> session.decrypt(KeySession.V3_PREFIX + Base64.getEncoder().encodeToString(unknown)));
+        }
+    }
+
+    @Test
+    void prewarmTest() throws Exception {
+        String other;
+        try (KeySession session = new KeySession(PASSWORD, KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS))) {
+            other = session.encrypt(PLAIN_TEXT);
+        }
+        try (KeySession session = new KeySession(PASSWORD, KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS))) {
+            session.prewarm().join();
+            assertEquals(1, session.masterKeyCount());
+            session.prewarm(other).join();
+            assertEquals(2, session.masterKeyCount());
+            // encryption and decryption reuse the prewarmed master keys
+            assertArrayEquals(PLAIN_TEXT, session.decrypt(session.encrypt(PLAIN_TEXT)));
+            assertArrayEquals(PLAIN_TEXT, session.decrypt(other));
+            assertEquals(2, session.masterKeyCount());
+            // nothing to derive ahead for v1 and malformed tokens
+            session.prewarm(AesGcmPw.encrypt(PLAIN_TEXT, new String(PASSWORD))).join();
+            session.prewarm(KeySession.V3_PREFIX + "AAAA").join();
+            session.prewarm(KeySession.V2_PREFIX + "not base64!").join();
+            assertEquals(2, session.masterKeyCount());
+        }
+    }
+
+    @Test
+    void rehashTest() throws GeneralSecurityException {
+        String weak;
+        try (KeySession session = new KeySession(PASSWORD, KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS))) {
+            weak = session.encrypt(PLAIN_TEXT);
+            assertFalse(session.needsRehash(weak));
+        }
+        try (KeySession session = new KeySession(PASSWORD, KdfParams.LEGACY)) {
+            assertTrue(session.needsRehash(weak));
+            String upgraded = session.rehash(weak);
+            assertFalse(session.needsRehash(upgraded));
+            assertEquals(KdfParams.LEGACY, KeySession.kdfParamsOf(upgraded));
+            assertArrayEquals(PLAIN_TEXT, session.decrypt(upgraded));
+        }
+    }
+
+    @Test
+    void calibrateTest() throws GeneralSecurityException {
+        assertEquals(KdfParams.MIN_ITERATIONS, KdfParams.calibrate(Duration.ofMillis(1)).getIterations());
+        assertThrows(IllegalArgumentException.class, () -> KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS - 1));
+        assertEquals(KdfParams.LEGACY, KdfParams.policy());
+    }
+}
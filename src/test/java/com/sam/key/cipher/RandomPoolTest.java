@@ -0,0 +1,67 @@
+package com.sam.key.cipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RandomPoolTest {
+
+    @Test
+    void boundedIntsTest() {
+        int[] hits = new int[83];
+        for (int i = 0; i < 83 * 200; i++) {
+            hits[RandomPool.nextInt(83)]++;
+        }
+        for (int hit : hits) {
+            assertTrue(hit > 0);
+        }
+        for (int value : RandomPool.ints(new int[1000], 5, 20)) {
+            assertTrue(value >= 5 && value < 20);
+        }
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> RandomPool.nextInt(7, 7));
+        assertEquals("bound must be positive", exception.getMessage());
+    }
+
+    @Test
+    void nextBytesAcrossBufferBoundaryTest() {
+        byte[] small = new byte[RandomPool.BUFFER_SIZE - 3];
+        byte[] large = new byte[RandomPool.BUFFER_SIZE * 3 + 1];
+        RandomPool.nextBytes(small);
+        RandomPool.nextBytes(large);
+        assertNotEquals(0, sum(small));
+        assertNotEquals(0, sum(large));
+    }
+
+    @Test
+    void reseedIntervalTest() throws Exception {
+        long interval = RandomPool.getReseedInterval();
+        assertThrows(IllegalArgumentException.class, () -> RandomPool.setReseedInterval(0));
+        RandomPool.setReseedInterval(RandomPool.BUFFER_SIZE);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> drawn = pool.submit(() -> {
+                int sum = 0;
+                for (int i = 0; i < RandomPool.BUFFER_SIZE; i++) {
+                    sum += RandomPool.nextInt(10);
+                }
+                return sum;
+            });
+            assertTrue(drawn.get() > 0);
+        } finally {
+            pool.shutdownNow();
+            RandomPool.setReseedInterval(interval);
+        }
+    }
+
+    private static int sum(byte[] bytes) {
+        int sum = 0;
+        for (byte b : bytes) {
+            sum += b & 0xFF;
+        }
+        return sum;
+    }
+}
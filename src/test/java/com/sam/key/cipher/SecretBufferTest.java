@@ -0,0 +1,55 @@
+package com.sam.key.cipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SecretBufferTest {
+
+    @Test
+    void scopedAccessAndWipeTest() {
+        byte[] key = {1, 2, 3, 4};
+        SecretBuffer secret = SecretBuffer.copyOf(key);
+        assertEquals(4, secret.size());
+        byte[][] escaped = new byte[1][];
+        assertEquals(10, (int) secret.applyBytes(bytes -> {
+            escaped[0] = bytes;
+            return bytes[0] + bytes[1] + bytes[2] + bytes[3];
+        }));
+        // the heap copy is wiped once the callback returns
+        assertArrayEquals(new byte[4], escaped[0]);
+        assertTrue(secret.apply(ByteBuffer::isReadOnly));
+        assertEquals(3, (byte) secret.apply(view -> view.get(2)));
+
+        secret.close();
+        secret.close();
+        assertTrue(secret.isClosed());
+        assertThrows(IllegalStateException.class, () -> secret.applyBytes(bytes -> bytes));
+        assertThrows(IllegalStateException.class, secret::getLong);
+        assertFalse(secret.toString().contains("1"));
+    }
+
+    @Test
+    void charsAndLongTest() {
+        try (SecretBuffer chars = SecretBuffer.copyOf("alphabet€".toCharArray());
+             SecretBuffer value = SecretBuffer.copyOf(-4711L)) {
+            assertArrayEquals("alphabet€".toCharArray(), chars.getChars());
+            assertEquals(-4711L, value.getLong());
+        }
+    }
+
+    @Test
+    void masterKeysAreWipedOnSessionCloseTest() throws GeneralSecurityException {
+        SecretBuffer masterKey;
+        try (KeySession session = new KeySession("wipe-test".toCharArray())) {
+            masterKey = session.masterKey(new byte[16], KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS));
+            assertSame(masterKey, session.masterKey(new byte[16], KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS)));
+            assertEquals(32, masterKey.size());
+            assertFalse(masterKey.isClosed());
+        }
+        assertTrue(masterKey.isClosed());
+    }
+}
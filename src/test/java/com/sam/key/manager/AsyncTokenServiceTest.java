@@ -0,0 +1,72 @@
+package com.sam.key.manager;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncTokenServiceTest {
+
+    static final String ENCRYPTION_PW = "async-test-pw";
+    static final long PIN = 13579L;
+
+    @Test
+    void roundTripRunsOnPoolTest() throws Exception {
+        Generator g = new Generator();
+        try (AsyncTokenService service = new AsyncTokenService(g, 2, 4)) {
+            Map<String, String> tokenAndPw = service.generateAsync(20, PIN, ENCRYPTION_PW).get(30, TimeUnit.SECONDS);
+            String thread = service.retrieveAsync(ENCRYPTION_PW, PIN, tokenAndPw.get(TokenEngine.TOKEN))
+                    .thenApply(pw -> {
+                        assertEquals(tokenAndPw.get(TokenEngine.PW), pw);
+                        return Thread.currentThread().getName();
+                    })
+                    .get(30, TimeUnit.SECONDS);
+            assertTrue(thread.startsWith("async-token-"), thread);
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> service.retrieveAsync("wrong-pw", PIN, tokenAndPw.get(TokenEngine.TOKEN)).get(30, TimeUnit.SECONDS));
+            assertInstanceOf(GeneralSecurityException.class, e.getCause());
+        }
+    }
+
+    @Test
+    void fullQueueRejectsAndCancelFreesSlotTest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Generator blocking = new Generator() {
+            @Override
+            public Map<String, String> provideTokenAndPw(int length, long pin, String encryptionPw) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.provideTokenAndPw(length, pin, encryptionPw);
+            }
+        };
+        try (AsyncTokenService service = new AsyncTokenService(blocking, 1, 1)) {
+            CompletableFuture<Map<String, String>> running = service.generateAsync(10, PIN, ENCRYPTION_PW);
+            assertTrue(started.await(30, TimeUnit.SECONDS));
+            CompletableFuture<Map<String, String>> queued = service.generateAsync(10, PIN, ENCRYPTION_PW);
+            CompletableFuture<Map<String, String>> rejected = service.generateAsync(10, PIN, ENCRYPTION_PW);
+            ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+            assertEquals(1, service.getQueueDepth());
+
+            assertTrue(queued.cancel(true));
+            assertEquals(0, service.getQueueDepth());
+            CompletableFuture<Map<String, String>> accepted = service.generateAsync(12, PIN, ENCRYPTION_PW);
+            release.countDown();
+            assertEquals(10, running.get(30, TimeUnit.SECONDS).get(TokenEngine.PW).length());
+            assertEquals(12, accepted.get(30, TimeUnit.SECONDS).get(TokenEngine.PW).length());
+            assertTrue(queued.isCancelled());
+        }
+    }
+}
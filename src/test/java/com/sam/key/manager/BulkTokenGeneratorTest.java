@@ -0,0 +1,42 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.KeySession;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkTokenGeneratorTest {
+
+    static final String ENCRYPTION_PW = "bulk-test-pw";
+    static final long PIN = 24680L;
+
+    @Test
+    void keepsOrderAndStaysRetrievableTest() {
+        Generator g = new Generator();
+        int[] lengths = {5, 30, 12, 78, 1, 44, 20, 9};
+        List<Map<String, String>> tokens;
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray());
+             BulkTokenGenerator bulkGenerator = new BulkTokenGenerator(g.engine(), 3)) {
+            tokens = bulkGenerator.generate(lengths, PIN, session);
+        }
+        assertEquals(lengths.length, tokens.size());
+        for (int i = 0; i < lengths.length; i++) {
+            String pw = tokens.get(i).get(TokenEngine.PW);
+            assertEquals(lengths[i], pw.length());
+            assertEquals(pw, g.getPWfromToken(ENCRYPTION_PW, PIN, tokens.get(i).get(TokenEngine.TOKEN)));
+        }
+    }
+
+    @Test
+    void failedTokenFailsBatchTest() {
+        Generator g = new Generator();
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray());
+             BulkTokenGenerator bulkGenerator = new BulkTokenGenerator(g.engine(), 2)) {
+            Exception exception = assertThrows(IllegalStateException.class, () -> bulkGenerator.generate(new int[]{10, TokenEngine.MAX_PW_LENGTH + 1}, PIN, session));
+            assertTrue(exception.getCause().getMessage().startsWith("Password too long"));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.KeySession;
+import com.sam.key.manager.CharacterPolicy.CharClass;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CharacterPolicyTest {
+
+    static final String ENCRYPTION_PW = "policy-test-pw";
+    final char[] alphabet = new Generator().getReferenceAlphabet();
+
+    @Test
+    void filterTest() {
+        CharacterPolicy policy = CharacterPolicy.NONE.excluding("abc=");
+        assertEquals(new String(new Generator("abc=").getReferenceAlphabet()), new String(policy.filter(alphabet)));
+        assertEquals(alphabet.length - 5, policy.filter(alphabet).length);
+        assertArrayEquals(alphabet, CharacterPolicy.NONE.filter(alphabet));
+        assertTrue(CharacterPolicy.NONE.isUnrestricted());
+        assertFalse(policy.isUnrestricted());
+    }
+
+    @Test
+    void classesTest() {
+        assertTrue(CharClass.LOWER.contains('q'));
+        assertTrue(CharClass.UPPER.contains('Q'));
+        assertTrue(CharClass.DIGIT.contains('7'));
+        assertTrue(CharClass.SYMBOL.contains('$'));
+        assertTrue(CharClass.AMBIGUOUS.contains('0') && CharClass.DIGIT.contains('0'));
+        assertFalse(CharClass.SYMBOL.contains('a'));
+        assertTrue(CharClass.LOWER.contains('ß'));
+    }
+
+    @Test
+    void generatedIndexesMeetPolicyTest() {
+        CharacterPolicy policy = CharacterPolicy.parse("digit:3, symbol:2, upper:1, no-ambiguous, exclude:xyz");
+        assertEquals(6, policy.minimumLength());
+        CharacterPolicy.Table table = policy.compile(alphabet);
+        for (int i = 0; i < 500; i++) {
+            char[] pw = TokenEngine.charsByIndexes(table.generateIndexes(6 + i % 20), alphabet);
+            assertTrue(policy.matches(pw), new String(pw));
+        }
+        assertThrows(IllegalArgumentException.class, () -> table.generateIndexes(5));
+    }
+
+    @Test
+    void unsatisfiablePolicyTest() {
+        assertThrows(IllegalArgumentException.class, () -> CharacterPolicy.parse("digit:1,no-digit").compile(alphabet));
+        assertThrows(IllegalArgumentException.class, () -> CharacterPolicy.NONE.excluding(new String(alphabet)).compile(alphabet));
+        assertThrows(IllegalArgumentException.class, () -> CharacterPolicy.parse("vowel:2"));
+        assertThrows(IllegalArgumentException.class, () -> CharacterPolicy.parse("digit=2"));
+        assertThrows(IllegalArgumentException.class, () -> CharacterPolicy.NONE.requiring(CharClass.DIGIT, -1));
+    }
+
+    @Test
+    void policyTokensRetrievedWithoutPolicyTest() throws Exception {
+        CharacterPolicy policy = CharacterPolicy.parse("digit:4,symbol:4,no-ambiguous");
+        TokenEngine engine = new TokenEngine(alphabet);
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray())) {
+            for (long pin = 1; pin <= 20; pin++) {
+                Map<String, String> tokenAndPw = engine.withPolicy(policy).generate(12, pin, session);
+                assertTrue(policy.matches(tokenAndPw.get(TokenEngine.PW).toCharArray()), tokenAndPw.get(TokenEngine.PW));
+                assertEquals(tokenAndPw.get(TokenEngine.PW), engine.retrieve(tokenAndPw.get(TokenEngine.TOKEN), pin, session));
+            }
+            assertThrows(IllegalArgumentException.class, () -> engine.withPolicy(policy).generate(7, 1L, session));
+        }
+    }
+
+    @Test
+    void generatorPolicyTest() {
+        Generator g = new Generator().setCharacterPolicy(CharacterPolicy.parse("no-upper,no-symbol"));
+        Map<String, String> tokenAndPw = g.provideTokenAndPw(30, 4711L, ENCRYPTION_PW);
+        assertTrue(tokenAndPw.get(TokenEngine.PW).chars().allMatch(c -> Character.isLowerCase(c) || Character.isDigit(c)));
+        assertEquals(tokenAndPw.get(TokenEngine.PW), new Generator().getPWfromToken(ENCRYPTION_PW, 4711L, tokenAndPw.get(TokenEngine.TOKEN)));
+    }
+}
@@ -1,17 +1,24 @@
 package com.sam.key.manager;
 
+import com.sam.key.cipher.KeySession;
 import com.sam.key.manager.Generator.ConsoleReader;
+import com.sam.key.transfer.TokenTransfer;
+import com.sam.key.vault.TokenVault;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -139,10 +146,24 @@ public class GeneratorTest {
         assertEquals(expectedMessage, exception.getMessage());
     }
 
+    @Test
+    void pinAlphabetIsDerivedPerCallTest() throws IOException {
+        // a pin no longer permutes the reference alphabet of the instance, the engine derives the alphabet of a pin per call
+        char[] initialAlphabetState = g.referenceAlphabet;
+        char[] referenceCopy = initialAlphabetState.clone();
+        g.interactivePWGenerationVisible(provideBufferedReaderMock(), provideConsoleReaderMock());
+        assertSame(initialAlphabetState, g.referenceAlphabet);
+        assertArrayEquals(referenceCopy, g.referenceAlphabet);
+
+        char[] pinAlphabet = g.engine().alphabetFor(PIN);
+        assertFalse(Arrays.equals(g.referenceAlphabet, pinAlphabet));
+        assertArrayEquals(pinAlphabet, g.engine().alphabetFor(PIN));
+        assertFalse(Arrays.equals(pinAlphabet, g.engine().alphabetFor(PIN + 1)));
+    }
+
     @Test
     void randomizeAlphabetTest() {
         char[] testAlphabet = g.referenceAlphabet;
-        assertNotEquals(g.alphabet, g.referenceAlphabet);
         long seed = PERMUTATION_SEED;
         char[] randomizedAlphabet = g.randomizeAlphabet(seed, g.referenceAlphabet);
         assertNotNull(randomizedAlphabet);
@@ -255,7 +276,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderMock();
         ConsoleReader cr = provideConsoleReaderMock();
         g.interactiveTokenGenerationHidden(br, cr);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
     }
 
     @Test
@@ -265,7 +285,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderMock();
         ConsoleReader cr = provideConsoleReaderMock();
         g.interactivePWGenerationHidden(br, cr);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
     }
 
     @Test
@@ -275,7 +294,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderMock();
         ConsoleReader cr = provideConsoleReaderMock();
         g.interactivePWGenerationVisible(br, cr);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
     }
 
     @Test
@@ -285,7 +303,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderMock();
         char[] pwd = {'a', 'b', 'c', 'd'};
         g.alphabetSeedRequest(br, pwd);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
     }
 
     @Test
@@ -304,7 +321,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderMock();
         char[] pwd = {'a', 'b', 'c', 'd'};
         g.alphabetSeedRequest(br, pwd);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
     }
 
     @Test
@@ -323,7 +339,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderLongMock();
         ConsoleReader cr = provideConsoleReaderNullMock();
         g.interactiveGenerator(false, false, br, cr);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
     }
 
     @Test
@@ -334,7 +349,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderMock();
         ConsoleReader cr = provideConsoleReaderMock();
         g.interactiveTokenGenerationVisible(br, cr);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
     }
 
     @Test
@@ -347,7 +361,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderTokenMock();
         ConsoleReader cr = provideConsoleReaderMock();
         g.interactivePWRetrieve(true, cr, br);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
 
         g.referenceAlphabet = referenceAlphabetBackup;
     }
@@ -362,7 +375,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderTokenMock();
         ConsoleReader cr = provideConsoleReaderMock();
         g.interactivePWRetrieve(false, cr, br);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
 
         g.referenceAlphabet = referenceAlphabetBackup;
     }
@@ -377,7 +389,6 @@ public class GeneratorTest {
         BufferedReader br = provideBufferedReaderInvalidTokenMock();
         ConsoleReader cr = provideConsoleReaderNullMock();
         g.interactivePWRetrieve(false, cr, br);
-        assertNotEquals(initialAlphabetState, g.referenceAlphabet);
         g.referenceAlphabet = referenceAlphabetBackup;
     }
 
@@ -390,6 +401,17 @@ public class GeneratorTest {
         Mockito.verify(generatorSpy, Mockito.times(1)).interactiveGeneratorOnNull(br, 10, 20, 1, true, false, pw);
     }
 
+    @Test
+    void interactiveBulkGenerationVisibleTest() throws IOException {
+        Generator generatorSpy = Mockito.spy(g);
+        BufferedReader br = provideBufferedReaderMock();
+        ConsoleReader cr = provideConsoleReaderMock();
+        generatorSpy.interactiveBulkGenerationVisible(br, cr);
+        // the session of the entered password, prewarmed while the remaining input is typed
+        Mockito.verify(generatorSpy, Mockito.times(1)).printMultipleRandomPWsParallel(Mockito.eq(PERMUTATION_SEED), Mockito.eq(MIN_PW_LENGTH),
+                Mockito.eq(MAX_PW_LENGTH), Mockito.eq((long) PIN), Mockito.eq(false), Mockito.eq(false), Mockito.any(KeySession.class));
+    }
+
     @Test
     void printCharArrayNullTest() {
         Exception exception = assertThrows(Exception.class, () -> g.printCharArrayToString(null));
@@ -403,13 +425,13 @@ public class GeneratorTest {
         for (int j = 0; j < 100; j++) {
             long tempPin = SecureRandom.getInstanceStrong().nextLong();
             int tempPWLength = (int) Math.ceil((OBFUSCATION_ARRAY_SIZE - 22) * Math.random());
-            g.alphabet = g.randomizeAlphabet(tempPin, g.referenceAlphabet);
+            char[] alphabet = g.randomizeAlphabet(tempPin, g.referenceAlphabet);
             int[] indexes = g.generateIndexes(tempPWLength, tempPin);
             String encryptionPW = provideMockPassword();
             String token = g.provideObfuscatedEncodedIndexes(g.encoder, indexes, tempPin, encryptionPW);
             StringBuilder encodedPW = new StringBuilder();
             for (int index : indexes) {
-                encodedPW.append(g.alphabet[index]);
+                encodedPW.append(alphabet[index]);
             }
             int[] resultIndexes = g.provideClearDecodedIndexes(g.decoder, token, tempPin, encryptionPW);
             String decodedPW = g.generateByIndexes(resultIndexes, tempPin);
@@ -430,6 +452,118 @@ public class GeneratorTest {
         assertEquals(pw, decryptedPw);
     }
 
+    @Test
+    void v1TokenRetrievalTest() throws IOException {
+        g.setReferenceAlphabet(UTILIZED_REFERENCE_ALPHABET);
+        String v1Token = provideBufferedReaderTokenMock().readLine();
+        assertEquals(")sc8l[vD$jGIRZUY5(;[", g.getPWfromToken(Integer.toString(PERMUTATION_SEED), PIN, v1Token));
+        assertArrayEquals(")sc8l[vD$jGIRZUY5(;[".toCharArray(), g.getPWfromToken(Integer.toString(PERMUTATION_SEED).toCharArray(), PIN, v1Token));
+    }
+
+    @Test
+    void charArraySecretsTest() {
+        long pin = (long) (Long.MAX_VALUE * Math.random());
+        char[] encryptionPw = provideMockPassword().toCharArray();
+        String token;
+        char[] pw;
+        try (SecretToken secretToken = g.provideTokenAndPw(40, pin, encryptionPw)) {
+            token = secretToken.getToken();
+            pw = secretToken.getPw().clone();
+            assertEquals(40, pw.length);
+            assertFalse(secretToken.toString().contains(new String(pw)));
+            // the session works on a copy, the caller's password stays intact
+            assertEquals(new String(pw), g.getPWfromToken(new String(encryptionPw), pin, token));
+            assertArrayEquals(pw, g.getPWfromToken(encryptionPw, pin, token));
+            assertArrayEquals(new char[0], g.getPWfromToken("wrong".toCharArray(), pin, token));
+            // closing wipes the pw
+            secretToken.close();
+            assertArrayEquals(new char[40], secretToken.getPw());
+        }
+    }
+
+    @Test
+    void parsePinWipesInputTest() {
+        char[] pin = "-12345".toCharArray();
+        assertEquals(-12345L, Generator.parsePin(pin));
+        assertArrayEquals(new char[6], pin);
+        assertThrows(NumberFormatException.class, () -> Generator.parsePin("12a".toCharArray()));
+        assertThrows(NullPointerException.class, () -> Generator.parsePin(null));
+    }
+
+    @Test
+    void provideTokenAndPwSessionTest() {
+        long pin = (long) (Long.MAX_VALUE * Math.random());
+        String encryptionPw = provideMockPassword();
+        try (KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            for (int i = 0; i < 5; i++) {
+                Map<String, String> tokenAndPw = g.provideTokenAndPw(MIN_PW_LENGTH + i, pin, session);
+                assertTrue(KeySession.isV3(tokenAndPw.get("token")));
+                assertEquals(tokenAndPw.get("pw"), g.getPWfromToken(encryptionPw, pin, tokenAndPw.get("token")));
+            }
+        }
+    }
+
+    @Test
+    void generatedTokensAreStoredInVaultTest(@TempDir Path dir) throws IOException {
+        String encryptionPw = provideMockPassword();
+        try (TokenVault vault = TokenVault.open(dir.resolve("tokens.vault"))) {
+            g.setVault(vault);
+            BufferedReader br = Mockito.mock(BufferedReader.class);
+            Mockito.when(br.readLine()).thenReturn(" mail ");
+            g.requestVaultLabel(br);
+            g.printMultipleRandomPWs(MIN_PW_LENGTH, MAX_PW_LENGTH, 3, PIN, true, true, encryptionPw);
+            assertEquals(List.of("mail", "mail-2", "mail-3"), vault.labels());
+            String token = vault.get("mail-2").orElseThrow().getToken();
+            assertEquals(token, g.resolveToken("mail-2"));
+            assertEquals("unknown", g.resolveToken("unknown"));
+            assertFalse(g.getPWfromToken(encryptionPw, PIN, token).isEmpty());
+        }
+    }
+
+    @Test
+    void transferredFilteredTokenIsRetrievedByLabelTest(@TempDir Path dir) throws Exception {
+        String encryptionPw = provideMockPassword();
+        Path export = dir.resolve("tokens.jsonl");
+        Generator filtered = new Generator("aeiou$&");
+        Map<String, String> tokenAndPw;
+        try (TokenVault vault = TokenVault.open(dir.resolve("source.vault"))) {
+            filtered.setVault(vault);
+            filtered.vaultLabel = "mail";
+            tokenAndPw = filtered.provideTokenAndPw(MAX_PW_LENGTH, PIN, encryptionPw);
+            filtered.storeInVault(tokenAndPw.get("token"));
+            assertEquals(1, TokenTransfer.exportTo(vault, export));
+        }
+        try (TokenVault vault = TokenVault.open(dir.resolve("target.vault"));
+             KeySession session = new KeySession(encryptionPw.toCharArray())) {
+            assertEquals(1, TokenTransfer.importFrom(export, vault));
+            assertEquals("aeiou$&", vault.get("mail").orElseThrow().getAlphabetFilter());
+            g.setVault(vault);
+            assertEquals(tokenAndPw.get("pw"), g.retrievePw(session, PIN, "mail"));
+            assertNotEquals(tokenAndPw.get("pw"), g.retrievePw(session, PIN, tokenAndPw.get("token")));
+        }
+    }
+
+    @Test
+    void retrievePwsFromFileTest(@TempDir Path dir) throws IOException {
+        String encryptionPw = provideMockPassword();
+        List<String> tokens = new ArrayList<>();
+        List<String> pws = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Map<String, String> tokenAndPw = g.provideTokenAndPw(MIN_PW_LENGTH + i, PIN, encryptionPw);
+            tokens.add(tokenAndPw.get("token"));
+            pws.add(tokenAndPw.get("pw"));
+        }
+        // broken Base64 on line 6
+        tokens.set(5, "v2.%%%");
+        pws.set(5, "");
+        Path tokenFile = Files.write(dir.resolve("tokens.txt"), tokens);
+        Path pwFile = dir.resolve("pws.txt");
+        OrderedLineProcessor.Result result = g.retrievePwsFromFile(tokenFile, pwFile, PIN, encryptionPw);
+        assertEquals(20, result.getLines());
+        assertEquals(1, result.getFailures());
+        assertEquals(pws, Files.readAllLines(pwFile));
+    }
+
     private BufferedReader provideBufferedReaderMock() throws IOException {
         BufferedReader brMock = Mockito.mock(BufferedReader.class);
         Mockito.when(brMock.readLine()).thenReturn(Integer.toString(PERMUTATION_SEED), Integer.toString(MIN_PW_LENGTH), Integer.toString(MAX_PW_LENGTH), Integer.toString(NO_PWS), String.valueOf("Test"));
@@ -0,0 +1,96 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.KeySession;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexCodecTest {
+
+    @Test
+    void packedRoundTripTest() {
+        int[] values = new int[Generator.OBFUSCATION_ARRAY_SIZE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i * 37) % Generator.OBFUSCATION_ARRAY_SIZE;
+        }
+        byte[] packed = IndexCodec.encode(values);
+        assertEquals(IndexCodec.HEADER_LENGTH + 88, packed.length);
+        assertEquals(7, packed[1]);
+        assertArrayEquals(values, IndexCodec.decode(packed));
+        assertArrayEquals(new int[0], IndexCodec.decode(IndexCodec.encode(new int[0])));
+        assertArrayEquals(new int[]{0, 0, 1}, IndexCodec.decode(IndexCodec.encode(new int[]{0, 0, 1})));
+        assertArrayEquals(new int[]{Integer.MAX_VALUE, 3}, IndexCodec.decode(IndexCodec.encode(new int[]{Integer.MAX_VALUE, 3})));
+    }
+
+    @Test
+    void blockRoundTripTest() {
+        int[] values = new int[256];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i * 37) % values.length;
+        }
+        byte[] block = IndexCodec.encodeBlock(values, 200, 31);
+        assertTrue(IndexCodec.isBlock(block));
+        assertFalse(IndexCodec.isPacked(block));
+        assertEquals(IndexCodec.BLOCK_HEADER_LENGTH + 256, block.length);
+        assertEquals(256, IndexCodec.blockSize(block));
+        assertEquals(200, IndexCodec.blockLength(block));
+        assertEquals(31, IndexCodec.blockStart(block));
+        assertArrayEquals(values, IndexCodec.decode(block));
+        assertThrows(IllegalArgumentException.class, () -> IndexCodec.decode(Arrays.copyOf(block, block.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> IndexCodec.decode(new byte[]{IndexCodec.FORMAT_BLOCK, 8, 0, 1}));
+        assertThrows(IllegalArgumentException.class, () -> IndexCodec.encodeBlock(values, 1 << 16, 0));
+    }
+
+    @Test
+    void passphraseRoundTripTest() {
+        int[] values = {7775, 0, 4711, 12, 3000};
+        byte[] passphrase = IndexCodec.encodePassphrase(values, 3, 1, 7776, 0xCAFEBABE, '-');
+        assertTrue(IndexCodec.isPassphrase(passphrase));
+        assertFalse(IndexCodec.isBlock(passphrase));
+        assertEquals(IndexCodec.PASSPHRASE_HEADER_LENGTH + 9, passphrase.length);
+        assertEquals(3, IndexCodec.blockLength(passphrase));
+        assertEquals(1, IndexCodec.blockStart(passphrase));
+        assertEquals(7776, IndexCodec.wordCount(passphrase));
+        assertEquals(0xCAFEBABE, IndexCodec.wordlistChecksum(passphrase));
+        assertEquals('-', IndexCodec.separator(passphrase));
+        assertArrayEquals(values, IndexCodec.decode(passphrase));
+        byte[] reencoded = IndexCodec.reencodeBlock(passphrase, new int[]{1, 2, 3, 4, 5}, 2, 0);
+        assertEquals(0xCAFEBABE, IndexCodec.wordlistChecksum(reencoded));
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, IndexCodec.decode(reencoded));
+        assertThrows(IllegalArgumentException.class, () -> IndexCodec.wordCount(new byte[]{IndexCodec.FORMAT_PASSPHRASE, 8}));
+    }
+
+    @Test
+    void legacyPayloadDetectedTest() {
+        int[] values = {12, 7, 99, 0, 45};
+        byte[] legacy = TokenEngine.base64Encoding(values).getBytes(UTF_8);
+        assertFalse(IndexCodec.isPacked(legacy));
+        assertArrayEquals(values, IndexCodec.decode(legacy));
+    }
+
+    @Test
+    void malformedPayloadTest() {
+        byte[] packed = IndexCodec.encode(new int[]{1, 2, 3, 4});
+        assertThrows(IllegalArgumentException.class, () -> IndexCodec.decode(new byte[]{IndexCodec.FORMAT_PACKED, 7}));
+        assertThrows(IllegalArgumentException.class, () -> IndexCodec.decode(Arrays.copyOf(packed, packed.length - 1)));
+        packed[1] = 0;
+        assertThrows(IllegalArgumentException.class, () -> IndexCodec.decode(packed));
+        assertThrows(IllegalArgumentException.class, () -> IndexCodec.encode(new int[]{-1}));
+    }
+
+    @Test
+    void packedTokensAreShorterTest() throws Exception {
+        TokenEngine engine = new TokenEngine(new Generator().getReferenceAlphabet());
+        try (KeySession session = new KeySession("codec-test-pw".toCharArray())) {
+            Map<String, String> tokenAndPw = engine.generate(40, 12345L, session);
+            String token = tokenAndPw.get(TokenEngine.TOKEN);
+            assertTrue(IndexCodec.isPacked(session.decrypt(token)));
+            assertTrue(token.length() < 250, token);
+            assertEquals(tokenAndPw.get(TokenEngine.PW), engine.retrieve(token, 12345L, session));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.sam.key.manager;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderedLineProcessorTest {
+
+    @Test
+    void keepsInputOrderTest() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            input.append(i).append('\n');
+            expected.append(i * 2).append('\n');
+        }
+        StringWriter out = new StringWriter();
+        try (OrderedLineProcessor processor = new OrderedLineProcessor(4, 8)) {
+            OrderedLineProcessor.Result result = processor.process(new BufferedReader(new StringReader(input.toString())), out,
+                    (lineNumber, line) -> {
+                        // later lines finish earlier
+                        Thread.sleep((500 - lineNumber) % 3);
+                        return Integer.toString(Integer.parseInt(line) * 2);
+                    }, (lineNumber, e) -> fail(e));
+            assertEquals(500, result.getLines());
+            assertEquals(0, result.getFailures());
+        }
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    @Test
+    void failuresAreReportedWithLineNumberTest() throws IOException {
+        List<Long> failedLines = new ArrayList<>();
+        StringWriter out = new StringWriter();
+        try (OrderedLineProcessor processor = new OrderedLineProcessor(2)) {
+            OrderedLineProcessor.Result result = processor.process(new BufferedReader(new StringReader("1\nx\n3\n\n5")), out,
+                    (lineNumber, line) -> Integer.toString(Integer.parseInt(line)),
+                    (lineNumber, e) -> {
+                        assertTrue(e instanceof NumberFormatException);
+                        failedLines.add(lineNumber);
+                    });
+            assertEquals(5, result.getLines());
+            assertEquals(2, result.getFailures());
+        }
+        assertEquals(List.of(2L, 4L), failedLines);
+        assertEquals("1\n\n3\n\n5\n", out.toString());
+    }
+
+    @Test
+    void inFlightLinesAreBoundedTest() throws IOException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        BufferedReader in = new BufferedReader(new StringReader("")) {
+            int lines;
+
+            @Override
+            public String readLine() {
+                if (lines == 1000) {
+                    return null;
+                }
+                lines++;
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                return "line";
+            }
+        };
+        try (OrderedLineProcessor processor = new OrderedLineProcessor(2, 5)) {
+            processor.process(in, new StringWriter() {
+                @Override
+                public void write(int c) {
+                    inFlight.decrementAndGet();
+                }
+            }, (lineNumber, line) -> line, (lineNumber, e) -> fail(e));
+        }
+        // the line read while the window is full is not yet submitted
+        assertTrue(maxInFlight.get() <= 6, "max in flight " + maxInFlight.get());
+    }
+}
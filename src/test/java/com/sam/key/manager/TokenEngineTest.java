@@ -0,0 +1,283 @@
+package com.sam.key.manager;
+
+import com.sam.key.breach.BreachedHashes;
+import com.sam.key.cipher.KeySession;
+import com.sam.key.wordlist.Wordlist;
+import org.apache.commons.math3.random.MersenneTwister;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenEngineTest {
+
+    static final String ENCRYPTION_PW = "engine-test-pw";
+    final TokenEngine engine = new TokenEngine(new Generator().getReferenceAlphabet());
+
+    @Test
+    void everyPinGetsItsOwnAlphabetTest() throws Exception {
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray())) {
+            Map<String, String> first = engine.generate(30, 12345L, session);
+            Map<String, String> second = engine.generate(30, 98765L, session);
+            assertEquals(first.get(TokenEngine.PW), engine.retrieve(first.get(TokenEngine.TOKEN), 12345L, session));
+            assertEquals(second.get(TokenEngine.PW), engine.retrieve(second.get(TokenEngine.TOKEN), 98765L, session));
+            assertNotEquals(new String(engine.alphabetFor(12345L)), new String(engine.alphabetFor(98765L)));
+        }
+    }
+
+    @Test
+    void interchangeableWithGeneratorTest() throws Exception {
+        long pin = 4711L;
+        Map<String, String> tokenAndPw = new Generator().provideTokenAndPw(40, pin, ENCRYPTION_PW);
+        assertEquals(tokenAndPw.get(TokenEngine.PW), engine.retrieve(tokenAndPw.get(TokenEngine.TOKEN), pin, ENCRYPTION_PW));
+        tokenAndPw = engine.generate(40, pin, ENCRYPTION_PW);
+        assertEquals(tokenAndPw.get(TokenEngine.PW), new Generator().getPWfromToken(ENCRYPTION_PW, pin, tokenAndPw.get(TokenEngine.TOKEN)));
+    }
+
+    @Test
+    void sharedAcrossThreadsTest() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray())) {
+            List<Future<Boolean>> roundTrips = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                long pin = 1000L + i;
+                int length = 10 + i;
+                roundTrips.add(pool.submit(() -> {
+                    Map<String, String> tokenAndPw = engine.generate(length, pin, session);
+                    return tokenAndPw.get(TokenEngine.PW).equals(engine.retrieve(tokenAndPw.get(TokenEngine.TOKEN), pin, session));
+                }));
+            }
+            for (Future<Boolean> roundTrip : roundTrips) {
+                assertTrue(roundTrip.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void malformedTokenTest() {
+        assertThrows(IllegalArgumentException.class, () -> engine.retrieve("v2.%%%", 1L, ENCRYPTION_PW));
+        assertThrows(IllegalArgumentException.class, () -> TokenEngine.clearObfuscatedIndexes(new int[3], 1L, 0L));
+    }
+
+    @Test
+    void permutationMatchesBoxedShuffleTest() {
+        char[] reference = new Generator().getReferenceAlphabet();
+        char[] withSeparators = "ab, cd ,ef g,h i".toCharArray();
+        for (long seed : new long[]{0L, 1L, 12345L, -98765L, Long.MAX_VALUE, Long.MIN_VALUE, 4711L}) {
+            for (int size = 0; size <= reference.length; size++) {
+                char[] alphabet = Arrays.copyOf(reference, size);
+                assertArrayEquals(boxedRandomizeAlphabet(seed, alphabet), TokenEngine.randomizeAlphabet(seed, alphabet));
+            }
+            assertArrayEquals(boxedRandomizeAlphabet(seed, withSeparators), TokenEngine.randomizeAlphabet(seed, withSeparators));
+        }
+    }
+
+    @Test
+    void alphabetForMatchesBoxedShuffleTest() {
+        char[] reference = new Generator().getReferenceAlphabet();
+        for (long pin : new long[]{1L, 12345L, 98765L, 4711L, 999999999L}) {
+            char[] seeded = boxedRandomizeAlphabet(TokenEngine.convertCharToLong(Long.toString(pin).toCharArray()), reference);
+            assertArrayEquals(boxedRandomizeAlphabet(pin, seeded), engine.alphabetFor(pin));
+        }
+    }
+
+    @Test
+    void intPermutationMatchesBoxedShuffleTest() {
+        Generator g = new Generator();
+        for (long seed : new long[]{0L, 12345L, -1L}) {
+            int[] values = new int[64];
+            List<Integer> boxed = new ArrayList<>();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i;
+                boxed.add(i);
+            }
+            g.shuffle(boxed, new MersenneTwister(seed));
+            TokenEngine.permute(values, TokenEngine.mersenneTwister(seed));
+            assertArrayEquals(boxed.stream().mapToInt(Integer::intValue).toArray(), values);
+        }
+    }
+
+    @Test
+    void shiftValueMatchesCycledTwisterTest() {
+        for (long pin : new long[]{0L, 1L, 12345L, -98765L, 999_999_999_999L, Long.MAX_VALUE, Long.MIN_VALUE, 4711L}) {
+            assertEquals(cycledShiftValue(pin), TokenEngine.provideShiftValue(pin), "pin " + pin);
+        }
+        assertEquals(0, TokenEngine.provideShiftValue(0L));
+    }
+
+    @Test
+    void derivedSecretsAreCachedPerSessionTest() throws Exception {
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray())) {
+            Map<String, String> first = engine.generate(20, 12345L, session);
+            // password hash, shift value and alphabet of the pin
+            assertEquals(3, session.derivedSecrets().size());
+            Map<String, String> second = engine.generate(20, 12345L, session);
+            assertEquals(3, session.derivedSecrets().size());
+            assertEquals(first.get(TokenEngine.PW), engine.retrieve(first.get(TokenEngine.TOKEN), 12345L, session));
+            assertEquals(second.get(TokenEngine.PW), engine.retrieve(second.get(TokenEngine.TOKEN), 12345L, session));
+            // other reference alphabet, same session and pin
+            TokenEngine filtered = new TokenEngine(new Generator("abc").getReferenceAlphabet());
+            Map<String, String> third = filtered.generate(20, 12345L, session);
+            assertEquals(4, session.derivedSecrets().size());
+            assertFalse(third.get(TokenEngine.PW).matches(".*[abc].*"));
+            assertEquals(third.get(TokenEngine.PW), filtered.retrieve(third.get(TokenEngine.TOKEN), 12345L, ENCRYPTION_PW));
+        }
+    }
+
+    @Test
+    void charArraySecretsMatchStringsTest() {
+        for (long pin : new long[]{0L, 7L, 12345L, -98765L, Long.MAX_VALUE, Long.MIN_VALUE, 1_000_000_000_000L}) {
+            assertEquals(TokenEngine.convertCharToLong(Long.toString(pin).toCharArray()), TokenEngine.convertPinToLong(pin), "pin " + pin);
+        }
+        for (String pw : new String[]{"", "1", ENCRYPTION_PW, "pässwörd-€-\uD83D\uDD11", "unpaired-\uD800"}) {
+            assertEquals(TokenEngine.transformPwToHashedLong(pw), TokenEngine.transformPwToHashedLong(pw.toCharArray()), pw);
+        }
+    }
+
+    @Test
+    void secretTokenRoundTripTest() throws Exception {
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray());
+             SecretToken secretToken = engine.generateSecret(25, 4711L, session)) {
+            char[] pw = engine.retrieveChars(secretToken.getToken(), 4711L, session);
+            assertArrayEquals(secretToken.getPw(), pw);
+            assertEquals(new String(pw), engine.retrieve(secretToken.getToken(), 4711L, ENCRYPTION_PW));
+        }
+    }
+
+    @Test
+    void longPwBlockRoundTripTest() throws Exception {
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray());
+             KeySession rotated = new KeySession("engine-test-pw-2".toCharArray())) {
+            Map<String, String> array = engine.generate(TokenEngine.MAX_ARRAY_PW_LENGTH, 4711L, session);
+            assertTrue(IndexCodec.isPacked(session.decrypt(array.get(TokenEngine.TOKEN))));
+            for (int length : new int[]{TokenEngine.MAX_ARRAY_PW_LENGTH + 1, 128, 200, 256, TokenEngine.MAX_PW_LENGTH}) {
+                Map<String, String> tokenAndPw = engine.generate(length, 4711L, session);
+                String token = tokenAndPw.get(TokenEngine.TOKEN);
+                byte[] payload = session.decrypt(token);
+                assertTrue(IndexCodec.isBlock(payload));
+                assertEquals(TokenEngine.blockSizeOf(length), IndexCodec.blockSize(payload));
+                assertTrue(IndexCodec.blockSize(payload) >= length + Generator.OBFUSCATION_OFFSET);
+                assertEquals(length, tokenAndPw.get(TokenEngine.PW).length());
+                assertEquals(tokenAndPw.get(TokenEngine.PW), engine.retrieve(token, 4711L, session));
+                String reencrypted = engine.reencrypt(token, 4711L, session, rotated);
+                assertEquals(tokenAndPw.get(TokenEngine.PW), engine.retrieve(reencrypted, 4711L, rotated));
+                // the noise and PW indexes of another pin fall outside their ranges
+                assertThrows(IllegalArgumentException.class, () -> engine.reencrypt(token, 4712L, session, rotated));
+            }
+            assertThrows(IllegalArgumentException.class, () -> engine.generate(TokenEngine.MAX_PW_LENGTH + 1, 4711L, session));
+        }
+    }
+
+    @Test
+    void blockSizeTest() {
+        assertEquals(TokenEngine.MIN_BLOCK_SIZE, TokenEngine.blockSizeOf(TokenEngine.MAX_ARRAY_PW_LENGTH + 1));
+        assertEquals(128, TokenEngine.blockSizeOf(128 - Generator.OBFUSCATION_OFFSET));
+        assertEquals(256, TokenEngine.blockSizeOf(128 - Generator.OBFUSCATION_OFFSET + 1));
+        assertEquals(TokenEngine.MAX_BLOCK_SIZE, TokenEngine.blockSizeOf(TokenEngine.MAX_PW_LENGTH));
+    }
+
+    @Test
+    void passphraseRoundTripTest(@TempDir Path dir) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 7776; i++) {
+            lines.add(Integer.toString(i, 6) + "\tword" + i);
+        }
+        Path file = Files.write(dir.resolve("words.txt"), lines);
+        Path other = Files.write(dir.resolve("other.txt"), lines.subList(0, 7000));
+        TokenEngine passphrases = engine.withWordlist(Wordlist.open(file));
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray());
+             KeySession rotated = new KeySession("engine-test-pw-2".toCharArray())) {
+            for (int words : new int[]{1, 6, 12, 40}) {
+                Map<String, String> tokenAndPw = passphrases.generatePassphrase(words, ' ', 4711L, session);
+                String passphrase = tokenAndPw.get(TokenEngine.PW);
+                assertEquals(words, passphrase.split(" ").length);
+                assertTrue(passphrase.startsWith("word"), passphrase);
+                String token = tokenAndPw.get(TokenEngine.TOKEN);
+                assertTrue(IndexCodec.isPassphrase(session.decrypt(token)));
+                assertEquals(passphrase, passphrases.retrieve(token, 4711L, session));
+                assertEquals(passphrase, passphrases.retrieve(passphrases.reencrypt(token, 4711L, session, rotated), 4711L, rotated));
+                assertThrows(IllegalArgumentException.class, () -> engine.retrieve(token, 4711L, session));
+                assertThrows(IllegalArgumentException.class, () -> engine.withWordlist(Wordlist.open(other)).retrieve(token, 4711L, session));
+            }
+            assertThrows(IllegalArgumentException.class, () -> passphrases.generatePassphrase(0, ' ', 4711L, session));
+            assertThrows(IllegalStateException.class, () -> engine.generatePassphrase(6, ' ', 4711L, session));
+        }
+        Generator g = new Generator().setWordlist(Wordlist.open(file));
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray())) {
+            Map<String, String> tokenAndPw = g.provideTokenAndPassphrase(8, 4711L, session);
+            assertEquals(7, tokenAndPw.get(TokenEngine.PW).chars().filter(c -> c == Generator.PASSPHRASE_SEPARATOR).count());
+            assertEquals(tokenAndPw.get(TokenEngine.PW), g.getPWfromToken(ENCRYPTION_PW, 4711L, tokenAndPw.get(TokenEngine.TOKEN)));
+        }
+    }
+
+    @Test
+    void breachedPwsRedrawnTest(@TempDir Path dir) throws Exception {
+        // every lower case PW of one character is breached
+        char[] alphabet = engine.getReferenceAlphabet();
+        TreeSet<String> lowerCase = new TreeSet<>();
+        TreeSet<String> all = new TreeSet<>();
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        for (char c : alphabet) {
+            String hash = toHex(sha1.digest(String.valueOf(c).getBytes(UTF_8)));
+            all.add(hash);
+            if (Character.isLowerCase(c)) {
+                lowerCase.add(hash);
+            }
+        }
+        TokenEngine checked = engine.withBreachedHashes(BreachedHashes.open(Files.write(dir.resolve("lower.txt"), lowerCase)));
+        try (KeySession session = new KeySession(ENCRYPTION_PW.toCharArray())) {
+            for (int i = 0; i < 50; i++) {
+                Map<String, String> tokenAndPw = checked.generate(1, 4711L, session);
+                assertFalse(Character.isLowerCase(tokenAndPw.get(TokenEngine.PW).charAt(0)), tokenAndPw.get(TokenEngine.PW));
+                assertEquals(tokenAndPw.get(TokenEngine.PW), engine.retrieve(tokenAndPw.get(TokenEngine.TOKEN), 4711L, session));
+            }
+            TokenEngine exhausted = engine.withBreachedHashes(BreachedHashes.open(Files.write(dir.resolve("all.txt"), all)));
+            assertThrows(IllegalArgumentException.class, () -> exhausted.generate(1, 4711L, session));
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02X", b));
+        }
+        return hex.toString();
+    }
+
+    // pre-TokenEngine implementation, shift values must stay identical to keep issued tokens retrievable
+    static int cycledShiftValue(long pin) {
+        int cycles = TokenEngine.sumDigits(pin);
+        long maskNumber = -1;
+        for (int i = 0; i < cycles; i++) {
+            maskNumber = Math.abs(new MersenneTwister(pin).nextLong());
+        }
+        double p = ((double) maskNumber / (double) Long.MAX_VALUE);
+        return (int) Math.ceil(Generator.OBFUSCATION_ARRAY_SIZE * p);
+    }
+
+    // pre-TokenEngine implementation, permutations must stay identical to keep issued tokens retrievable
+    static char[] boxedRandomizeAlphabet(long seed, char[] alphabet) {
+        List<Character> list = new ArrayList<>();
+        for (char c : alphabet) {
+            list.add(c);
+        }
+        new Generator().shuffle(list, new MersenneTwister(seed));
+        String str = list.toString().replace(",", "");
+        return str.substring(1, str.length() - 1).replace(" ", "").toCharArray();
+    }
+}
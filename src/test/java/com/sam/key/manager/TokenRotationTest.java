@@ -0,0 +1,112 @@
+package com.sam.key.manager;
+
+import com.sam.key.cipher.KdfParams;
+import com.sam.key.cipher.KeySession;
+import com.sam.key.vault.TokenVault;
+import com.sam.key.vault.VaultEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenRotationTest {
+
+    static final long PIN = 97531L;
+    static final long OTHER_PIN = 13579L;
+    static final KdfParams FAST = KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS);
+    static final TokenEngine ENGINE = new TokenEngine(new Generator().getReferenceAlphabet());
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rotationKeepsPwsTest() throws Exception {
+        Map<String, String> pws = new HashMap<>();
+        try (TokenVault vault = TokenVault.open(dir.resolve("tokens.vault"));
+             KeySession old = new KeySession("old-pw".toCharArray(), FAST);
+             KeySession stranger = new KeySession("other-pw".toCharArray(), FAST);
+             KeySession next = new KeySession("new-pw".toCharArray(), FAST);
+             TokenRotation rotation = new TokenRotation(ENGINE, 3)) {
+            fill(vault, old, pws, 12);
+            vault.put("foreign", ENGINE.generate(10, PIN, stranger).get(TokenEngine.TOKEN), "");
+            vault.put("other-pin", ENGINE.generate(10, OTHER_PIN, old).get(TokenEngine.TOKEN), "");
+            List<VaultEntry> before = vault.entries();
+            List<Long> failed = new ArrayList<>();
+            Map<String, Long> pins = pinsOf(vault);
+            pins.remove("other-pin");
+
+            TokenRotation.Result result = rotation.rotate(vault, pins, old, next, (number, e) -> failed.add(number));
+            assertEquals(12, result.getRotated());
+            assertEquals(0, result.getSkipped());
+            assertEquals(1, result.getUntouched());
+            assertEquals(List.of(1L), failed);
+            assertFalse(result.isResumed());
+            assertFalse(Files.exists(TokenRotation.checkpointOf(vault)));
+            assertEquals(14, Files.readAllLines(TokenRotation.backupOf(vault)).size());
+
+            assertEquals(before.get(0), vault.get("foreign").orElseThrow());
+            assertEquals(before.get(1), vault.get("other-pin").orElseThrow());
+            for (VaultEntry former : before.subList(2, before.size())) {
+                VaultEntry rotated = vault.get(former.getLabel()).orElseThrow();
+                assertEquals(former.getMetadata(), rotated.getMetadata());
+                assertEquals(former.getCreatedAt(), rotated.getCreatedAt());
+                assertEquals(pws.get(former.getLabel()), engineOf(rotated).retrieve(rotated.getToken(), PIN, next));
+                assertThrows(GeneralSecurityException.class, () -> old.decrypt(rotated.getToken()));
+            }
+        }
+    }
+
+    @Test
+    void interruptedRotationResumesTest() throws Exception {
+        Map<String, String> pws = new HashMap<>();
+        try (TokenVault vault = TokenVault.open(dir.resolve("tokens.vault"));
+             KeySession old = new KeySession("old-pw".toCharArray(), FAST);
+             KeySession next = new KeySession("new-pw".toCharArray(), FAST);
+             TokenRotation rotation = new TokenRotation(ENGINE, 2)) {
+            fill(vault, old, pws, 6);
+            List<String> labels = vault.labels();
+            // crashed after writing back three tokens, the checkpoint covers two of them
+            for (String label : labels.subList(0, 3)) {
+                VaultEntry entry = vault.get(label).orElseThrow();
+                vault.put(label, engineOf(entry).reencrypt(entry.getToken(), PIN, old, next), entry.getMetadata());
+            }
+            Files.writeString(TokenRotation.checkpointOf(vault), labels.get(1));
+
+            TokenRotation.Result result = rotation.rotate(vault, pinsOf(vault), old, next, (number, e) -> fail(e));
+            assertTrue(result.isResumed());
+            assertEquals(1, result.getSkipped());
+            assertEquals(3, result.getRotated());
+            assertFalse(Files.exists(TokenRotation.backupOf(vault)));
+            for (VaultEntry rotated : vault.entries()) {
+                assertEquals(pws.get(rotated.getLabel()), engineOf(rotated).retrieve(rotated.getToken(), PIN, next));
+            }
+        }
+    }
+
+    private static void fill(TokenVault vault, KeySession session, Map<String, String> pws, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            String filter = i % 2 == 0 ? "" : "aeiou";
+            Map<String, String> tokenAndPw = ENGINE.withoutCharacters(filter).generate(8 + i, PIN, session);
+            vault.put("token-" + i, tokenAndPw.get(TokenEngine.TOKEN), VaultEntry.alphabetFilterMetadata(filter));
+            pws.put("token-" + i, tokenAndPw.get(TokenEngine.PW));
+        }
+    }
+
+    private static Map<String, Long> pinsOf(TokenVault vault) {
+        Map<String, Long> pins = new HashMap<>();
+        vault.labels().forEach(label -> pins.put(label, PIN));
+        return pins;
+    }
+
+    private static TokenEngine engineOf(VaultEntry entry) {
+        return ENGINE.withoutCharacters(entry.getAlphabetFilter());
+    }
+}
@@ -0,0 +1,40 @@
+package com.sam.key.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketBoundsTest() {
+        for (long nanos : new long[]{0, 1, 3, 4, 5, 7, 8, 9, 1_000, 123_456_789L, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(nanos);
+            assertTrue(LatencyHistogram.upperBound(bucket) >= nanos, "upper bound of " + nanos);
+            assertTrue(bucket == 0 || LatencyHistogram.upperBound(bucket - 1) < nanos, "lower bound of " + nanos);
+            // at most 25 % above the value
+            assertTrue(nanos == Long.MAX_VALUE || LatencyHistogram.upperBound(bucket) <= nanos + nanos / LatencyHistogram.SUB_BUCKETS, "precision of " + nanos);
+        }
+    }
+
+    @Test
+    void percentilesTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99));
+        for (int i = 1; i <= 1_000; i++) {
+            histogram.record(i * 1_000L);
+        }
+        assertEquals(1_000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        assertEquals(500_500, histogram.getMeanNanos(), 0.001);
+        long p50 = histogram.getPercentileNanos(50);
+        assertTrue(p50 >= 500_000 && p50 <= 625_000, "p50 " + p50);
+        long p99 = histogram.getPercentileNanos(99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000, "p99 " + p99);
+        assertEquals(1_000_000, histogram.getPercentileNanos(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentileNanos(0));
+    }
+}
@@ -0,0 +1,80 @@
+package com.sam.key.metrics;
+
+import com.sam.key.cipher.KeySession;
+import com.sam.key.manager.Generator;
+import com.sam.key.manager.TokenEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    final TokenEngine engine = new TokenEngine(new Generator().getReferenceAlphabet());
+
+    @AfterEach
+    void disable() {
+        Metrics.setEnabled(false);
+        Metrics.resetAll();
+    }
+
+    @Test
+    void disabledRecordsNothingTest() throws Exception {
+        Metrics.setEnabled(false);
+        Metrics.resetAll();
+        assertEquals(0, Metrics.start());
+        roundTrip();
+        for (Phase phase : Phase.values()) {
+            assertEquals(0, Metrics.histogram(phase).getCount(), phase.name());
+        }
+    }
+
+    @Test
+    void phasesOfRoundTripAreRecordedTest() throws Exception {
+        Metrics.resetAll();
+        Metrics.setEnabled(true);
+        roundTrip();
+        assertEquals(1, Metrics.histogram(Phase.GENERATE).getCount());
+        assertEquals(1, Metrics.histogram(Phase.RETRIEVE).getCount());
+        assertEquals(1, Metrics.histogram(Phase.KEY_DERIVATION).getCount());
+        assertEquals(2, Metrics.histogram(Phase.KEY_EXPANSION).getCount());
+        assertEquals(1, Metrics.histogram(Phase.ENCRYPT).getCount());
+        assertEquals(1, Metrics.histogram(Phase.DECRYPT).getCount());
+        assertEquals(1, Metrics.histogram(Phase.OBFUSCATE).getCount());
+        assertEquals(1, Metrics.histogram(Phase.CLEAR_INDEXES).getCount());
+        // derived once per session and pin
+        assertEquals(1, Metrics.histogram(Phase.ALPHABET).getCount());
+        assertEquals(1, Metrics.histogram(Phase.SHIFT_VALUE).getCount());
+        assertEquals(1, Metrics.histogram(Phase.PW_HASH).getCount());
+        assertTrue(Metrics.histogram(Phase.KEY_DERIVATION).getMaxNanos() > Metrics.histogram(Phase.DECRYPT).getMaxNanos());
+    }
+
+    @Test
+    void mBeansTest() throws Exception {
+        Metrics.registerMBeans();
+        Metrics.registerMBeans();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName control = new ObjectName(Metrics.DOMAIN + ":type=Metrics");
+        server.setAttribute(control, new Attribute("Enabled", true));
+        assertTrue(Metrics.isEnabled());
+        server.invoke(control, "resetAll", null, null);
+        roundTrip();
+        ObjectName keyDerivation = new ObjectName(Metrics.DOMAIN + ":type=PhaseMetrics,name=KEY_DERIVATION");
+        assertEquals(1L, server.getAttribute(keyDerivation, "Count"));
+        assertTrue((Double) server.getAttribute(keyDerivation, "P99Micros") > 0);
+        assertTrue((Double) server.getAttribute(keyDerivation, "MaxMicros") >= (Double) server.getAttribute(keyDerivation, "P50Micros"));
+    }
+
+    private void roundTrip() throws Exception {
+        try (KeySession session = new KeySession("metrics-test-pw".toCharArray())) {
+            Map<String, String> tokenAndPw = engine.generate(20, 12345L, session);
+            assertEquals(tokenAndPw.get(TokenEngine.PW), engine.retrieve(tokenAndPw.get(TokenEngine.TOKEN), 12345L, session));
+        }
+    }
+}
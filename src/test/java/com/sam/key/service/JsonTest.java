@@ -0,0 +1,40 @@
+package com.sam.key.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonTest {
+
+    @Test
+    void roundTripTest() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("id", 7L);
+        object.put("pw", "a\"b\\c\n\u0001 /=;[");
+        object.put("ok", true);
+        object.put("ratio", 0.5);
+        object.put("none", null);
+        String json = Json.write(object);
+        assertEquals("{\"id\":7,\"pw\":\"a\\\"b\\\\c\\n\\u0001 /=;[\",\"ok\":true,\"ratio\":0.5,\"none\":null}", json);
+        assertEquals(object, Json.parseObject(json));
+    }
+
+    @Test
+    void parseTest() {
+        Map<String, Object> object = Json.parseObject(" { \"op\" : \"retrieve\", \"pin\": -9223372036854775808 , \"u\":\"\\u00e4\\/\" } ");
+        assertEquals("retrieve", object.get("op"));
+        assertEquals(Long.MIN_VALUE, object.get("pin"));
+        assertEquals("\u00e4/", object.get("u"));
+        assertTrue(Json.parseObject("{}").isEmpty());
+    }
+
+    @Test
+    void malformedTest() {
+        for (String malformed : new String[]{"", "[]", "{\"a\":1", "{\"a\":[1]}", "{\"a\":{}}", "{\"a\":1}x", "{\"a\":\"\\x\"}", "{a:1}", "{\"a\":1e}"}) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parseObject(malformed), malformed);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.sam.key.service;
+
+import com.sam.key.manager.Generator;
+import com.sam.key.manager.TokenEngine;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipeServerTest {
+
+    @Test
+    void answersEveryRequestInOrderTest() throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            requests.append("{\"id\":").append(i).append(",\"op\":\"generate\",\"password\":\"pipe-pw\",\"pin\":12345,\"length\":").append(10 + i).append("}\n");
+        }
+        requests.append("\n{\"id\":50,\"op\":\"nope\"}\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (RequestHandler handler = new RequestHandler(new TokenEngine(new Generator().getReferenceAlphabet()), null)) {
+            assertEquals(51, PipeServer.serve(new ByteArrayInputStream(requests.toString().getBytes(UTF_8)), out, handler));
+        }
+        List<String> responses = List.of(out.toString(UTF_8).split("\n"));
+        assertEquals(51, responses.size());
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> response = Json.parseObject(responses.get(i));
+            assertEquals((long) i, response.get("id"));
+            assertEquals(10 + i, ((String) response.get("pw")).length());
+        }
+        assertEquals(false, Json.parseObject(responses.get(50)).get("ok"));
+    }
+
+    @Test
+    void overlongRequestEndsStreamTest() {
+        String request = "{\"op\":\"ping\",\"pad\":\"" + "x".repeat(RequestHandler.MAX_REQUEST_LENGTH) + "\"}\n";
+        try (RequestHandler handler = new RequestHandler(new TokenEngine(new Generator().getReferenceAlphabet()), null)) {
+            assertThrows(IOException.class, () -> PipeServer.serve(new ByteArrayInputStream(request.getBytes(UTF_8)), new ByteArrayOutputStream(), handler));
+        }
+    }
+}
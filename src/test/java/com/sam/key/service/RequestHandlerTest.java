@@ -0,0 +1,128 @@
+package com.sam.key.service;
+
+import com.sam.key.cipher.KdfParams;
+import com.sam.key.cipher.KeySession;
+import com.sam.key.manager.Generator;
+import com.sam.key.manager.TokenEngine;
+import com.sam.key.vault.TokenVault;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestHandlerTest {
+
+    final TokenEngine engine = new TokenEngine(new Generator().getReferenceAlphabet());
+
+    @Test
+    void generateAndRetrieveTest() {
+        try (RequestHandler handler = new RequestHandler(engine, null)) {
+            Map<String, Object> generated = Json.parseObject(handler.handle("{\"id\":\"a\",\"op\":\"generate\",\"password\":\"pipe-pw\",\"pin\":12345,\"length\":24}"));
+            assertEquals("a", generated.get("id"));
+            assertEquals(true, generated.get("ok"));
+            assertEquals(24, ((String) generated.get("pw")).length());
+            Map<String, Object> retrieved = Json.parseObject(handler.handle(Json.write(Map.of("id", 2L, "op", "retrieve", "password", "pipe-pw", "pin", "12345", "token", generated.get("token")))));
+            assertEquals(2L, retrieved.get("id"));
+            assertEquals(generated.get("pw"), retrieved.get("pw"));
+            assertEquals("{\"ok\":true}", handler.handle("{\"op\":\"ping\"}"));
+        }
+    }
+
+    @Test
+    void failuresAreAnsweredTest() {
+        try (RequestHandler handler = new RequestHandler(engine, null)) {
+            assertEquals(false, Json.parseObject(handler.handle("not json")).get("ok"));
+            assertEquals("Unknown op: drop", Json.parseObject(handler.handle("{\"id\":1,\"op\":\"drop\"}")).get("error"));
+            assertEquals("Missing integer field: pin", Json.parseObject(handler.handle("{\"op\":\"generate\",\"password\":\"pw\",\"length\":5}")).get("error"));
+            Map<String, Object> response = Json.parseObject(handler.handle("{\"id\":3,\"op\":\"retrieve\",\"password\":\"pw\",\"pin\":1,\"token\":\"v2.%%\"}"));
+            assertEquals(3L, response.get("id"));
+            assertEquals(false, response.get("ok"));
+            assertEquals("No vault configured", Json.parseObject(handler.handle("{\"op\":\"retrieve\",\"password\":\"pw\",\"pin\":1,\"label\":\"mail\"}")).get("error"));
+        }
+    }
+
+    @Test
+    void labelsUseVaultTest(@TempDir Path dir) throws IOException {
+        try (TokenVault vault = TokenVault.open(dir.resolve("tokens.vault"));
+             RequestHandler handler = new RequestHandler(engine, vault)) {
+            Map<String, Object> generated = Json.parseObject(handler.handle("{\"op\":\"generate\",\"password\":\"pipe-pw\",\"pin\":4711,\"length\":12,\"label\":\"mail\"}"));
+            assertEquals(generated.get("token"), vault.get("mail").orElseThrow().getToken());
+            Map<String, Object> retrieved = Json.parseObject(handler.handle("{\"op\":\"retrieve\",\"password\":\"pipe-pw\",\"pin\":4711,\"label\":\"mail\"}"));
+            assertEquals(generated.get("pw"), retrieved.get("pw"));
+        }
+    }
+
+    @Test
+    void labelsRecordAlphabetFilterTest(@TempDir Path dir) throws IOException {
+        Generator filtered = new Generator("xyz");
+        try (TokenVault vault = TokenVault.open(dir.resolve("tokens.vault"));
+             RequestHandler handler = new RequestHandler(new TokenEngine(filtered.getReferenceAlphabet()), vault, "xyz", RequestHandler.DEFAULT_SESSION_CAPACITY)) {
+            Map<String, Object> generated = Json.parseObject(handler.handle("{\"op\":\"generate\",\"password\":\"pipe-pw\",\"pin\":4711,\"length\":12,\"label\":\"mail\"}"));
+            assertEquals("xyz", vault.get("mail").orElseThrow().getAlphabetFilter());
+            // the console retrieves labels with the alphabet recorded in the entry
+            assertEquals(generated.get("pw"), new Generator().setVault(vault).getPWfromToken("pipe-pw", 4711L, "mail"));
+        }
+    }
+
+    @Test
+    void weakTokenIsRehashedInVaultTest(@TempDir Path dir) throws Exception {
+        Map<String, String> tokenAndPw;
+        try (KeySession weak = new KeySession("pipe-pw".toCharArray(), KdfParams.pbkdf2(KdfParams.MIN_ITERATIONS))) {
+            tokenAndPw = engine.withoutCharacters("x").generate(16, 4711L, weak);
+        }
+        try (TokenVault vault = TokenVault.open(dir.resolve("tokens.vault"));
+             RequestHandler handler = new RequestHandler(engine, vault)) {
+            vault.put("mail", tokenAndPw.get(TokenEngine.TOKEN), "alphabetFilter=x");
+            Map<String, Object> plain = Json.parseObject(handler.handle("{\"op\":\"retrieve\",\"password\":\"pipe-pw\",\"pin\":4711,\"label\":\"mail\"}"));
+            assertEquals(tokenAndPw.get(TokenEngine.PW), plain.get("pw"));
+            assertFalse(plain.containsKey("token"));
+            Map<String, Object> rehashed = Json.parseObject(handler.handle("{\"op\":\"retrieve\",\"password\":\"pipe-pw\",\"pin\":4711,\"label\":\"mail\",\"rehash\":true}"));
+            assertEquals(tokenAndPw.get(TokenEngine.PW), rehashed.get("pw"));
+            String upgraded = (String) rehashed.get("token");
+            assertEquals(KdfParams.policy(), KeySession.kdfParamsOf(upgraded));
+            assertEquals(upgraded, vault.get("mail").orElseThrow().getToken());
+            assertEquals("alphabetFilter=x", vault.get("mail").orElseThrow().getMetadata());
+            // already at policy, nothing to upgrade
+            assertFalse(Json.parseObject(handler.handle("{\"op\":\"retrieve\",\"password\":\"pipe-pw\",\"pin\":4711,\"label\":\"mail\",\"rehash\":true}")).containsKey("token"));
+        }
+    }
+
+    @Test
+    void expensiveTokenHeaderIsRejectedTest() {
+        // v3 header claiming the maximum iterations, followed by salts, iv and cipher text of any content
+        ByteBuffer token = ByteBuffer.allocate(5 + 80).put((byte) KdfParams.PBKDF2_HMAC_SHA256).putInt(KdfParams.MAX_ITERATIONS);
+        String expensive = KeySession.V3_PREFIX + Base64.getEncoder().encodeToString(token.array());
+        try (RequestHandler handler = new RequestHandler(engine, null)) {
+            long start = System.nanoTime();
+            String error = (String) Json.parseObject(handler.handle(Json.write(Map.of("op", "retrieve", "password", "pw", "pin", 1L, "token", expensive)))).get("error");
+            assertTrue(error.startsWith("Token KDF iterations " + KdfParams.MAX_ITERATIONS), error);
+            assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        }
+    }
+
+    @Test
+    void evictedSessionsAreClosedAfterLastLeaseTest() {
+        try (SessionCache cache = new SessionCache(1)) {
+            SessionCache.Lease first = cache.acquire("first");
+            SessionCache.Lease firstAgain = cache.acquire("first");
+            KeySession firstSession = first.session();
+            assertSame(firstSession, firstAgain.session());
+            try (SessionCache.Lease second = cache.acquire("second")) {
+                assertEquals(1, cache.size());
+                first.close();
+                first.close();
+                // evicted, but still leased
+                assertEquals("first", String.valueOf(firstSession.getPassword()));
+                firstAgain.close();
+                assertNotEquals("first", String.valueOf(firstSession.getPassword()));
+                assertEquals("second", String.valueOf(second.session().getPassword()));
+            }
+        }
+    }
+}
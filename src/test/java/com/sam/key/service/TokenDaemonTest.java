@@ -0,0 +1,170 @@
+package com.sam.key.service;
+
+import com.sam.key.manager.Generator;
+import com.sam.key.manager.TokenEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenDaemonTest {
+
+    final TokenEngine engine = new TokenEngine(new Generator().getReferenceAlphabet());
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripOverLoopbackTest() throws Exception {
+        try (RequestHandler handler = new RequestHandler(engine, null);
+             TokenDaemon daemon = new TokenDaemon(handler, 0, dir.resolve("daemon.secret")).start();
+             Client client = new Client(daemon)) {
+            Map<String, Object> generated = client.call("{\"id\":1,\"op\":\"generate\",\"password\":\"daemon-pw\",\"pin\":12345,\"length\":30}");
+            assertEquals(true, generated.get("ok"));
+            Map<String, Object> retrieved = client.call(Json.write(Map.of("id", 2L, "op", "retrieve", "password", "daemon-pw", "pin", 12345L, "token", generated.get("token"))));
+            assertEquals(generated.get("pw"), retrieved.get("pw"));
+            assertEquals(false, client.call("{\"id\":3,\"op\":\"unknown\"}").get("ok"));
+        }
+    }
+
+    @Test
+    void concurrentClientsTest() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try (RequestHandler handler = new RequestHandler(engine, null);
+             TokenDaemon daemon = new TokenDaemon(handler, 0, dir.resolve("daemon.secret")).start()) {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int c = 0; c < 4; c++) {
+                long pin = 1000L + c;
+                results.add(clients.submit(() -> {
+                    try (Client client = new Client(daemon)) {
+                        for (int i = 0; i < 10; i++) {
+                            Map<String, Object> generated = client.call("{\"id\":" + i + ",\"op\":\"generate\",\"password\":\"daemon-pw\",\"pin\":" + pin + ",\"length\":" + (10 + i) + "}");
+                            Map<String, Object> retrieved = client.call(Json.write(Map.of("op", "retrieve", "password", "daemon-pw", "pin", pin, "token", generated.get("token"))));
+                            if (!generated.get("id").equals((long) i) || !generated.get("pw").equals(retrieved.get("pw"))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    void slowRequestsTimeOutTest() throws Exception {
+        RequestHandler slowHandler = new RequestHandler(engine, null) {
+            @Override
+            public String handle(String line, boolean authenticated) {
+                if (line.contains("slow")) {
+                    try {
+                        Thread.sleep(2_000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.handle(line, authenticated);
+            }
+        };
+        try (slowHandler;
+             TokenDaemon daemon = new TokenDaemon(slowHandler, 0, dir.resolve("daemon.secret"), 1, 1, 4, Duration.ofMillis(200)).start();
+             Client client = new Client(daemon)) {
+            Map<String, Object> response = client.call("{\"id\":7,\"op\":\"slow\"}");
+            assertEquals(7L, response.get("id"));
+            assertEquals(TokenDaemon.TIMED_OUT, response.get("error"));
+            // the interrupted worker is free again, the connection stays usable
+            assertEquals(true, client.call("{\"op\":\"ping\"}").get("ok"));
+        }
+    }
+
+    @Test
+    void unauthenticatedClientsTest() throws Exception {
+        Path secretFile = dir.resolve("daemon.secret");
+        try (RequestHandler handler = new RequestHandler(engine, null);
+             TokenDaemon daemon = new TokenDaemon(handler, 0, secretFile).start();
+             Client stranger = new Client(daemon.getPort(), "0".repeat(64));
+             Client anonymous = new Client(daemon.getPort(), null)) {
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(secretFile)));
+            }
+            String generate = "{\"id\":1,\"op\":\"generate\",\"password\":\"daemon-pw\",\"pin\":12345,\"length\":30,\"label\":\"mail\"}";
+            assertEquals(RequestHandler.UNAUTHORIZED, stranger.call(generate).get("error"));
+            assertEquals(RequestHandler.UNAUTHORIZED, anonymous.call(generate).get("error"));
+            assertEquals(1L, anonymous.call(generate).get("id"));
+            assertEquals(true, anonymous.call("{\"op\":\"ping\"}").get("ok"));
+        }
+        assertFalse(Files.exists(secretFile));
+    }
+
+    @Test
+    void httpRequestClosesConnectionTest() throws Exception {
+        try (RequestHandler handler = new RequestHandler(engine, null);
+             TokenDaemon daemon = new TokenDaemon(handler, 0, dir.resolve("daemon.secret")).start();
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+            writer.write("POST / HTTP/1.1\r\nHost: 127.0.0.1:4711\r\nContent-Type: text/plain\r\n\r\n"
+                    + "{\"op\":\"generate\",\"password\":\"attacker\",\"pin\":1,\"length\":8}\n");
+            writer.flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            assertNull(reader.readLine());
+        }
+    }
+
+    static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final Writer writer;
+        private final String secret;
+
+        Client(TokenDaemon daemon) throws IOException {
+            this(daemon.getPort(), new String(Files.readAllBytes(daemon.getSecretFile()), UTF_8));
+        }
+
+        Client(int port, String secret) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+            this.secret = secret;
+        }
+
+        Map<String, Object> call(String request) throws IOException {
+            Map<String, Object> authenticated = new LinkedHashMap<>(Json.parseObject(request));
+            if (secret != null) {
+                authenticated.put(TokenDaemon.AUTH, secret);
+            }
+            writer.write(Json.write(authenticated) + "\n");
+            writer.flush();
+            return Json.parseObject(reader.readLine());
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.sam.key.transfer;
+
+import com.sam.key.vault.TokenVault;
+import com.sam.key.vault.VaultEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenTransferTest {
+
+    private static final List<VaultEntry> ENTRIES = List.of(
+            new VaultEntry("bank", "v3.bankToken", "", Instant.ofEpochMilli(1_000L)),
+            new VaultEntry("mail, \"private\"", "v3.mailToken", VaultEntry.alphabetFilterMetadata(",\"\r\n"), Instant.ofEpochMilli(2_000L)),
+            new VaultEntry("multi\nline ä€😀", "v3.otherToken", VaultEntry.alphabetFilterMetadata("aeiou"), Instant.ofEpochMilli(3_000L)));
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void csvRoundTripTest() throws IOException {
+        assertRoundTrip(dir.resolve("tokens.csv"));
+        assertTrue(Files.readString(dir.resolve("tokens.csv"), UTF_8).startsWith("label,token,createdAt,alphabetFilter\r\n"));
+    }
+
+    @Test
+    void jsonLinesRoundTripTest() throws IOException {
+        assertRoundTrip(dir.resolve("tokens.jsonl"));
+        assertEquals(ENTRIES.size(), Files.readAllLines(dir.resolve("tokens.jsonl"), UTF_8).size());
+    }
+
+    @Test
+    void csvColumnsByHeaderTest() throws IOException {
+        String csv = "token,label,comment\n" +
+                "v3.a,first,ignored\r\n" +
+                "\n" +
+                "\"v3.b\",\"sec\"\"ond\",\n";
+        try (TokenRecordReader reader = TransferFormat.CSV.reader(new StringReader(csv))) {
+            VaultEntry first = reader.read();
+            assertEquals("first", first.getLabel());
+            assertEquals("v3.a", first.getToken());
+            assertEquals("", first.getAlphabetFilter());
+            assertEquals("sec\"ond", reader.read().getLabel());
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    void malformedRecordsAreRejectedTest() throws IOException {
+        assertThrows(IOException.class, () -> TransferFormat.CSV.reader(new StringReader("label,createdAt\n")));
+        assertMalformed(TransferFormat.CSV, "label,token\nmail,\"v3.unterminated\n");
+        assertMalformed(TransferFormat.CSV, "label,token\n\"mail\"x,v3.token\n");
+        assertMalformed(TransferFormat.CSV, "label,token,createdAt\nmail,v3.token,yesterday\n");
+        assertMalformed(TransferFormat.JSONL, "{\"label\":\"mail\"}\n");
+        assertMalformed(TransferFormat.JSONL, "{\"label\":\"mail\",\"token\":1}\n");
+        assertMalformed(TransferFormat.JSONL, "[\"mail\"]\n");
+        assertMalformed(TransferFormat.JSONL, "x".repeat(TransferFormat.MAX_RECORD_LENGTH + 1));
+        assertThrows(IllegalArgumentException.class, () -> TransferFormat.of(dir.resolve("tokens.txt")));
+    }
+
+    private void assertRoundTrip(Path file) throws IOException {
+        try (TokenVault source = TokenVault.open(dir.resolve("source.vault"))) {
+            for (VaultEntry entry : ENTRIES) {
+                source.put(entry);
+            }
+            assertEquals(ENTRIES.size(), TokenTransfer.exportTo(source, file));
+        }
+        try (TokenVault target = TokenVault.open(dir.resolve(file.getFileName() + ".vault"))) {
+            target.put("bank", "v3.formerToken", "");
+            assertEquals(ENTRIES.size(), TokenTransfer.importFrom(file, target));
+            assertEquals(ENTRIES, target.entries());
+        }
+    }
+
+    private static void assertMalformed(TransferFormat format, String content) throws IOException {
+        try (TokenRecordReader reader = format.reader(new StringReader(content))) {
+            IOException e = assertThrows(IOException.class, reader::read);
+            assertTrue(e.getMessage().startsWith("Record "), e.getMessage());
+        }
+    }
+}
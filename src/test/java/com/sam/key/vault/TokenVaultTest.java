@@ -0,0 +1,187 @@
+package com.sam.key.vault;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenVaultTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void putGetAndReopenTest() throws IOException {
+        Path file = dir.resolve("tokens.vault");
+        VaultEntry mail = new VaultEntry("mail", "v2.mailToken", "alphabetFilter=abc", Instant.ofEpochMilli(1_000L));
+        try (TokenVault vault = TokenVault.open(file)) {
+            vault.put(mail);
+            vault.put("bank", "v2.bankToken", "");
+            assertEquals(mail, vault.get("mail").orElseThrow());
+            assertEquals("v2.bankToken", vault.get("bank").orElseThrow().getToken());
+            assertFalse(vault.get("unknown").isPresent());
+        }
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(List.of("bank", "mail"), vault.labels());
+            assertEquals(mail, vault.get("mail").orElseThrow());
+            assertEquals(0, vault.garbageBytes());
+        }
+    }
+
+    @Test
+    void supersedeDeleteAndCompactTest() throws IOException {
+        Path file = dir.resolve("tokens.vault");
+        try (TokenVault vault = TokenVault.open(file)) {
+            for (int i = 0; i < 10; i++) {
+                vault.put("mail", "v2.mailToken" + i, "");
+            }
+            vault.put("bank", "v2.bankToken", "");
+            vault.put("old", "v2.oldToken", "");
+            assertTrue(vault.delete("old"));
+            assertFalse(vault.delete("old"));
+            assertEquals("v2.mailToken9", vault.get("mail").orElseThrow().getToken());
+            assertTrue(vault.garbageBytes() > 0);
+
+            long before = Files.size(file);
+            long reclaimed = vault.compact();
+            assertEquals(before - reclaimed, Files.size(file));
+            assertEquals(0, vault.garbageBytes());
+            assertEquals(List.of("bank", "mail"), vault.labels());
+            assertEquals("v2.mailToken9", vault.get("mail").orElseThrow().getToken());
+            vault.put("new", "v2.newToken", "");
+        }
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(List.of("bank", "mail", "new"), vault.labels());
+            assertFalse(Files.exists(dir.resolve("tokens.vault.compact")));
+        }
+    }
+
+    @Test
+    void alternatingPutGetAndCompactTest() throws IOException {
+        Path file = dir.resolve("tokens.vault");
+        try (TokenVault vault = TokenVault.open(file)) {
+            long mapped = vault.mappedBytes();
+            for (int i = 0; i < 100; i++) {
+                vault.put("label-" + i % 10, "v2.token" + i, "");
+                assertEquals("v2.token" + i, vault.get("label-" + i % 10).orElseThrow().getToken());
+            }
+            // records appended after the mapping are read from the channel, not mapped one by one
+            assertEquals(mapped, vault.mappedBytes());
+            String large = "v2." + "x".repeat(TokenVault.MIN_REMAP_BYTES);
+            vault.put("large", large, "");
+            assertEquals(large, vault.get("large").orElseThrow().getToken());
+            assertEquals(Files.size(file), vault.mappedBytes());
+            Object former = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+
+            vault.compact();
+            assertNotEquals(former, Files.readAttributes(file, BasicFileAttributes.class).fileKey());
+            assertFalse(Files.exists(dir.resolve("tokens.vault.compact")));
+            assertEquals(0, vault.garbageBytes());
+            assertEquals(large, vault.get("large").orElseThrow().getToken());
+            for (int i = 90; i < 100; i++) {
+                assertEquals("v2.token" + i, vault.get("label-" + i % 10).orElseThrow().getToken());
+            }
+            vault.put("label-0", "v2.compacted", "");
+            assertEquals("v2.compacted", vault.get("label-0").orElseThrow().getToken());
+        }
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(11, vault.size());
+            assertEquals("v2.compacted", vault.get("label-0").orElseThrow().getToken());
+        }
+    }
+
+    @Test
+    void tornTailIsCutOffTest() throws IOException {
+        Path file = dir.resolve("tokens.vault");
+        try (TokenVault vault = TokenVault.open(file)) {
+            vault.put("mail", "v2.mailToken", "");
+        }
+        long valid = Files.size(file);
+        ByteBuffer partial = TokenVault.encode(TokenVault.PUT, 0L, "bank", "v2.bankToken", "");
+        partial.limit(partial.limit() - 3);
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.write(partial, valid);
+        }
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(List.of("mail"), vault.labels());
+            assertEquals(valid, Files.size(file));
+            vault.put("bank", "v2.bankToken", "");
+        }
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(List.of("bank", "mail"), vault.labels());
+        }
+    }
+
+    @Test
+    void corruptRecordIsDetectedTest() throws IOException {
+        Path file = dir.resolve("tokens.vault");
+        try (TokenVault vault = TokenVault.open(file)) {
+            vault.put("mail", "v2.mailToken", "");
+            vault.put("bank", "v2.bankToken", "");
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        // flip the last token byte of the second record, its checksum no longer matches
+        bytes[bytes.length - 9] ^= 0x01;
+        Files.write(file, bytes);
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(List.of("mail"), vault.labels());
+            // a complete record is not cut off, it stays as garbage next to a backup
+            assertEquals(bytes.length, Files.size(file));
+            assertTrue(vault.garbageBytes() > 0);
+            assertArrayEquals(bytes, Files.readAllBytes(dir.resolve("tokens.vault" + TokenVault.CORRUPT_SUFFIX)));
+            vault.put("bank", "v2.bankToken2", "");
+        }
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(List.of("bank", "mail"), vault.labels());
+            vault.compact();
+            assertEquals(0, vault.garbageBytes());
+        }
+    }
+
+    @Test
+    void corruptionInTheMiddleKeepsLaterRecordsTest() throws IOException {
+        Path file = dir.resolve("tokens.vault");
+        try (TokenVault vault = TokenVault.open(file)) {
+            vault.put("bank", "v2.bankToken", "");
+            vault.put("mail", "v2.mailToken", "");
+            vault.put("shop", "v2.shopToken", "");
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        // the magic of the second record
+        int second = TokenVault.encode(TokenVault.PUT, 0L, "bank", "v2.bankToken", "").limit();
+        bytes[second] ^= 0x10;
+        Files.write(file, bytes);
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(List.of("bank", "shop"), vault.labels());
+            assertEquals("v2.shopToken", vault.get("shop").orElseThrow().getToken());
+            assertEquals(bytes.length, Files.size(file));
+            assertTrue(Files.exists(dir.resolve("tokens.vault" + TokenVault.CORRUPT_SUFFIX)));
+        }
+    }
+
+    @Test
+    void vaultInUseIsNotOpenedTest() throws IOException {
+        Path file = dir.resolve("tokens.vault");
+        try (TokenVault vault = TokenVault.open(file)) {
+            vault.put("mail", "v2.mailToken", "");
+            IOException e = assertThrows(IOException.class, () -> TokenVault.open(file));
+            assertTrue(e.getMessage().startsWith("Vault is in use"), e.getMessage());
+            // compaction releases and takes the lock again
+            vault.compact();
+            assertThrows(IOException.class, () -> TokenVault.open(file));
+        }
+        try (TokenVault vault = TokenVault.open(file)) {
+            assertEquals(List.of("mail"), vault.labels());
+        }
+    }
+}
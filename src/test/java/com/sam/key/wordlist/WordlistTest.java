@@ -0,0 +1,64 @@
+package com.sam.key.wordlist;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WordlistTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void wordsAndIndexTest() throws IOException {
+        Path file = dir.resolve("words.txt");
+        Files.write(file, "﻿abacus\r\n\n  11112\tabdomen  \r\n11113 abhor\nzürich".getBytes(UTF_8));
+        Wordlist wordlist = Wordlist.open(file);
+        assertEquals(4, wordlist.size());
+        assertEquals("abacus", wordlist.word(0));
+        assertEquals("abdomen", wordlist.word(1));
+        assertEquals("abhor", wordlist.word(2));
+        assertEquals("zürich", wordlist.word(3));
+        assertEquals(2.0, wordlist.bitsPerWord(), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> wordlist.word(4));
+        assertThrows(IllegalArgumentException.class, () -> wordlist.word(-1));
+
+        Path index = Wordlist.indexOf(file);
+        assertTrue(Files.exists(index));
+        assertEquals(Wordlist.HEADER_LENGTH + 4 * Wordlist.ENTRY_LENGTH, Files.size(index));
+        FileTime built = Files.getLastModifiedTime(index);
+        // an up to date table is reused
+        Files.setLastModifiedTime(index, FileTime.fromMillis(built.toMillis() - 10_000));
+        assertEquals(wordlist.getChecksum(), Wordlist.open(file).getChecksum());
+        assertEquals(built.toMillis() - 10_000, Files.getLastModifiedTime(index).toMillis());
+    }
+
+    @Test
+    void changedListRebuildsIndexTest() throws IOException {
+        Path file = dir.resolve("words.txt");
+        Files.write(file, "alpha\nbravo\n".getBytes(UTF_8));
+        Wordlist former = Wordlist.open(file);
+        Files.write(file, "alpha\nbravo\ncharlie\n".getBytes(UTF_8));
+        Wordlist current = Wordlist.open(file);
+        assertEquals(3, current.size());
+        assertEquals("charlie", current.word(2));
+        assertNotEquals(former.getChecksum(), current.getChecksum());
+        // a corrupt table is rebuilt as well
+        Files.write(Wordlist.indexOf(file), new byte[]{1, 2, 3});
+        assertEquals("charlie", Wordlist.open(file).word(2));
+    }
+
+    @Test
+    void emptyListTest() throws IOException {
+        Path file = dir.resolve("empty.txt");
+        Files.write(file, "\n \r\n".getBytes(UTF_8));
+        assertThrows(IOException.class, () -> Wordlist.open(file));
+    }
+}